@@ -15,6 +15,7 @@
  */
 package org.ops4j.pax.transx.connection.utils;
 
+import javax.resource.ResourceException;
 import javax.resource.spi.ConnectionRequestInfo;
 
 public abstract class AbstractConnectionHandle<
@@ -73,6 +74,19 @@ public abstract class AbstractConnectionHandle<
         return mc;
     }
 
+    /**
+     * Return the managed connection, enlisted in the current transaction if its enlistment was deferred.
+     */
+    protected <E extends Exception> MC getEnlistedManagedConnection() throws E {
+        MC mc = getManagedConnection();
+        try {
+            mc.lazyEnlist();
+        } catch (ResourceException e) {
+            throw this.<E>wrapException("Unable to enlist connection", e);
+        }
+        return mc;
+    }
+
     protected interface Runnable<T> {
         void run(T c) throws Exception;
     }
@@ -83,7 +97,7 @@ public abstract class AbstractConnectionHandle<
 
     protected <E extends Exception> void execute(Runnable<C> cb) throws E {
         try {
-            cb.run(getManagedConnection().getPhysicalConnection());
+            cb.run(this.<E>getEnlistedManagedConnection().getPhysicalConnection());
         } catch (Exception e) {
             connectionError(e);
             throw this.<E>wrapException(null, e);
@@ -92,7 +106,7 @@ public abstract class AbstractConnectionHandle<
 
     protected <E extends Exception, R> R call(Callable<C, R> cb) throws E {
         try {
-            return cb.call(getManagedConnection().getPhysicalConnection());
+            return cb.call(this.<E>getEnlistedManagedConnection().getPhysicalConnection());
         } catch (Exception e) {
             connectionError(e);
             throw this.<E>wrapException(null, e);
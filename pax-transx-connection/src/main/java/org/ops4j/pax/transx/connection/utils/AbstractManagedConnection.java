@@ -24,6 +24,8 @@ import javax.resource.ResourceException;
 import javax.resource.spi.ConnectionEvent;
 import javax.resource.spi.ConnectionEventListener;
 import javax.resource.spi.ConnectionRequestInfo;
+import javax.resource.spi.LazyEnlistableConnectionManager;
+import javax.resource.spi.LazyEnlistableManagedConnection;
 import javax.resource.spi.LocalTransaction;
 import javax.resource.spi.ManagedConnection;
 import javax.resource.spi.ManagedConnectionMetaData;
@@ -40,7 +42,7 @@ public abstract class AbstractManagedConnection<
         MC extends AbstractManagedConnection<MCF, MC, C, CI>,
         C,
         CI extends AbstractConnectionHandle<MCF, MC, C, CI>>
-            implements ManagedConnection {
+            implements ManagedConnection, LazyEnlistableManagedConnection {
 
     protected final MCF mcf;
     protected CI handle;
@@ -60,6 +62,7 @@ public abstract class AbstractManagedConnection<
     protected boolean inXaTransaction;
 
     private ConnectionEventListener listener;
+    private boolean lazyEnlisted;
 
     public AbstractManagedConnection(MCF mcf, CredentialExtractor credentialExtractor, ExceptionSorter exceptionSorter) {
         assert exceptionSorter != null;
@@ -96,6 +99,26 @@ public abstract class AbstractManagedConnection<
 
     protected abstract boolean isValid();
 
+    /**
+     * Ask the connection manager to enlist this connection in the current transaction, if
+     * the enlistment has been deferred. Called by the connection handles before the first
+     * operation on the physical connection. The connection is only considered enlisted once
+     * the connection manager returned normally, so a failed attempt is made again on the next
+     * operation.
+     *
+     * @throws ResourceException if the enlistment fails, or the connection can not be enlisted
+     *         in the transaction it has been allocated in
+     */
+    public void lazyEnlist() throws ResourceException {
+        if (!lazyEnlisted) {
+            LazyEnlistableConnectionManager cm = mcf.getLazyEnlistableConnectionManager();
+            if (cm != null) {
+                cm.lazyEnlist(this);
+            }
+            lazyEnlisted = true;
+        }
+    }
+
     /**
      * Default implementation dissociates the connection handles.
      * Sub-classes should override to perform any cleanup needed on the physical connection.
@@ -103,6 +126,7 @@ public abstract class AbstractManagedConnection<
      * @throws ResourceException
      */
     public void cleanup() throws ResourceException {
+        lazyEnlisted = false;
         if (handle != null) {
             handle.cleanup();
             handle = null;
@@ -245,6 +269,17 @@ public abstract class AbstractManagedConnection<
         return inXaTransaction;
     }
 
+    /**
+     * Called before the XA branch is ended on the physical resource, so that sub-classes
+     * can complete any work that is still buffered on the connection.
+     * If an exception is thrown, the branch is ended with {@link XAResource#TMFAIL} instead.
+     *
+     * @param flags the flags passed to {@link XAResource#end(Xid, int)}
+     * @throws XAException if the buffered work could not be completed
+     */
+    protected void beforeXaEnd(int flags) throws XAException {
+    }
+
     public abstract C getPhysicalConnection();
 
     protected abstract void closePhysicalConnection() throws ResourceException;
@@ -344,11 +379,22 @@ public abstract class AbstractManagedConnection<
 
         @Override
         public void end(Xid xid, int flags) throws XAException {
+            XAException failure = null;
+            int endFlags = flags;
             try {
-                getXAResource().end(xid, flags);
+                beforeXaEnd(flags);
+            } catch (XAException e) {
+                failure = e;
+                endFlags = TMFAIL;
+            }
+            try {
+                getXAResource().end(xid, endFlags);
             } finally {
                 setInXaTransaction(false);
             }
+            if (failure != null) {
+                throw failure;
+            }
         }
 
         @Override
@@ -20,8 +20,10 @@ import java.security.PrivilegedAction;
 import java.util.HashSet;
 import java.util.Set;
 import javax.resource.ResourceException;
+import javax.resource.spi.ConnectionManager;
 import javax.resource.spi.ConnectionRequestInfo;
 import javax.resource.spi.InvalidPropertyException;
+import javax.resource.spi.LazyEnlistableConnectionManager;
 import javax.resource.spi.ManagedConnection;
 import javax.resource.spi.TransactionSupport;
 import javax.resource.spi.ValidatingManagedConnectionFactory;
@@ -40,6 +42,7 @@ public abstract class AbstractManagedConnectionFactory<
     protected ExceptionSorter exceptionSorter;
     protected String userName;
     protected String password;
+    protected LazyEnlistableConnectionManager lazyEnlistableConnectionManager;
 
     public AbstractManagedConnectionFactory() {
         this.exceptionSorter = NoExceptionsAreFatalSorter.INSTANCE;
@@ -134,6 +137,21 @@ public abstract class AbstractManagedConnectionFactory<
         return createConnectionFactory(null);
     }
 
+    /**
+     * Remember the connection manager the connection factory is created for, so that
+     * connections can ask it to enlist them lazily.
+     *
+     * @param cm the connection manager, may be null
+     */
+    protected void setConnectionManager(ConnectionManager cm) {
+        this.lazyEnlistableConnectionManager = cm instanceof LazyEnlistableConnectionManager
+                ? (LazyEnlistableConnectionManager) cm : null;
+    }
+
+    public LazyEnlistableConnectionManager getLazyEnlistableConnectionManager() {
+        return lazyEnlistableConnectionManager;
+    }
+
     public ManagedConnection matchManagedConnections(Set set, Subject subject, ConnectionRequestInfo connectionRequestInfo) throws ResourceException {
         for (Object o : set) {
             if (o instanceof AbstractManagedConnection) {
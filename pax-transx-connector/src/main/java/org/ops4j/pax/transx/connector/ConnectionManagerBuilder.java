@@ -15,6 +15,8 @@
  */
 package org.ops4j.pax.transx.connector;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.logging.Logger;
 import javax.resource.spi.ConnectionManager;
 import javax.resource.spi.ManagedConnectionFactory;
@@ -52,6 +54,9 @@ public class ConnectionManagerBuilder {
     private long maxLifetime = MAX_LIFETIME;
     private long aliveBypassWindow = ALIVE_BYPASS_WINDOW;
     private long houseKeepingPeriod =  HOUSE_KEEPING_PERIOD;
+    private boolean lazyEnlistment;
+    private boolean releaseOnXaEnd;
+    private final Map<String, Object> mbeans = new LinkedHashMap<>();
 
     private ConnectionManagerBuilder() {
     }
@@ -115,6 +120,48 @@ public class ConnectionManagerBuilder {
         return this;
     }
 
+    /**
+     * Defer the enlistment of a connection allocated within a transaction until its first use,
+     * so that connections which are never used do not take part in the transaction.
+     * Only effective with managed connections implementing
+     * {@link javax.resource.spi.LazyEnlistableManagedConnection}.
+     *
+     * @param lazyEnlistment whether enlistment is deferred
+     * @return this builder
+     */
+    public ConnectionManagerBuilder lazyEnlistment(boolean lazyEnlistment) {
+        this.lazyEnlistment = lazyEnlistment;
+        return this;
+    }
+
+    /**
+     * Return a connection to the pool as soon as its XA association ends, instead of after the
+     * transaction completion. The prepare and commit calls are then issued on a dedicated
+     * connection, which requires a driver supporting XA completion on a different physical
+     * connection than the one the work was done on.
+     *
+     * @param releaseOnXaEnd whether connections are released at the end of their XA association
+     * @return this builder
+     */
+    public ConnectionManagerBuilder releaseOnXaEnd(boolean releaseOnXaEnd) {
+        this.releaseOnXaEnd = releaseOnXaEnd;
+        return this;
+    }
+
+    /**
+     * Register an additional MBean along with the pool, under
+     * <code>org.ops4j.pax.transx:type=&lt;type&gt;,name=&lt;pool name&gt;</code>.
+     * The MBean is unregistered when the connection manager is closed.
+     *
+     * @param type the type of the MBean
+     * @param mbean the MBean
+     * @return this builder
+     */
+    public ConnectionManagerBuilder mbean(String type, Object mbean) {
+        this.mbeans.put(type, mbean);
+        return this;
+    }
+
     public ConnectionManager build() throws Exception {
         if (transactionManager == null && transaction != TransactionSupportLevel.NoTransaction) {
             throw new IllegalArgumentException("transactionManager must be set");
@@ -169,7 +216,10 @@ public class ConnectionManagerBuilder {
                 idleTimeout,
                 maxLifetime,
                 aliveBypassWindow,
-                houseKeepingPeriod
+                houseKeepingPeriod,
+                lazyEnlistment,
+                releaseOnXaEnd,
+                mbeans
         );
     }
 
@@ -15,8 +15,11 @@
  */
 package org.ops4j.pax.transx.connector.impl;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -35,11 +38,16 @@ import javax.resource.spi.ConnectionEvent;
 import javax.resource.spi.ConnectionEventListener;
 import javax.resource.spi.ConnectionManager;
 import javax.resource.spi.ConnectionRequestInfo;
+import javax.resource.spi.LazyEnlistableConnectionManager;
+import javax.resource.spi.LazyEnlistableManagedConnection;
 import javax.resource.spi.ManagedConnection;
 import javax.resource.spi.ManagedConnectionFactory;
 import javax.resource.spi.TransactionSupport.TransactionSupportLevel;
 import javax.resource.spi.ValidatingManagedConnectionFactory;
 import javax.security.auth.Subject;
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
 
 import com.zaxxer.hikari.util.ConcurrentBag;
 import com.zaxxer.hikari.util.UtilityElf;
@@ -66,7 +74,7 @@ import static java.util.concurrent.TimeUnit.SECONDS;
  * </ul>
  * <p>Both pax-transx-jms and pax-transx-jdbc create an instance of this class.
  */
-public class GenericConnectionManager implements PoolConfigMXBean, ConnectionManager, AutoCloseable {
+public class GenericConnectionManager implements PoolConfigMXBean, ConnectionManager, LazyEnlistableConnectionManager, AutoCloseable {
 
     private static final Logger LOG = Logger.getLogger(GenericConnectionManager.class.getName());
 
@@ -86,11 +94,14 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
     private volatile boolean destroyed = false;
 
     private final String mbeanName;
+    private final List<String> mbeanNames;
     private final String poolName;
     private final int maxPoolSize;
     private final int minIdle;
     private final long aliveBypassWindow;
     private final long houseKeepingPeriod;
+    private final boolean lazyEnlistment;
+    private final boolean releaseOnXaEnd;
     private final long connectionTimeout;
     private final long idleTimeout;
     private final long maxLifetime;
@@ -102,7 +113,9 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
     private ScheduledFuture<?> houseKeeperTask;
 
     private final ConcurrentMap<Transaction, ManagedConnectionInfo> infos = new ConcurrentHashMap<>();
+    private final ConcurrentMap<ManagedConnection, ManagedConnectionInfo> deferred = new ConcurrentHashMap<>();
     private final ConcurrentMap<SubjectCRIKey, Pool> pools = new ConcurrentHashMap<>();
+    private final RecoverableResourceFactoryImpl recoveryResourceFactory;
 
     public GenericConnectionManager(
             TransactionManager transactionManager,
@@ -118,7 +131,10 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
             long idleTimeout,
             long maxLifetime,
             long aliveBypassWindow,
-            long houseKeepingPeriod) {
+            long houseKeepingPeriod,
+            boolean lazyEnlistment,
+            boolean releaseOnXaEnd,
+            Map<String, Object> mbeans) {
 
         this.transactionManager = transactionManager;
         this.transactionSupportLevel = transactionSupportLevel;
@@ -134,6 +150,8 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
         this.maxLifetime = maxLifetime;
         this.aliveBypassWindow = aliveBypassWindow;
         this.houseKeepingPeriod = houseKeepingPeriod;
+        this.lazyEnlistment = lazyEnlistment;
+        this.releaseOnXaEnd = releaseOnXaEnd && transactionSupportLevel == TransactionSupportLevel.XATransaction;
 
         final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new UtilityElf.DefaultThreadFactory(poolName + " housekeeper", true), new ThreadPoolExecutor.DiscardPolicy());
         executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
@@ -145,12 +163,36 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
 
         this.houseKeeperTask = this.houseKeepingExecutorService.scheduleWithFixedDelay(this::houseKeep, 100L, this.houseKeepingPeriod, MILLISECONDS);
 
-        if (transactionManager != null && name != null && transactionSupportLevel == TransactionSupportLevel.XATransaction) {
-            transactionManager.registerResource(new RecoverableResourceFactoryImpl(managedConnectionFactory, name));
+        RecoveryStatistics recoveryStatistics = null;
+        if (transactionSupportLevel == TransactionSupportLevel.XATransaction) {
+            recoveryStatistics = new RecoveryStatistics(name);
+            // when branches are completed outside of the pool, up to one completion may run
+            // for each pooled connection, so keep as many connections for them
+            int maxIdle = this.releaseOnXaEnd
+                    ? Math.max(RecoverableResourceFactoryImpl.DEFAULT_MAX_IDLE, maxPoolSize)
+                    : RecoverableResourceFactoryImpl.DEFAULT_MAX_IDLE;
+            this.recoveryResourceFactory = new RecoverableResourceFactoryImpl(managedConnectionFactory, name, maxIdle, recoveryStatistics,
+                    transactionManager != null ? transactionManager.getXidFilter() : null);
+            if (transactionManager != null && name != null) {
+                transactionManager.registerResource(recoveryResourceFactory);
+            }
+        } else {
+            this.recoveryResourceFactory = null;
         }
 
         this.mbeanName = "org.ops4j.pax.transx:type=Pool,name=" + poolName;
         MBeanHandler.registerMBean(this, mbeanName);
+        this.mbeanNames = new ArrayList<>();
+        mbeans.forEach((type, mbean) -> {
+            String objectName = "org.ops4j.pax.transx:type=" + type + ",name=" + poolName;
+            MBeanHandler.registerMBean(mbean, objectName);
+            mbeanNames.add(objectName);
+        });
+        if (recoveryStatistics != null) {
+            String objectName = "org.ops4j.pax.transx:type=Recovery,name=" + poolName;
+            MBeanHandler.registerMBean(recoveryStatistics, objectName);
+            mbeanNames.add(objectName);
+        }
     }
 
     @Override
@@ -206,7 +248,9 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
 
     private Object allocateConnection(Subject subject, ConnectionRequestInfo connectionRequestInfo) throws ResourceException {
         ManagedConnectionInfo mci = getMci(subject, connectionRequestInfo);
-        return mci.getManagedConnection().getConnection(subject, connectionRequestInfo);
+        Object connection = mci.getManagedConnection().getConnection(subject, connectionRequestInfo);
+        mci.openHandles++;
+        return connection;
     }
 
     private ManagedConnectionInfo getMci(Subject subject, ConnectionRequestInfo connectionRequestInfo) throws ResourceException {
@@ -226,16 +270,26 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
                 if (existing != null) {
                     return existing;
                 }
-                ManagedConnectionInfo mci = getMciFromPool(subject, connectionRequestInfo);
+                // do not wait for a connection past the transaction timeout
+                long remaining = transaction.getRemainingTime();
+                if (remaining <= 0) {
+                    throw new ResourceException(poolName + " - Transaction has timed out");
+                }
+                ManagedConnectionInfo mci = getMciFromPool(subject, connectionRequestInfo, Math.min(connectionTimeout, remaining));
                 infos.put(transaction, mci);
                 transaction.synchronization(null, status -> {
-                    infos.remove(transaction);
-                    mci.requite();
+                    if (infos.remove(transaction, mci)) {
+                        mci.requite();
+                    }
                 });
-                mci.enlist(transaction);
+                if (lazyEnlistment && mci.getManagedConnection() instanceof LazyEnlistableManagedConnection) {
+                    mci.deferEnlistment(transaction);
+                } else {
+                    mci.enlist(transaction);
+                }
                 return mci;
             } else {
-                return getMciFromPool(subject, connectionRequestInfo);
+                return getMciFromPool(subject, connectionRequestInfo, connectionTimeout);
             }
         } finally {
             if (prevClassLoader != null) {
@@ -244,7 +298,30 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
         }
     }
 
-    private ManagedConnectionInfo getMciFromPool(Subject subject, ConnectionRequestInfo connectionRequestInfo) throws ResourceException {
+    /**
+     * Enlist a connection whose enlistment has been deferred. The connection must be used in the
+     * transaction it has been allocated in, while that transaction is active: it is not used
+     * outside of it, for example while the transaction is suspended or marked for rollback.
+     *
+     * @throws ResourceException if the connection can not be enlisted in its transaction
+     */
+    @Override
+    public void lazyEnlist(ManagedConnection mc) throws ResourceException {
+        ManagedConnectionInfo mci = deferred.get(mc);
+        if (mci == null) {
+            return;
+        }
+        Transaction pending = mci.pendingTransaction;
+        if (pending == null) {
+            return;
+        }
+        if (transactionManager.getTransaction() != pending || !pending.isActive()) {
+            throw new ResourceException(poolName + " - Unable to enlist connection, the transaction it was allocated in is not active on this thread");
+        }
+        mci.lazyEnlist();
+    }
+
+    private ManagedConnectionInfo getMciFromPool(Subject subject, ConnectionRequestInfo connectionRequestInfo, long connectionTimeout) throws ResourceException {
         SubjectCRIKey key = new SubjectCRIKey(subject, connectionRequestInfo);
         Pool pool = pools.computeIfAbsent(key, Pool::new);
         return getMciFromPool(pool, connectionTimeout);
@@ -305,6 +382,7 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
     @Override
     public void close() throws Exception {
         MBeanHandler.unregisterMBean(mbeanName);
+        mbeanNames.forEach(MBeanHandler::unregisterMBean);
         destroyed = true;
         if (houseKeeperTask != null) {
             houseKeeperTask.cancel(false);
@@ -320,6 +398,7 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
 
         pools.values().forEach(Pool::close);
 
+
 //        final ExecutorService assassinExecutor = new ThreadPoolExecutor(1, 1, 5, SECONDS, new LinkedBlockingQueue<>(maxPoolSize * pools.size()),
 //                new UtilityElf.DefaultThreadFactory(poolName + " connection assassinator", true),
 //                new ThreadPoolExecutor.CallerRunsPolicy());
@@ -338,8 +417,11 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
         closeConnectionExecutor.shutdown();
         closeConnectionExecutor.awaitTermination(5L, SECONDS);
 
-        if (transactionManager != null && name != null) {
-            transactionManager.unregisterResource(name);
+        if (recoveryResourceFactory != null) {
+            if (transactionManager != null && name != null) {
+                transactionManager.unregisterResource(name);
+            }
+            recoveryResourceFactory.close();
         }
     }
 
@@ -583,6 +665,10 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
         long lastBorrowed;
 
         Transaction transaction;
+        volatile Transaction pendingTransaction;
+        // updated by the application threads, read by the transaction manager when the association ends
+        volatile int openHandles;
+        int transactionTimeout;
 
         ManagedConnectionInfo(Pool pool, ManagedConnection mc, NamedResource xares) {
             this.pool = pool;
@@ -628,6 +714,8 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
 
         void requite() {
             transaction = null;
+            clearPendingTransaction();
+            openHandles = 0;
             try {
                 managedConnection.cleanup();
                 pool.requite(this);
@@ -638,19 +726,75 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
 
         void enlist(Transaction transaction) throws ResourceException {
             assert this.transaction == null;
+            setTransactionTimeout(transaction.getRemainingTime());
             try {
-                transaction.enlistResource(xares);
+                transaction.enlistResource(releaseOnXaEnd ? new ReleasingXAResource(transaction, this) : xares);
                 this.transaction = transaction;
             } catch (Exception e) {
                 throw new ResourceException("Unable to enlist resource " + name, e);
             }
         }
 
+        /**
+         * Align the timeout of the branch with the time left in the transaction, so that the
+         * resource manager does not keep its locks longer than the transaction may last.
+         */
+        private void setTransactionTimeout(long remaining) {
+            if (remaining == Long.MAX_VALUE) {
+                return;
+            }
+            int seconds = (int) Math.max(1, MILLISECONDS.toSeconds(remaining + 999));
+            if (seconds != transactionTimeout) {
+                try {
+                    if (xares.setTransactionTimeout(seconds)) {
+                        transactionTimeout = seconds;
+                    }
+                } catch (XAException e) {
+                    LOG.log(Level.FINE, poolName + " - Unable to set the transaction timeout of " + name, e);
+                }
+            }
+        }
+
+        /**
+         * Bind this connection to the transaction without enlisting it yet.
+         */
+        void deferEnlistment(Transaction transaction) {
+            assert this.transaction == null;
+            this.pendingTransaction = transaction;
+            deferred.put(managedConnection, this);
+        }
+
+        void lazyEnlist() throws ResourceException {
+            Transaction pending = pendingTransaction;
+            if (pending != null) {
+                enlist(pending);
+                clearPendingTransaction();
+            }
+        }
+
+        private void clearPendingTransaction() {
+            if (pendingTransaction != null) {
+                pendingTransaction = null;
+                deferred.remove(managedConnection, this);
+            }
+        }
+
         @Override
         public void connectionClosed(ConnectionEvent event) {
+            if (openHandles > 0) {
+                openHandles--;
+            }
             if (transaction != null) {
                 return;
             }
+            Transaction pending = pendingTransaction;
+            if (pending != null) {
+                // never used in the transaction, so it can be returned right away
+                // once no other handle of the transaction is open on it
+                if (openHandles > 0 || !infos.remove(pending, this)) {
+                    return;
+                }
+            }
             requite();
         }
 
@@ -702,4 +846,146 @@ public class GenericConnectionManager implements PoolConfigMXBean, ConnectionMan
 
     }
 
+    /**
+     * Run a completion operation on a recovery connection, used once the managed connection of
+     * the branch has been returned to the pool. The connection is kept for the next completion,
+     * unless the operation failed in a way that leaves its state unknown.
+     */
+    private <R> R complete(CompletionOperation<R> op) throws XAException {
+        NamedXAResourceWithConnection resource;
+        try {
+            resource = recoveryResourceFactory.borrow();
+        } catch (ResourceException e) {
+            throw (XAException) new XAException(XAException.XAER_RMFAIL).initCause(e);
+        }
+        boolean failed = true;
+        try {
+            R result = op.apply(resource);
+            failed = false;
+            return result;
+        } catch (XAException e) {
+            failed = e.errorCode == XAException.XAER_RMFAIL;
+            throw e;
+        } finally {
+            if (failed) {
+                recoveryResourceFactory.discard(resource);
+            } else {
+                recoveryResourceFactory.release(resource);
+            }
+        }
+    }
+
+    private interface CompletionOperation<R> {
+        R apply(NamedResource resource) throws XAException;
+    }
+
+    /**
+     * Resource enlisted when connections are released at the end of their XA association.
+     * Once the association has ended successfully, and the application closed its connection
+     * handles, the managed connection goes back to the pool and the branch is prepared and
+     * completed on a dedicated connection. This requires a driver supporting XA completion on
+     * a different physical connection. A connection whose association failed is discarded
+     * instead, as the branch it holds may not be finished.
+     */
+    final class ReleasingXAResource implements NamedResource {
+
+        private final Transaction transaction;
+        private final ManagedConnectionInfo mci;
+        private final NamedResource xares;
+        private volatile boolean released;
+
+        ReleasingXAResource(Transaction transaction, ManagedConnectionInfo mci) {
+            this.transaction = transaction;
+            this.mci = mci;
+            this.xares = mci.getXAResource();
+        }
+
+        @Override
+        public String getName() {
+            return xares.getName();
+        }
+
+        @Override
+        public void start(Xid xid, int flags) throws XAException {
+            xares.start(xid, flags);
+        }
+
+        @Override
+        public void end(Xid xid, int flags) throws XAException {
+            xares.end(xid, flags);
+            if (flags != XAResource.TMSUSPEND && mci.openHandles == 0 && infos.remove(transaction, mci)) {
+                released = true;
+                if (flags == XAResource.TMFAIL) {
+                    mci.pool.closeConnection(mci, "(XA association failed)");
+                } else {
+                    mci.requite();
+                }
+            }
+        }
+
+        @Override
+        public int prepare(Xid xid) throws XAException {
+            return released ? complete(r -> r.prepare(xid)) : xares.prepare(xid);
+        }
+
+        @Override
+        public void commit(Xid xid, boolean onePhase) throws XAException {
+            if (released) {
+                complete(r -> {
+                    r.commit(xid, onePhase);
+                    return null;
+                });
+            } else {
+                xares.commit(xid, onePhase);
+            }
+        }
+
+        @Override
+        public void rollback(Xid xid) throws XAException {
+            if (released) {
+                complete(r -> {
+                    r.rollback(xid);
+                    return null;
+                });
+            } else {
+                xares.rollback(xid);
+            }
+        }
+
+        @Override
+        public void forget(Xid xid) throws XAException {
+            if (released) {
+                complete(r -> {
+                    r.forget(xid);
+                    return null;
+                });
+            } else {
+                xares.forget(xid);
+            }
+        }
+
+        @Override
+        public Xid[] recover(int flag) throws XAException {
+            return xares.recover(flag);
+        }
+
+        @Override
+        public boolean isSameRM(XAResource other) throws XAException {
+            if (other instanceof ReleasingXAResource) {
+                other = ((ReleasingXAResource) other).xares;
+            }
+            return xares.isSameRM(other);
+        }
+
+        @Override
+        public int getTransactionTimeout() throws XAException {
+            return xares.getTransactionTimeout();
+        }
+
+        @Override
+        public boolean setTransactionTimeout(int seconds) throws XAException {
+            return xares.setTransactionTimeout(seconds);
+        }
+    }
+
 }
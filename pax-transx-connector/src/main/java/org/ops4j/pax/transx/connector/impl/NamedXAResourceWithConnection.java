@@ -15,6 +15,9 @@
  */
 package org.ops4j.pax.transx.connector.impl;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
 import javax.resource.ResourceException;
 import javax.resource.spi.ManagedConnection;
 import javax.transaction.xa.XAException;
@@ -23,14 +26,45 @@ import javax.transaction.xa.Xid;
 
 import org.ops4j.pax.transx.tm.NamedResource;
 
+/**
+ * Resource used for recovery, holding the connection it was obtained from.
+ *
+ * Each call of {@link #recover(int)} is passed to the driver with the same flags, and returns
+ * the branches the driver handed over in that call, so that drivers returning a scan in
+ * several pages are not buffered, and transaction managers ending the scan without asking
+ * for the following pages get them in the answer of the last call. A driver ignoring the
+ * flags and returning the whole scan again on a following call is detected from the first
+ * branch of its answer, which is then reported as the end of the scan.
+ *
+ * When a filter is set, the branches it rejects, such as the branches of other transaction
+ * managers sharing the resource manager, are not returned to the transaction manager.
+ */
 public class NamedXAResourceWithConnection implements NamedResource {
 
+    private static final Xid[] NO_XIDS = new Xid[0];
+
     private final ManagedConnection mc;
     private final NamedResource delegate;
+    private final RecoveryStatistics statistics;
+    private final Predicate<Xid> xidFilter;
+    /**
+     * First branch returned by the driver in the current scan.
+     */
+    private XidKey firstXid;
+    /**
+     * Progress of the current scan, when statistics are kept.
+     */
+    private RecoveryStatistics.Scan scan;
 
     NamedXAResourceWithConnection(ManagedConnection mc, NamedResource delegate) throws ResourceException {
+        this(mc, delegate, null, null);
+    }
+
+    NamedXAResourceWithConnection(ManagedConnection mc, NamedResource delegate, RecoveryStatistics statistics, Predicate<Xid> xidFilter) throws ResourceException {
         this.mc = mc;
         this.delegate = delegate;
+        this.statistics = statistics;
+        this.xidFilter = xidFilter;
     }
 
     public ManagedConnection getManagedConnection() {
@@ -42,7 +76,17 @@ public class NamedXAResourceWithConnection implements NamedResource {
     }
 
     public void commit(Xid xid, boolean b) throws XAException {
-        delegate.commit(xid, b);
+        try {
+            delegate.commit(xid, b);
+        } catch (XAException e) {
+            if (statistics != null) {
+                statistics.failed(xid, e);
+            }
+            throw e;
+        }
+        if (statistics != null) {
+            statistics.committed(xid);
+        }
     }
 
     public void end(Xid xid, int i) throws XAException {
@@ -65,12 +109,90 @@ public class NamedXAResourceWithConnection implements NamedResource {
         return delegate.prepare(xid);
     }
 
-    public Xid[] recover(int i) throws XAException {
-        return delegate.recover(i);
+    public synchronized Xid[] recover(int flag) throws XAException {
+        boolean start = (flag & XAResource.TMSTARTRSCAN) != 0;
+        boolean end = (flag & XAResource.TMENDRSCAN) != 0;
+        if (start) {
+            firstXid = null;
+            if (statistics != null) {
+                if (scan != null) {
+                    // the previous scan has been abandoned
+                    statistics.scanEnded(scan, false);
+                }
+                scan = statistics.scanStarted();
+            }
+        }
+        boolean complete = false;
+        try {
+            Xid[] xids = next(flag);
+            if (scan != null) {
+                statistics.page(scan, xids);
+            }
+            complete = true;
+            return xids;
+        } finally {
+            if (end && scan != null) {
+                statistics.scanEnded(scan, complete);
+                scan = null;
+            }
+        }
+    }
+
+    /**
+     * Ask the driver for the next branches of the scan. When all the branches of an answer
+     * are rejected by the filter, the driver is asked again, so that an empty answer still
+     * means the end of the scan.
+     */
+    private Xid[] next(int flag) throws XAException {
+        while (true) {
+            Xid[] xids = delegate.recover(flag);
+            if (xids == null || xids.length == 0) {
+                return NO_XIDS;
+            }
+            XidKey first = new XidKey(xids[0]);
+            if ((flag & XAResource.TMSTARTRSCAN) != 0) {
+                firstXid = first;
+            } else if (first.equals(firstXid)) {
+                // the driver ignores the flags and returns the whole scan again
+                return NO_XIDS;
+            }
+            Xid[] accepted = filter(xids);
+            if (accepted.length > 0 || (flag & XAResource.TMENDRSCAN) != 0) {
+                return accepted;
+            }
+            flag = XAResource.TMNOFLAGS;
+        }
+    }
+
+    private Xid[] filter(Xid[] xids) {
+        if (xidFilter == null) {
+            return xids;
+        }
+        List<Xid> accepted = new ArrayList<>(xids.length);
+        for (Xid xid : xids) {
+            if (xidFilter.test(xid)) {
+                accepted.add(xid);
+            }
+        }
+        int skipped = xids.length - accepted.size();
+        if (skipped > 0 && scan != null) {
+            statistics.skipped(scan, skipped);
+        }
+        return accepted.toArray(NO_XIDS);
     }
 
     public void rollback(Xid xid) throws XAException {
-        delegate.rollback(xid);
+        try {
+            delegate.rollback(xid);
+        } catch (XAException e) {
+            if (statistics != null) {
+                statistics.failed(xid, e);
+            }
+            throw e;
+        }
+        if (statistics != null) {
+            statistics.rolledBack(xid);
+        }
     }
 
     public boolean setTransactionTimeout(int i) throws XAException {
@@ -15,21 +15,63 @@
  */
 package org.ops4j.pax.transx.connector.impl;
 
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javax.resource.ResourceException;
 import javax.resource.spi.ManagedConnection;
 import javax.resource.spi.ManagedConnectionFactory;
+import javax.resource.spi.ValidatingManagedConnectionFactory;
+import javax.transaction.xa.Xid;
 
 import org.ops4j.pax.transx.tm.NamedResource;
 import org.ops4j.pax.transx.tm.ResourceFactory;
 
+/**
+ * Factory of the resources used for recovery and for completing transactions outside of
+ * the pool. Released connections are kept, up to <code>maxIdle</code>, and validated when
+ * reused, so that periodic recovery scans and completions do not open a new physical
+ * connection each time. Connections are still created on demand above that number, and
+ * destroyed when released.
+ */
 public class RecoverableResourceFactoryImpl implements ResourceFactory {
 
+    private static final Logger LOG = Logger.getLogger(RecoverableResourceFactoryImpl.class.getName());
+
+    static final int DEFAULT_MAX_IDLE = 2;
+
     private final ManagedConnectionFactory managedConnectionFactory;
     private final String name;
+    private final int maxIdle;
+    private final RecoveryStatistics statistics;
+    private final Predicate<Xid> xidFilter;
+    private final Queue<NamedXAResourceWithConnection> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private volatile boolean closed;
 
     public RecoverableResourceFactoryImpl(ManagedConnectionFactory managedConnectionFactory, String name) {
+        this(managedConnectionFactory, name, DEFAULT_MAX_IDLE, null, null);
+    }
+
+    public RecoverableResourceFactoryImpl(ManagedConnectionFactory managedConnectionFactory, String name, RecoveryStatistics statistics, Predicate<Xid> xidFilter) {
+        this(managedConnectionFactory, name, DEFAULT_MAX_IDLE, statistics, xidFilter);
+    }
+
+    /**
+     * @param statistics the progress of the recovery scans, or <code>null</code>
+     * @param xidFilter the filter of the recovered branches, or <code>null</code> to return them all
+     */
+    public RecoverableResourceFactoryImpl(ManagedConnectionFactory managedConnectionFactory, String name, int maxIdle, RecoveryStatistics statistics, Predicate<Xid> xidFilter) {
         this.managedConnectionFactory = managedConnectionFactory;
         this.name = name;
+        this.maxIdle = maxIdle;
+        this.statistics = statistics;
+        this.xidFilter = xidFilter;
     }
 
     @Override
@@ -40,9 +82,7 @@ public class RecoverableResourceFactoryImpl implements ResourceFactory {
     @Override
     public NamedResource create() {
         try {
-            ManagedConnection mc = managedConnectionFactory.createManagedConnection(null, null);
-            NamedResource xares = new WrapperNamedXAResource(mc.getXAResource(), name);
-            return new NamedXAResourceWithConnection(mc, xares);
+            return borrow();
         } catch (ResourceException e) {
             throw new RuntimeException("Could not get XAResource for recovery for: " + name, e);
         }
@@ -51,11 +91,103 @@ public class RecoverableResourceFactoryImpl implements ResourceFactory {
     @Override
     public void release(NamedResource resource) {
         NamedXAResourceWithConnection named = (NamedXAResourceWithConnection) resource;
-        ManagedConnection mc = named.getManagedConnection();
+        if (!closed && reserveIdle()) {
+            idle.offer(named);
+            if (closed && idle.remove(named)) {
+                idleCount.decrementAndGet();
+                destroy(named);
+            }
+        } else {
+            destroy(named);
+        }
+    }
+
+    /**
+     * Count a connection about to be offered to the idle ones, unless there are already enough.
+     */
+    private boolean reserveIdle() {
+        int count;
+        do {
+            count = idleCount.get();
+            if (count >= maxIdle) {
+                return false;
+            }
+        } while (!idleCount.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    /**
+     * Get an idle connection which is still valid, or create a new one.
+     */
+    NamedXAResourceWithConnection borrow() throws ResourceException {
+        NamedXAResourceWithConnection resource;
+        while ((resource = idle.poll()) != null) {
+            idleCount.decrementAndGet();
+            if (isValid(resource.getManagedConnection())) {
+                return resource;
+            }
+            connectionFailed();
+            destroy(resource);
+        }
+        ManagedConnection mc;
+        try {
+            mc = managedConnectionFactory.createManagedConnection(null, null);
+        } catch (ResourceException e) {
+            connectionFailed();
+            throw e;
+        }
+        return new NamedXAResourceWithConnection(mc, new WrapperNamedXAResource(mc.getXAResource(), name), statistics, xidFilter);
+    }
+
+    /**
+     * Destroy a connection which failed instead of releasing it.
+     */
+    void discard(NamedResource resource) {
+        connectionFailed();
+        destroy((NamedXAResourceWithConnection) resource);
+    }
+
+    /**
+     * Destroy the idle connections. Connections released afterwards are destroyed.
+     */
+    void close() {
+        closed = true;
+        NamedXAResourceWithConnection resource;
+        while ((resource = idle.poll()) != null) {
+            idleCount.decrementAndGet();
+            destroy(resource);
+        }
+    }
+
+    int getIdleCount() {
+        return idleCount.get();
+    }
+
+    private boolean isValid(ManagedConnection mc) {
+        if (managedConnectionFactory instanceof ValidatingManagedConnectionFactory) {
+            try {
+                Set<?> invalid = ((ValidatingManagedConnectionFactory) managedConnectionFactory)
+                        .getInvalidConnections(Collections.singleton(mc));
+                return invalid == null || !invalid.contains(mc);
+            } catch (ResourceException e) {
+                LOG.log(Level.FINE, "Unable to validate recovery connection for " + name, e);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void connectionFailed() {
+        if (statistics != null) {
+            statistics.connectionFailed();
+        }
+    }
+
+    private void destroy(NamedXAResourceWithConnection resource) {
         try {
-            mc.destroy();
+            resource.getManagedConnection().destroy();
         } catch (ResourceException e) {
-            e.printStackTrace();
+            LOG.log(Level.WARNING, "Error closing recovery connection for " + name, e);
         }
     }
 }
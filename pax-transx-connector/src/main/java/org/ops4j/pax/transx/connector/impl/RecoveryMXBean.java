@@ -0,0 +1,83 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+/**
+ * Progress and outcome of the recovery of a resource.
+ */
+public interface RecoveryMXBean {
+
+    /**
+     * @return the name of the resource registered with the transaction manager
+     */
+    String getResourceName();
+
+    /**
+     * @return whether a recovery scan is in progress
+     */
+    boolean isScanInProgress();
+
+    /**
+     * @return the number of recovery scans started
+     */
+    long getScans();
+
+    /**
+     * @return the duration in milliseconds of the last completed scan
+     */
+    long getLastScanDuration();
+
+    /**
+     * @return the number of in-doubt branches returned so far by the current or last scan
+     */
+    long getScannedXids();
+
+    /**
+     * @return the number of answers, one per call to the resource, returned so far by the current or last scan
+     */
+    long getScannedPages();
+
+    /**
+     * @return the number of branches of other transaction managers skipped so far by the current or last scan
+     */
+    long getSkippedXids();
+
+    /**
+     * @return the number of in-doubt branches returned by the scans and not resolved yet
+     */
+    int getInDoubtXids();
+
+    /**
+     * @return the number of in-doubt branches committed
+     */
+    long getCommittedXids();
+
+    /**
+     * @return the number of in-doubt branches rolled back
+     */
+    long getRolledBackXids();
+
+    /**
+     * @return the number of in-doubt branches reported as heuristically completed by the resource manager
+     */
+    long getHeuristicXids();
+
+    /**
+     * @return the number of recovery connections which could not be opened or were found broken
+     */
+    long getConnectionFailures();
+
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.Xid;
+
+/**
+ * Progress and outcome of the recovery of a resource, exposed over JMX.
+ *
+ * The branches returned by the scans are tracked until the transaction manager commits or
+ * rolls them back, or until a scan does not return them anymore, so that a growing number
+ * of in-doubt branches shows recovery falling behind. Each scan keeps its own progress, so
+ * that scans running concurrently on several recovery connections do not mix their counts.
+ */
+public class RecoveryStatistics implements RecoveryMXBean {
+
+    private final String resourceName;
+    private final AtomicLong scans = new AtomicLong();
+    private final AtomicInteger scansInProgress = new AtomicInteger();
+    private final LongAdder committedXids = new LongAdder();
+    private final LongAdder rolledBackXids = new LongAdder();
+    private final LongAdder heuristicXids = new LongAdder();
+    private final LongAdder connectionFailures = new LongAdder();
+    /**
+     * In-doubt branches, with the number of the last scan which returned them.
+     */
+    private final Map<XidKey, Long> inDoubt = new ConcurrentHashMap<>();
+    private volatile Scan lastScan = new Scan(0);
+    private volatile long lastScanDuration;
+
+    public RecoveryStatistics(String resourceName) {
+        this.resourceName = resourceName;
+    }
+
+    Scan scanStarted() {
+        Scan scan = new Scan(scans.incrementAndGet());
+        scansInProgress.incrementAndGet();
+        lastScan = scan;
+        return scan;
+    }
+
+    void page(Scan scan, Xid[] xids) {
+        int count = xids != null ? xids.length : 0;
+        for (int i = 0; i < count; i++) {
+            inDoubt.merge(new XidKey(xids[i]), scan.number, Math::max);
+        }
+        scan.xids += count;
+        scan.pages++;
+    }
+
+    void skipped(Scan scan, int xids) {
+        scan.skipped += xids;
+    }
+
+    /**
+     * End a scan. When it went through, the branches it did not return and which were not
+     * returned by a scan started after it have been resolved through another resource.
+     */
+    void scanEnded(Scan scan, boolean complete) {
+        if (scan.inProgress) {
+            scan.inProgress = false;
+            scansInProgress.decrementAndGet();
+            if (complete) {
+                inDoubt.values().removeIf(number -> number < scan.number);
+                lastScanDuration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - scan.start);
+            }
+        }
+    }
+
+    void committed(Xid xid) {
+        if (inDoubt.remove(new XidKey(xid)) != null) {
+            committedXids.increment();
+        }
+    }
+
+    void rolledBack(Xid xid) {
+        if (inDoubt.remove(new XidKey(xid)) != null) {
+            rolledBackXids.increment();
+        }
+    }
+
+    void failed(Xid xid, XAException e) {
+        switch (e.errorCode) {
+            case XAException.XA_HEURCOM:
+            case XAException.XA_HEURRB:
+            case XAException.XA_HEURMIX:
+            case XAException.XA_HEURHAZ:
+                if (inDoubt.remove(new XidKey(xid)) != null) {
+                    heuristicXids.increment();
+                }
+                break;
+            case XAException.XAER_NOTA:
+                inDoubt.remove(new XidKey(xid));
+                break;
+            default:
+                break;
+        }
+    }
+
+    void connectionFailed() {
+        connectionFailures.increment();
+    }
+
+    @Override
+    public String getResourceName() {
+        return resourceName;
+    }
+
+    @Override
+    public boolean isScanInProgress() {
+        return scansInProgress.get() > 0;
+    }
+
+    @Override
+    public long getScans() {
+        return scans.get();
+    }
+
+    @Override
+    public long getLastScanDuration() {
+        return lastScanDuration;
+    }
+
+    @Override
+    public long getScannedXids() {
+        return lastScan.xids;
+    }
+
+    @Override
+    public long getScannedPages() {
+        return lastScan.pages;
+    }
+
+    @Override
+    public long getSkippedXids() {
+        return lastScan.skipped;
+    }
+
+    @Override
+    public int getInDoubtXids() {
+        return inDoubt.size();
+    }
+
+    @Override
+    public long getCommittedXids() {
+        return committedXids.sum();
+    }
+
+    @Override
+    public long getRolledBackXids() {
+        return rolledBackXids.sum();
+    }
+
+    @Override
+    public long getHeuristicXids() {
+        return heuristicXids.sum();
+    }
+
+    @Override
+    public long getConnectionFailures() {
+        return connectionFailures.sum();
+    }
+
+    /**
+     * Progress of a scan, updated by the thread running it.
+     */
+    static final class Scan {
+
+        final long number;
+        final long start = System.nanoTime();
+        volatile boolean inProgress = true;
+        volatile long xids;
+        volatile long pages;
+        volatile long skipped;
+
+        Scan(long number) {
+            this.number = number;
+        }
+    }
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import java.util.Arrays;
+import javax.transaction.xa.Xid;
+
+/**
+ * Key comparing Xids by value, as drivers return their own implementations.
+ */
+final class XidKey {
+
+    private final int formatId;
+    private final byte[] globalTransactionId;
+    private final byte[] branchQualifier;
+    private final int hashCode;
+
+    XidKey(Xid xid) {
+        this.formatId = xid.getFormatId();
+        this.globalTransactionId = xid.getGlobalTransactionId();
+        this.branchQualifier = xid.getBranchQualifier();
+        this.hashCode = 31 * (31 * formatId + Arrays.hashCode(globalTransactionId)) + Arrays.hashCode(branchQualifier);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof XidKey)) {
+            return false;
+        }
+        XidKey other = (XidKey) o;
+        return formatId == other.formatId
+                && Arrays.equals(globalTransactionId, other.globalTransactionId)
+                && Arrays.equals(branchQualifier, other.branchQualifier);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.resource.spi.TransactionSupport.TransactionSupportLevel;
+import javax.transaction.xa.XAResource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.pax.transx.connector.ConnectionManagerBuilder;
+import org.ops4j.pax.transx.connector.impl.StubManagedConnectionFactory.StubConnection;
+import org.ops4j.pax.transx.connector.impl.StubManagedConnectionFactory.StubManagedConnection;
+import org.ops4j.pax.transx.connector.impl.StubTransactionManager.StubTransaction;
+import org.ops4j.pax.transx.tm.NamedResource;
+import org.ops4j.pax.transx.tm.ResourceFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GenericConnectionManagerTest {
+
+    private StubManagedConnectionFactory mcf;
+    private StubTransactionManager tm;
+    private GenericConnectionManager cm;
+
+    @Before
+    public void setUp() throws Exception {
+        mcf = new StubManagedConnectionFactory();
+        tm = new StubTransactionManager();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (cm != null) {
+            cm.close();
+        }
+    }
+
+    @Test
+    public void testReleaseOnXaEnd() throws Exception {
+        cm = createConnectionManager(true);
+        StubTransaction tx = tm.begin();
+        StubConnection connection = (StubConnection) cm.allocateConnection(mcf, null);
+        connection.close();
+        tx.commit();
+
+        assertEquals(2, mcf.created.size());
+        StubManagedConnection pooled = mcf.created.get(0);
+        StubManagedConnection recovery = mcf.created.get(1);
+        // the branch is completed on a connection of the recovery factory
+        assertEquals(Arrays.asList("start tx1", "end tx1"), pooled.xares.calls);
+        assertEquals(Arrays.asList("prepare tx1", "commit tx1"), recovery.xares.calls);
+        assertEquals(1, pooled.cleanups);
+        assertFalse(pooled.destroyed);
+        assertFalse(recovery.destroyed);
+
+        // both connections are reused by the next transaction
+        tx = tm.begin();
+        connection = (StubConnection) cm.allocateConnection(mcf, null);
+        assertTrue(connection.mc == pooled);
+        connection.close();
+        tx.commit();
+        assertEquals(2, mcf.created.size());
+        assertEquals(Arrays.asList("prepare tx1", "commit tx1", "prepare tx2", "commit tx2"), recovery.xares.calls);
+    }
+
+    @Test
+    public void testReleaseOnXaEndWithOpenHandle() throws Exception {
+        cm = createConnectionManager(true);
+        StubTransaction tx = tm.begin();
+        StubConnection connection = (StubConnection) cm.allocateConnection(mcf, null);
+        tx.commit();
+        connection.close();
+
+        assertEquals(1, mcf.created.size());
+        assertEquals(Arrays.asList("start tx1", "end tx1", "prepare tx1", "commit tx1"), mcf.created.get(0).xares.calls);
+    }
+
+    @Test
+    public void testFailedAssociationDiscardsConnection() throws Exception {
+        cm = createConnectionManager(true);
+        StubTransaction tx = tm.begin();
+        StubConnection connection = (StubConnection) cm.allocateConnection(mcf, null);
+        connection.close();
+        tx.delistResource(tx.enlisted.get(0), XAResource.TMFAIL);
+        tx.rollback();
+
+        StubManagedConnection pooled = mcf.created.get(0);
+        StubManagedConnection recovery = mcf.created.get(1);
+        assertEquals(Arrays.asList("start tx1", "end tx1"), pooled.xares.calls);
+        assertEquals(Arrays.asList("rollback tx1"), recovery.xares.calls);
+        assertEquals(0, pooled.cleanups);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!pooled.destroyed && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(pooled.destroyed);
+
+        // the next transaction gets a new connection
+        tx = tm.begin();
+        connection = (StubConnection) cm.allocateConnection(mcf, null);
+        assertTrue(connection.mc != pooled);
+        connection.close();
+        tx.commit();
+    }
+
+    @Test
+    public void testFailedCompletionDiscardsConnection() throws Exception {
+        cm = createConnectionManager(true);
+        StubTransaction tx = tm.begin();
+        StubConnection connection = (StubConnection) cm.allocateConnection(mcf, null);
+        connection.close();
+        tx.commit();
+
+        StubManagedConnection recovery = mcf.created.get(1);
+        recovery.xares.prepareFailure = new IllegalStateException("driver failure");
+        tx = tm.begin();
+        connection = (StubConnection) cm.allocateConnection(mcf, null);
+        connection.close();
+        try {
+            tx.commit();
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertTrue(recovery.destroyed);
+
+        // the next completion uses a new connection
+        tx = tm.begin();
+        connection = (StubConnection) cm.allocateConnection(mcf, null);
+        connection.close();
+        tx.commit();
+        assertEquals(3, mcf.created.size());
+        assertEquals(Arrays.asList("prepare tx3", "commit tx3"), mcf.created.get(2).xares.calls);
+    }
+
+    @Test
+    public void testCompletionConnectionsKeptUpToPoolSize() throws Exception {
+        cm = createConnectionManager(true, 3);
+        ResourceFactory factory = tm.resources.get("stub");
+
+        // as many completions as pooled connections run concurrently
+        List<NamedResource> resources = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            resources.add(factory.create());
+        }
+        resources.forEach(factory::release);
+        assertEquals(4, mcf.created.size());
+        for (int i = 0; i < 3; i++) {
+            assertFalse(mcf.created.get(i).destroyed);
+        }
+        assertTrue(mcf.created.get(3).destroyed);
+
+        // the kept connections are reused
+        for (int i = 0; i < 3; i++) {
+            factory.create();
+        }
+        assertEquals(4, mcf.created.size());
+    }
+
+    @Test
+    public void testRecoveryConnectionKeptBetweenScans() throws Exception {
+        cm = createConnectionManager(false);
+        ResourceFactory factory = tm.resources.get("stub");
+
+        for (int i = 0; i < 3; i++) {
+            NamedResource resource = factory.create();
+            assertEquals(0, resource.recover(XAResource.TMSTARTRSCAN | XAResource.TMENDRSCAN).length);
+            factory.release(resource);
+        }
+        assertEquals(1, mcf.created.size());
+        StubManagedConnection recovery = mcf.created.get(0);
+        assertEquals(3, recovery.xares.recoverCalls);
+        assertFalse(recovery.destroyed);
+
+        // closing the pool closes the idle recovery connection
+        cm.close();
+        cm = null;
+        assertTrue(recovery.destroyed);
+        assertTrue(tm.resources.isEmpty());
+    }
+
+    private GenericConnectionManager createConnectionManager(boolean releaseOnXaEnd) throws Exception {
+        return createConnectionManager(releaseOnXaEnd, 1);
+    }
+
+    private GenericConnectionManager createConnectionManager(boolean releaseOnXaEnd, int maxPoolSize) throws Exception {
+        return (GenericConnectionManager) ConnectionManagerBuilder.builder()
+                .name("stub")
+                .transaction(TransactionSupportLevel.XATransaction)
+                .transactionManager(tm)
+                .managedConnectionFactory(mcf)
+                .minIdle(0)
+                .maxPoolSize(maxPoolSize)
+                .releaseOnXaEnd(releaseOnXaEnd)
+                .build();
+    }
+
+}
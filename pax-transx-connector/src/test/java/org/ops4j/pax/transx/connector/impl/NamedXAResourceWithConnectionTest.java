@@ -0,0 +1,102 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import java.util.Arrays;
+import java.util.List;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class NamedXAResourceWithConnectionTest {
+
+    private final Xid x1 = new StubXid("x1");
+    private final Xid x2 = new StubXid("x2");
+    private final Xid x3 = new StubXid("x3");
+    private final Xid x4 = new StubXid("x4");
+    private final Xid x5 = new StubXid("x5");
+
+    @Test
+    public void testMultiPageScan() throws Exception {
+        StubResource driver = new StubResource(x1, x2, x3, x4, x5);
+        driver.pageSize = 2;
+        NamedXAResourceWithConnection resource = new NamedXAResourceWithConnection(null, driver);
+
+        assertEquals(Arrays.asList(x1, x2), recover(resource, XAResource.TMSTARTRSCAN));
+        assertEquals(Arrays.asList(x3, x4), recover(resource, XAResource.TMNOFLAGS));
+        assertEquals(Arrays.asList(x5), recover(resource, XAResource.TMNOFLAGS));
+        assertEquals(Arrays.asList(), recover(resource, XAResource.TMNOFLAGS));
+        assertEquals(Arrays.asList(), recover(resource, XAResource.TMENDRSCAN));
+        assertEquals(5, driver.recoverCalls);
+    }
+
+    @Test
+    public void testEndScanOnly() throws Exception {
+        StubResource driver = new StubResource(x1, x2, x3, x4);
+        driver.pageSize = 2;
+        NamedXAResourceWithConnection resource = new NamedXAResourceWithConnection(null, driver);
+
+        // every branch handed over by the driver is returned on the call that received it
+        assertEquals(Arrays.asList(x1, x2), recover(resource, XAResource.TMSTARTRSCAN));
+        assertEquals(Arrays.asList(x3, x4), recover(resource, XAResource.TMENDRSCAN));
+        assertEquals(2, driver.recoverCalls);
+    }
+
+    @Test
+    public void testSingleCallScan() throws Exception {
+        StubResource driver = new StubResource(x1, x2, x3);
+        NamedXAResourceWithConnection resource = new NamedXAResourceWithConnection(null, driver);
+
+        assertEquals(Arrays.asList(x1, x2, x3), recover(resource, XAResource.TMSTARTRSCAN | XAResource.TMENDRSCAN));
+    }
+
+    @Test
+    public void testDriverIgnoringFlags() throws Exception {
+        StubResource driver = new StubResource(x1, x2, x3);
+        driver.ignoreFlags = true;
+        NamedXAResourceWithConnection resource = new NamedXAResourceWithConnection(null, driver);
+
+        assertEquals(Arrays.asList(x1, x2, x3), recover(resource, XAResource.TMSTARTRSCAN));
+        assertEquals(Arrays.asList(), recover(resource, XAResource.TMNOFLAGS));
+        assertEquals(Arrays.asList(), recover(resource, XAResource.TMENDRSCAN));
+    }
+
+    @Test
+    public void testFilteredPage() throws Exception {
+        Xid other1 = new StubXid("other1");
+        Xid other2 = new StubXid("other2");
+        StubResource driver = new StubResource(other1, other2, x1, x2);
+        driver.pageSize = 2;
+        RecoveryStatistics statistics = new RecoveryStatistics("stub");
+        NamedXAResourceWithConnection resource = new NamedXAResourceWithConnection(null, driver, statistics,
+                xid -> xid.getGlobalTransactionId()[0] == 'x');
+
+        // a page with only rejected branches does not end the scan
+        assertEquals(Arrays.asList(x1, x2), recover(resource, XAResource.TMSTARTRSCAN));
+        assertEquals(Arrays.asList(), recover(resource, XAResource.TMNOFLAGS));
+        assertEquals(Arrays.asList(), recover(resource, XAResource.TMENDRSCAN));
+        assertEquals(2, statistics.getSkippedXids());
+        assertEquals(2, statistics.getScannedXids());
+    }
+
+    private static List<Xid> recover(XAResource resource, int flag) throws Exception {
+        return Arrays.asList(resource.recover(flag));
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import org.junit.Test;
+import org.ops4j.pax.transx.connector.impl.StubManagedConnectionFactory.StubManagedConnection;
+import org.ops4j.pax.transx.tm.NamedResource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RecoverableResourceFactoryImplTest {
+
+    private final StubManagedConnectionFactory mcf = new StubManagedConnectionFactory();
+    private final RecoverableResourceFactoryImpl factory = new RecoverableResourceFactoryImpl(mcf, "stub", 2, null, null);
+
+    @Test
+    public void testIdleConnectionsUpToMaxIdle() {
+        NamedResource r1 = factory.create();
+        NamedResource r2 = factory.create();
+        NamedResource r3 = factory.create();
+        factory.release(r1);
+        factory.release(r2);
+        factory.release(r3);
+        assertEquals(2, factory.getIdleCount());
+        assertFalse(mcf.created.get(0).destroyed);
+        assertFalse(mcf.created.get(1).destroyed);
+        assertTrue(mcf.created.get(2).destroyed);
+
+        assertSame(r1, factory.create());
+        assertSame(r2, factory.create());
+        assertEquals(0, factory.getIdleCount());
+        factory.create();
+        assertEquals(4, mcf.created.size());
+    }
+
+    @Test
+    public void testReleaseAfterClose() {
+        NamedResource r1 = factory.create();
+        NamedResource r2 = factory.create();
+        factory.release(r1);
+        factory.close();
+        assertEquals(0, factory.getIdleCount());
+        factory.release(r2);
+        assertEquals(0, factory.getIdleCount());
+        for (StubManagedConnection mc : mcf.created) {
+            assertTrue(mc.destroyed);
+        }
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RecoveryStatisticsTest {
+
+    private final Xid x1 = new StubXid("x1");
+    private final Xid x2 = new StubXid("x2");
+    private final Xid x3 = new StubXid("x3");
+
+    private final RecoveryStatistics statistics = new RecoveryStatistics("stub");
+
+    @Test
+    public void testResolvedBranches() throws Exception {
+        StubResource driver = new StubResource(x1, x2, x3);
+        NamedXAResourceWithConnection resource = resource(driver);
+
+        resource.recover(XAResource.TMSTARTRSCAN | XAResource.TMENDRSCAN);
+        assertEquals(3, statistics.getInDoubtXids());
+        resource.commit(x1, false);
+        resource.rollback(x2);
+        assertEquals(1, statistics.getInDoubtXids());
+        assertEquals(1, statistics.getCommittedXids());
+        assertEquals(1, statistics.getRolledBackXids());
+
+        // x3 has been resolved through another resource
+        driver.inDoubt.clear();
+        resource.recover(XAResource.TMSTARTRSCAN | XAResource.TMENDRSCAN);
+        assertEquals(0, statistics.getInDoubtXids());
+        assertEquals(2, statistics.getScans());
+        assertFalse(statistics.isScanInProgress());
+    }
+
+    @Test
+    public void testConcurrentScans() throws Exception {
+        StubResource driver1 = new StubResource(x1, x2);
+        driver1.pageSize = 1;
+        StubResource driver2 = new StubResource(x1, x2, x3);
+        driver2.pageSize = 1;
+        NamedXAResourceWithConnection resource1 = resource(driver1);
+        NamedXAResourceWithConnection resource2 = resource(driver2);
+
+        resource1.recover(XAResource.TMSTARTRSCAN);
+        resource2.recover(XAResource.TMSTARTRSCAN);
+        resource2.recover(XAResource.TMNOFLAGS);
+        resource2.recover(XAResource.TMNOFLAGS);
+        resource1.recover(XAResource.TMNOFLAGS);
+        assertTrue(statistics.isScanInProgress());
+
+        // the first scan does not remove the branch returned by the second one
+        resource1.recover(XAResource.TMENDRSCAN);
+        assertTrue(statistics.isScanInProgress());
+        assertEquals(3, statistics.getInDoubtXids());
+
+        resource2.recover(XAResource.TMENDRSCAN);
+        assertFalse(statistics.isScanInProgress());
+        assertEquals(3, statistics.getInDoubtXids());
+        assertEquals(3, statistics.getScannedXids());
+        assertEquals(4, statistics.getScannedPages());
+    }
+
+    @Test
+    public void testFailedScan() throws Exception {
+        StubResource driver = new StubResource(x1, x2);
+        NamedXAResourceWithConnection resource = resource(driver);
+
+        resource.recover(XAResource.TMSTARTRSCAN | XAResource.TMENDRSCAN);
+        driver.recoverFailure = new XAException(XAException.XAER_RMFAIL);
+        try {
+            resource.recover(XAResource.TMSTARTRSCAN | XAResource.TMENDRSCAN);
+        } catch (XAException e) {
+            // expected
+        }
+        assertFalse(statistics.isScanInProgress());
+        assertEquals(2, statistics.getInDoubtXids());
+    }
+
+    @Test
+    public void testAbandonedScan() throws Exception {
+        StubResource driver = new StubResource(x1, x2);
+        driver.pageSize = 1;
+        NamedXAResourceWithConnection resource = resource(driver);
+
+        resource.recover(XAResource.TMSTARTRSCAN);
+        resource.recover(XAResource.TMSTARTRSCAN);
+        resource.recover(XAResource.TMENDRSCAN);
+        assertFalse(statistics.isScanInProgress());
+        assertEquals(2, statistics.getScannedXids());
+        assertEquals(2, statistics.getInDoubtXids());
+    }
+
+    private NamedXAResourceWithConnection resource(StubResource driver) throws Exception {
+        return new NamedXAResourceWithConnection(null, driver, statistics, null);
+    }
+
+}
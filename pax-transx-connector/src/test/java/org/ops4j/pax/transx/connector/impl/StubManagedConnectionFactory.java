@@ -0,0 +1,151 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.resource.NotSupportedException;
+import javax.resource.ResourceException;
+import javax.resource.spi.ConnectionEvent;
+import javax.resource.spi.ConnectionEventListener;
+import javax.resource.spi.ConnectionManager;
+import javax.resource.spi.ConnectionRequestInfo;
+import javax.resource.spi.LocalTransaction;
+import javax.resource.spi.ManagedConnection;
+import javax.resource.spi.ManagedConnectionFactory;
+import javax.resource.spi.ManagedConnectionMetaData;
+import javax.security.auth.Subject;
+import javax.transaction.xa.XAResource;
+
+/**
+ * Factory of managed connections backed by a {@link StubResource} each, keeping track of
+ * the connections it created.
+ */
+class StubManagedConnectionFactory implements ManagedConnectionFactory {
+
+    final List<StubManagedConnection> created = new CopyOnWriteArrayList<>();
+
+    @Override
+    public Object createConnectionFactory(ConnectionManager cxManager) {
+        return cxManager;
+    }
+
+    @Override
+    public Object createConnectionFactory() throws ResourceException {
+        throw new NotSupportedException();
+    }
+
+    @Override
+    public ManagedConnection createManagedConnection(Subject subject, ConnectionRequestInfo cxRequestInfo) {
+        StubManagedConnection mc = new StubManagedConnection();
+        created.add(mc);
+        return mc;
+    }
+
+    @Override
+    public ManagedConnection matchManagedConnections(Set connectionSet, Subject subject, ConnectionRequestInfo cxRequestInfo) {
+        return null;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return null;
+    }
+
+    static class StubManagedConnection implements ManagedConnection {
+
+        final StubResource xares = new StubResource();
+        final List<ConnectionEventListener> listeners = new CopyOnWriteArrayList<>();
+        volatile int cleanups;
+        volatile boolean destroyed;
+
+        @Override
+        public Object getConnection(Subject subject, ConnectionRequestInfo cxRequestInfo) {
+            return new StubConnection(this);
+        }
+
+        @Override
+        public void destroy() {
+            destroyed = true;
+        }
+
+        @Override
+        public void cleanup() {
+            cleanups++;
+        }
+
+        @Override
+        public void associateConnection(Object connection) {
+        }
+
+        @Override
+        public void addConnectionEventListener(ConnectionEventListener listener) {
+            listeners.add(listener);
+        }
+
+        @Override
+        public void removeConnectionEventListener(ConnectionEventListener listener) {
+            listeners.remove(listener);
+        }
+
+        @Override
+        public XAResource getXAResource() {
+            return xares;
+        }
+
+        @Override
+        public LocalTransaction getLocalTransaction() throws ResourceException {
+            throw new NotSupportedException();
+        }
+
+        @Override
+        public ManagedConnectionMetaData getMetaData() throws ResourceException {
+            throw new NotSupportedException();
+        }
+
+        @Override
+        public void setLogWriter(PrintWriter out) {
+        }
+
+        @Override
+        public PrintWriter getLogWriter() {
+            return null;
+        }
+    }
+
+    static class StubConnection implements AutoCloseable {
+
+        final StubManagedConnection mc;
+
+        StubConnection(StubManagedConnection mc) {
+            this.mc = mc;
+        }
+
+        @Override
+        public void close() {
+            ConnectionEvent event = new ConnectionEvent(mc, ConnectionEvent.CONNECTION_CLOSED);
+            event.setConnectionHandle(this);
+            mc.listeners.forEach(l -> l.connectionClosed(event));
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+import org.ops4j.pax.transx.tm.NamedResource;
+
+/**
+ * Resource returning its in-doubt branches a page at a time, or all of them on each call
+ * when it ignores the scan flags, or failing, and recording the completion calls.
+ */
+class StubResource implements NamedResource {
+
+    final List<Xid> inDoubt = new ArrayList<>();
+    final List<String> calls = new ArrayList<>();
+    int pageSize = Integer.MAX_VALUE;
+    boolean ignoreFlags;
+    int recoverCalls;
+    XAException recoverFailure;
+    RuntimeException prepareFailure;
+    private int position;
+
+    StubResource(Xid... inDoubt) {
+        this.inDoubt.addAll(Arrays.asList(inDoubt));
+    }
+
+    @Override
+    public String getName() {
+        return "stub";
+    }
+
+    @Override
+    public synchronized Xid[] recover(int flag) throws XAException {
+        recoverCalls++;
+        if (recoverFailure != null) {
+            throw recoverFailure;
+        }
+        if (ignoreFlags) {
+            return inDoubt.toArray(new Xid[0]);
+        }
+        if ((flag & XAResource.TMSTARTRSCAN) != 0) {
+            position = 0;
+        }
+        int end = Math.min(inDoubt.size(), position + pageSize);
+        Xid[] page = inDoubt.subList(position, end).toArray(new Xid[0]);
+        position = end;
+        return page;
+    }
+
+    @Override
+    public synchronized void commit(Xid xid, boolean onePhase) throws XAException {
+        calls.add("commit " + xid);
+    }
+
+    @Override
+    public synchronized void rollback(Xid xid) throws XAException {
+        calls.add("rollback " + xid);
+    }
+
+    @Override
+    public synchronized int prepare(Xid xid) throws XAException {
+        calls.add("prepare " + xid);
+        if (prepareFailure != null) {
+            throw prepareFailure;
+        }
+        return XA_OK;
+    }
+
+    @Override
+    public synchronized void start(Xid xid, int flags) throws XAException {
+        calls.add("start " + xid);
+    }
+
+    @Override
+    public synchronized void end(Xid xid, int flags) throws XAException {
+        calls.add("end " + xid);
+    }
+
+    @Override
+    public void forget(Xid xid) throws XAException {
+    }
+
+    @Override
+    public int getTransactionTimeout() throws XAException {
+        return 0;
+    }
+
+    @Override
+    public boolean setTransactionTimeout(int seconds) throws XAException {
+        return false;
+    }
+
+    @Override
+    public boolean isSameRM(XAResource xares) throws XAException {
+        return xares == this;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+import org.ops4j.pax.transx.tm.NamedResource;
+import org.ops4j.pax.transx.tm.ResourceFactory;
+import org.ops4j.pax.transx.tm.Status;
+import org.ops4j.pax.transx.tm.Transaction;
+import org.ops4j.pax.transx.tm.TransactionManager;
+
+/**
+ * Transaction manager running a two-phase commit on the enlisted resources, in the calling
+ * thread, with global transaction ids named <code>tx1</code>, <code>tx2</code>...
+ */
+class StubTransactionManager implements TransactionManager {
+
+    final Map<String, ResourceFactory> resources = new ConcurrentHashMap<>();
+    private final ThreadLocal<StubTransaction> current = new ThreadLocal<>();
+    private final AtomicInteger counter = new AtomicInteger();
+
+    @Override
+    public boolean isLastResourceCommitSupported() {
+        return false;
+    }
+
+    @Override
+    public StubTransaction getTransaction() {
+        return current.get();
+    }
+
+    @Override
+    public StubTransaction begin() {
+        StubTransaction tx = new StubTransaction("tx" + counter.incrementAndGet());
+        current.set(tx);
+        return tx;
+    }
+
+    @Override
+    public void registerResource(ResourceFactory resource) {
+        resources.put(resource.getName(), resource);
+    }
+
+    @Override
+    public void unregisterResource(String name) {
+        resources.remove(name);
+    }
+
+    @Override
+    public ResourceFactory getResource(String name) {
+        return resources.get(name);
+    }
+
+    class StubTransaction implements Transaction {
+
+        final String gtrid;
+        final List<NamedResource> enlisted = new ArrayList<>();
+        private final List<NamedResource> delisted = new ArrayList<>();
+        private final List<Runnable> pre = new ArrayList<>();
+        private final List<Consumer<Status>> post = new ArrayList<>();
+        private Status status = Status.ACTIVE;
+
+        StubTransaction(String gtrid) {
+            this.gtrid = gtrid;
+        }
+
+        Xid xid(NamedResource resource) {
+            return new StubXid(gtrid, Integer.toString(enlisted.indexOf(resource) + 1));
+        }
+
+        @Override
+        public boolean isActive() {
+            return status == Status.ACTIVE;
+        }
+
+        @Override
+        public Status getStatus() {
+            return status;
+        }
+
+        @Override
+        public void commit() throws Exception {
+            pre.forEach(Runnable::run);
+            endAll();
+            for (NamedResource resource : enlisted) {
+                resource.prepare(xid(resource));
+            }
+            for (NamedResource resource : enlisted) {
+                resource.commit(xid(resource), false);
+            }
+            complete(Status.COMMITTED);
+        }
+
+        @Override
+        public void rollback() throws Exception {
+            endAll();
+            for (NamedResource resource : enlisted) {
+                resource.rollback(xid(resource));
+            }
+            complete(Status.ROLLED_BACK);
+        }
+
+        private void endAll() throws Exception {
+            for (NamedResource resource : enlisted) {
+                if (!delisted.contains(resource)) {
+                    resource.end(xid(resource), XAResource.TMSUCCESS);
+                }
+            }
+        }
+
+        private void complete(Status status) {
+            this.status = status;
+            post.forEach(p -> p.accept(status));
+            current.remove();
+        }
+
+        @Override
+        public void setRollbackOnly() {
+            status = Status.MARKED_ROLLBACK;
+        }
+
+        @Override
+        public void suspend() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void resume() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void enlistResource(NamedResource xares) throws Exception {
+            enlisted.add(xares);
+            xares.start(xid(xares), XAResource.TMNOFLAGS);
+        }
+
+        @Override
+        public void delistResource(NamedResource xares, int flags) throws Exception {
+            xares.end(xid(xares), flags);
+            delisted.add(xares);
+        }
+
+        @Override
+        public void synchronization(Runnable pre, Consumer<Status> post) {
+            if (pre != null) {
+                this.pre.add(pre);
+            }
+            if (post != null) {
+                this.post.add(post);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.connector.impl;
+
+import java.nio.charset.StandardCharsets;
+import javax.transaction.xa.Xid;
+
+class StubXid implements Xid {
+
+    private final byte[] gtrid;
+    private final byte[] bqual;
+
+    StubXid(String gtrid) {
+        this(gtrid, "1");
+    }
+
+    StubXid(String gtrid, String bqual) {
+        this.gtrid = gtrid.getBytes(StandardCharsets.UTF_8);
+        this.bqual = bqual.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int getFormatId() {
+        return 1;
+    }
+
+    @Override
+    public byte[] getGlobalTransactionId() {
+        return gtrid.clone();
+    }
+
+    @Override
+    public byte[] getBranchQualifier() {
+        return bqual.clone();
+    }
+
+    @Override
+    public String toString() {
+        return new String(gtrid, StandardCharsets.UTF_8);
+    }
+}
@@ -15,6 +15,7 @@
  */
 package org.ops4j.pax.transx.jdbc;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.TimeUnit;
@@ -31,6 +32,8 @@ import org.ops4j.pax.transx.connector.ConnectionManagerBuilder;
 import org.ops4j.pax.transx.jdbc.impl.AbstractJdbcManagedConnectionFactory;
 import org.ops4j.pax.transx.jdbc.impl.ConnectionPoolDataSourceMCF;
 import org.ops4j.pax.transx.jdbc.impl.LocalDataSourceMCF;
+import org.ops4j.pax.transx.jdbc.impl.StatementDefaults;
+import org.ops4j.pax.transx.jdbc.impl.StatementStatistics;
 import org.ops4j.pax.transx.jdbc.impl.XADataSourceMCF;
 import org.ops4j.pax.transx.tm.TransactionManager;
 
@@ -43,6 +46,13 @@ public class ManagedDataSourceBuilder {
     private String password;
     private boolean commitBeforeAutocommit;
     private int preparedStatementCacheSize = 0;
+    private int batchSize = 0;
+    private int fetchSize = StatementDefaults.UNSET;
+    private int maxRows = StatementDefaults.UNSET;
+    private int queryTimeout = StatementDefaults.UNSET;
+    private Map<String, StatementDefaults> statementOverrides = new LinkedHashMap<>();
+    private boolean statementStatistics;
+    private long slowStatementThreshold = 0;
     private int transactionIsolationLevel = -1;
     private AbstractJdbcManagedConnectionFactory<?, ?, ?> managedConnectionFactory;
 
@@ -83,6 +93,113 @@ public class ManagedDataSourceBuilder {
         return this;
     }
 
+    /**
+     * Transparently coalesce consecutive <code>executeUpdate()</code> calls on the same cached
+     * prepared statement into JDBC batches while a transaction is active.
+     * Queued updates are executed before any other statement is executed, before the transaction
+     * completes and when the connection is closed. Queued <code>executeUpdate()</code> calls return
+     * {@link java.sql.Statement#SUCCESS_NO_INFO}.
+     * This requires the prepared statement cache to be enabled.
+     *
+     * @param batchSize the maximum number of queued updates, 0 to disable
+     * @return this builder
+     */
+    public ManagedDataSourceBuilder batchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Default fetch size hint for all statements.
+     *
+     * @param fetchSize the fetch size
+     * @return this builder
+     */
+    public ManagedDataSourceBuilder fetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+        return this;
+    }
+
+    /**
+     * Default maximum number of rows returned by all statements.
+     *
+     * @param maxRows the maximum number of rows, 0 for no limit
+     * @return this builder
+     */
+    public ManagedDataSourceBuilder maxRows(int maxRows) {
+        this.maxRows = maxRows;
+        return this;
+    }
+
+    /**
+     * Default query timeout for all statements.
+     *
+     * @param queryTimeoutSeconds the timeout in seconds, 0 for no limit
+     * @return this builder
+     */
+    public ManagedDataSourceBuilder queryTimeout(int queryTimeoutSeconds) {
+        this.queryTimeout = queryTimeoutSeconds;
+        return this;
+    }
+
+    /**
+     * Default query timeout for all statements.
+     *
+     * @param queryTimeout the timeout, truncated to whole seconds, 0 for no limit
+     * @param unit the unit of the timeout
+     * @return this builder
+     */
+    public ManagedDataSourceBuilder queryTimeout(long queryTimeout, TimeUnit unit) {
+        return queryTimeout((int) unit.toSeconds(queryTimeout));
+    }
+
+    /**
+     * Override the statement defaults for prepared and callable statements whose SQL contains a match
+     * for the given regular expression. The first matching override wins; negative values keep the defaults.
+     * As properties, overrides are given as <code>statementOverride.N.pattern</code>, <code>.fetchSize</code>,
+     * <code>.maxRows</code> and <code>.queryTimeout</code>, with <code>N</code> counting up from 0.
+     *
+     * @param sqlPattern the regular expression
+     * @param fetchSize the fetch size
+     * @param maxRows the maximum number of rows
+     * @param queryTimeoutSeconds the timeout in seconds
+     * @return this builder
+     */
+    public ManagedDataSourceBuilder statementOverride(String sqlPattern, int fetchSize, int maxRows, int queryTimeoutSeconds) {
+        this.statementOverrides.put(sqlPattern, new StatementDefaults(
+                Math.max(fetchSize, StatementDefaults.UNSET),
+                Math.max(maxRows, StatementDefaults.UNSET),
+                Math.max(queryTimeoutSeconds, StatementDefaults.UNSET)));
+        return this;
+    }
+
+    /**
+     * Collect execution times aggregated per SQL statement, exposed through JMX
+     * as <code>org.ops4j.pax.transx:type=StatementStatistics,name=&lt;pool name&gt;</code>.
+     *
+     * @param statementStatistics whether statistics are collected
+     * @return this builder
+     */
+    public ManagedDataSourceBuilder statementStatistics(boolean statementStatistics) {
+        this.statementStatistics = statementStatistics;
+        return this;
+    }
+
+    /**
+     * Log statements whose execution takes longer than the given threshold.
+     *
+     * @param slowStatementThresholdMs the threshold in milliseconds, 0 to disable
+     * @return this builder
+     */
+    public ManagedDataSourceBuilder slowStatementThreshold(long slowStatementThresholdMs) {
+        this.slowStatementThreshold = slowStatementThresholdMs;
+        return this;
+    }
+
+    public ManagedDataSourceBuilder slowStatementThreshold(long slowStatementThreshold, TimeUnit unit) {
+        return slowStatementThreshold(unit.toMillis(slowStatementThreshold));
+    }
+
     public ManagedDataSourceBuilder transactionIsolationLevel(int transactionIsolationLevel) {
         this.transactionIsolationLevel = transactionIsolationLevel;
         return this;
@@ -163,6 +280,23 @@ public class ManagedDataSourceBuilder {
         return this;
     }
 
+    /**
+     * Only enlist a connection in the transaction when it is first used.
+     */
+    public ManagedDataSourceBuilder lazyEnlistment(boolean lazyEnlistment) {
+        builder.lazyEnlistment(lazyEnlistment);
+        return this;
+    }
+
+    /**
+     * Return a connection to the pool when its XA association ends and complete
+     * the transaction on a dedicated connection.
+     */
+    public ManagedDataSourceBuilder releaseOnXaEnd(boolean releaseOnXaEnd) {
+        builder.releaseOnXaEnd(releaseOnXaEnd);
+        return this;
+    }
+
     /**
      * Configure with whitelisted set of properties
      * @param properties
@@ -208,6 +342,41 @@ public class ManagedDataSourceBuilder {
         if (preparedStatementCacheSize != null) {
             this.preparedStatementCacheSize(toInt(preparedStatementCacheSize, "preparedStatementCacheSize"));
         }
+        Object batchSize = property.apply("batchSize");
+        if (batchSize != null) {
+            this.batchSize(toInt(batchSize, "batchSize"));
+        }
+        Object fetchSize = property.apply("fetchSize");
+        if (fetchSize != null) {
+            this.fetchSize(toInt(fetchSize, "fetchSize"));
+        }
+        Object maxRows = property.apply("maxRows");
+        if (maxRows != null) {
+            this.maxRows(toInt(maxRows, "maxRows"));
+        }
+        Object queryTimeout = property.apply("queryTimeout");
+        if (queryTimeout != null) {
+            this.queryTimeout(toInt(queryTimeout, "queryTimeout"));
+        }
+        for (int i = 0; ; i++) {
+            String prefix = "statementOverride." + i + ".";
+            Object pattern = property.apply(prefix + "pattern");
+            if (pattern == null) {
+                break;
+            }
+            this.statementOverride(pattern.toString(),
+                    toInt(property.apply(prefix + "fetchSize"), prefix + "fetchSize", StatementDefaults.UNSET),
+                    toInt(property.apply(prefix + "maxRows"), prefix + "maxRows", StatementDefaults.UNSET),
+                    toInt(property.apply(prefix + "queryTimeout"), prefix + "queryTimeout", StatementDefaults.UNSET));
+        }
+        Object statementStatistics = property.apply("statementStatistics");
+        if (statementStatistics != null) {
+            this.statementStatistics("true".equalsIgnoreCase(statementStatistics.toString()));
+        }
+        Object slowStatementThreshold = property.apply("slowStatementThreshold");
+        if (slowStatementThreshold != null) {
+            this.slowStatementThreshold(toInt(slowStatementThreshold, "slowStatementThreshold"));
+        }
         Object transactionIsolationLevel = property.apply("transactionIsolationLevel");
         if (transactionIsolationLevel != null) {
             this.transactionIsolationLevel(toInt(transactionIsolationLevel, "transactionIsolationLevel"));
@@ -242,6 +411,18 @@ public class ManagedDataSourceBuilder {
         if (maxLifetime != null) {
             this.maxLifetime(toInt(maxLifetime, "maxLifetime"));
         }
+        Object lazyEnlistment = property.apply("lazyEnlistment");
+        if (lazyEnlistment != null) {
+            this.lazyEnlistment("true".equalsIgnoreCase(lazyEnlistment.toString()));
+        }
+        Object releaseOnXaEnd = property.apply("releaseOnXaEnd");
+        if (releaseOnXaEnd != null) {
+            this.releaseOnXaEnd("true".equalsIgnoreCase(releaseOnXaEnd.toString()));
+        }
+    }
+
+    private int toInt(Object v, String property, int dflt) {
+        return v != null ? toInt(v, property) : dflt;
     }
 
     private int toInt(Object v, String property) {
@@ -266,6 +447,20 @@ public class ManagedDataSourceBuilder {
         managedConnectionFactory.setPassword(password);
         managedConnectionFactory.setCommitBeforeAutocommit(commitBeforeAutocommit);
         managedConnectionFactory.setPreparedStatementCacheSize(preparedStatementCacheSize);
+        if (preparedStatementCacheSize > 0) {
+            builder.mbean("StatementCache", managedConnectionFactory.getStatementCacheStatistics());
+        }
+        managedConnectionFactory.setBatchSize(batchSize);
+        StatementDefaults statementDefaults = new StatementDefaults(fetchSize, maxRows, queryTimeout);
+        statementOverrides.forEach(statementDefaults::addOverride);
+        managedConnectionFactory.setStatementDefaults(statementDefaults);
+        if (statementStatistics || slowStatementThreshold > 0) {
+            StatementStatistics stats = new StatementStatistics(statementStatistics, slowStatementThreshold);
+            managedConnectionFactory.setStatementStatistics(stats);
+            if (statementStatistics) {
+                builder.mbean("StatementStatistics", stats);
+            }
+        }
         managedConnectionFactory.setTransactionIsolationLevel(transactionIsolationLevel);
         builder.managedConnectionFactory(managedConnectionFactory);
         ConnectionManager cm = builder.build();
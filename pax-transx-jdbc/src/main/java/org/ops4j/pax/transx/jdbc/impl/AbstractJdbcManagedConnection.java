@@ -0,0 +1,185 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.jdbc.impl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import javax.resource.ResourceException;
+import javax.resource.spi.LocalTransactionException;
+import javax.resource.spi.ResourceAdapterInternalException;
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+
+import org.ops4j.pax.transx.connection.ExceptionSorter;
+import org.ops4j.pax.transx.connection.utils.AbstractManagedConnection;
+import org.ops4j.pax.transx.connection.utils.CredentialExtractor;
+
+/**
+ * Base class for ManagedConnections wrapping a physical JDBC connection.
+ *
+ * The auto-commit state of the physical connection is only ever changed through
+ * the local transaction callbacks, so it is tracked here and connection handles
+ * never need to ask the driver for it.
+ */
+public abstract class AbstractJdbcManagedConnection<
+        MCF extends AbstractJdbcManagedConnectionFactory<MCF, MC, ?>,
+        MC extends AbstractJdbcManagedConnection<MCF, MC>>
+            extends AbstractManagedConnection<MCF, MC, Connection, ConnectionHandle<MCF, MC>> {
+
+    protected final Connection connection;
+    private final ConnectionWrapper wrapper;
+
+    /**
+     * Cached auto-commit state of the physical connection, lazily read from the driver once.
+     */
+    private Boolean autoCommit;
+
+    protected AbstractJdbcManagedConnection(MCF mcf, Connection connection, CredentialExtractor credentialExtractor, ExceptionSorter exceptionSorter) {
+        super(mcf, credentialExtractor, exceptionSorter);
+        this.connection = connection;
+        this.wrapper = connection instanceof ConnectionWrapper ? (ConnectionWrapper) connection : null;
+    }
+
+    @Override
+    public Connection getPhysicalConnection() {
+        return connection;
+    }
+
+    /**
+     * Return the auto-commit state of the physical connection without a round trip to the driver.
+     *
+     * @return the current auto-commit state
+     * @throws SQLException if the initial state could not be read from the driver
+     */
+    public boolean isAutoCommit() throws SQLException {
+        if (autoCommit == null) {
+            autoCommit = connection.getAutoCommit();
+        }
+        return autoCommit;
+    }
+
+    /**
+     * Execute any update queued by transparent batching when a connection handle is closed.
+     * A failure is reported when the transaction completes.
+     */
+    void flushBatchOnClose() {
+        if (wrapper != null) {
+            wrapper.deferredFlushBatch();
+        }
+    }
+
+    @Override
+    protected void setInXaTransaction(boolean inXaTransaction) {
+        super.setInXaTransaction(inXaTransaction);
+        if (wrapper != null && inXaTransaction) {
+            wrapper.startBatching();
+        }
+    }
+
+    @Override
+    protected void beforeXaEnd(int flags) throws XAException {
+        if (wrapper != null) {
+            if (flags == XAResource.TMFAIL) {
+                wrapper.discardBatch();
+            }
+            try {
+                wrapper.endBatching();
+            } catch (SQLException e) {
+                throw (XAException) new XAException(XAException.XA_RBROLLBACK).initCause(e);
+            }
+        }
+    }
+
+    protected void localTransactionStart(boolean isSPI) throws ResourceException {
+        try {
+            connection.setAutoCommit(false);
+            autoCommit = false;
+        } catch (SQLException e) {
+            throw new LocalTransactionException("Unable to disable autoCommit", e);
+        }
+        super.localTransactionStart(isSPI);
+    }
+
+    protected void localTransactionCommit(boolean isSPI) throws ResourceException {
+        try {
+            // according to the JDBC spec, reenabling autoCommit commits any current transaction
+            // we need to do both here, so we rely on this behaviour in the driver as otherwise
+            // commit followed by setAutoCommit(true) may result in 2 commits in the database
+            if (mcf.isCommitBeforeAutocommit()) {
+                connection.commit();
+            }
+            connection.setAutoCommit(true);
+            autoCommit = true;
+        } catch (SQLException e) {
+            try {
+                connection.rollback();
+            } catch (SQLException e1) {
+                if (log != null) {
+                    e.printStackTrace(log);
+                }
+            }
+            autoCommit = null;
+            throw new LocalTransactionException("Unable to commit", e);
+        }
+        super.localTransactionCommit(isSPI);
+    }
+
+    protected void localTransactionRollback(boolean isSPI) throws ResourceException {
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            throw new LocalTransactionException("Unable to rollback", e);
+        }
+        super.localTransactionRollback(isSPI);
+        try {
+            connection.setAutoCommit(true);
+            autoCommit = true;
+        } catch (SQLException e) {
+            autoCommit = null;
+            throw new ResourceAdapterInternalException("Unable to enable autoCommit after rollback", e);
+        }
+    }
+
+    @Override
+    protected boolean isValid() {
+        try {
+            if (connection.isValid(0)) {
+                return true;
+            }
+        } catch (SQLException e) {
+            // no-op
+        }
+        return false;
+    }
+
+    public void cleanup() throws ResourceException {
+        super.cleanup();
+        if (wrapper != null) {
+            wrapper.discardBatch();
+        }
+        try {
+            //TODO reset tx isolation level
+            if (!isAutoCommit()) {
+                connection.setAutoCommit(true);
+                autoCommit = true;
+            }
+        } catch (SQLException e) {
+            autoCommit = null;
+            throw new ResourceException("Could not reset autocommit when returning to pool", e);
+        }
+    }
+
+}
@@ -26,12 +26,11 @@ import javax.resource.spi.ResourceAdapterInternalException;
 import javax.sql.CommonDataSource;
 
 import org.ops4j.pax.transx.connection.ExceptionSorter;
-import org.ops4j.pax.transx.connection.utils.AbstractManagedConnection;
 import org.ops4j.pax.transx.connection.utils.AbstractManagedConnectionFactory;
 
 public abstract class AbstractJdbcManagedConnectionFactory<
-        MCF extends AbstractManagedConnectionFactory<MCF, MC, Connection, ConnectionHandle<MCF, MC>>,
-        MC extends AbstractManagedConnection<MCF, MC, Connection, ConnectionHandle<MCF, MC>>,
+        MCF extends AbstractJdbcManagedConnectionFactory<MCF, MC, T>,
+        MC extends AbstractJdbcManagedConnection<MCF, MC>,
         T extends CommonDataSource>
             extends AbstractManagedConnectionFactory<MCF, MC, Connection, ConnectionHandle<MCF, MC>>
             implements AutocommitSpecCompliant {
@@ -39,6 +38,10 @@ public abstract class AbstractJdbcManagedConnectionFactory<
     protected final T dataSource;
     protected boolean commitBeforeAutocommit = false;
     protected int preparedStatementCacheSize = 0;
+    protected int batchSize = 0;
+    protected StatementDefaults statementDefaults;
+    protected StatementStatistics statementStatistics;
+    protected final StatementCacheStatistics statementCacheStatistics = new StatementCacheStatistics();
     protected int transactionIsolationLevel = -1;
 
     protected AbstractJdbcManagedConnectionFactory(T dataSource, ExceptionSorter exceptionSorter) {
@@ -52,6 +55,7 @@ public abstract class AbstractJdbcManagedConnectionFactory<
     }
 
     public Object createConnectionFactory(ConnectionManager connectionManager) throws ResourceException {
+        setConnectionManager(connectionManager);
         return new TransxDataSource(this, connectionManager);
     }
 
@@ -85,9 +89,58 @@ public abstract class AbstractJdbcManagedConnectionFactory<
         this.preparedStatementCacheSize = preparedStatementCacheSize;
     }
 
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Set the maximum number of updates of a cached prepared statement that are transparently
+     * queued in a JDBC batch while a transaction is active. Batching requires the prepared
+     * statement cache to be enabled.
+     *
+     * @param batchSize the maximum batch size, 0 to disable transparent batching
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public StatementDefaults getStatementDefaults() {
+        return statementDefaults;
+    }
+
+    /**
+     * Set the fetch size, max rows and query timeout applied to all statements.
+     *
+     * @param statementDefaults the defaults, or <code>null</code> to use the driver defaults
+     */
+    public void setStatementDefaults(StatementDefaults statementDefaults) {
+        this.statementDefaults = statementDefaults;
+    }
+
+    public StatementStatistics getStatementStatistics() {
+        return statementStatistics;
+    }
+
+    /**
+     * Set the statistics recording the execution times of the statements.
+     *
+     * @param statementStatistics the statistics, or <code>null</code> to disable timing
+     */
+    public void setStatementStatistics(StatementStatistics statementStatistics) {
+        this.statementStatistics = statementStatistics;
+    }
+
+    /**
+     * @return the activity of the prepared statement caches of all the connections created by this factory
+     */
+    public StatementCacheStatistics getStatementCacheStatistics() {
+        return statementCacheStatistics;
+    }
+
     protected Connection wrap(Connection connection) {
-        if (preparedStatementCacheSize > 0) {
-            return new ConnectionWrapper(connection, preparedStatementCacheSize);
+        if (preparedStatementCacheSize > 0 || (statementDefaults != null && !statementDefaults.isEmpty())) {
+            return new ConnectionWrapper(connection, preparedStatementCacheSize, batchSize, statementDefaults, statementCacheStatistics,
+                    statementStatistics);
         } else {
             return connection;
         }
@@ -38,12 +38,10 @@ import javax.resource.spi.ConnectionRequestInfo;
 import javax.resource.spi.LocalTransaction;
 
 import org.ops4j.pax.transx.connection.utils.AbstractConnectionHandle;
-import org.ops4j.pax.transx.connection.utils.AbstractManagedConnection;
-import org.ops4j.pax.transx.connection.utils.AbstractManagedConnectionFactory;
 
 public class ConnectionHandle<
-            MCF extends AbstractManagedConnectionFactory<MCF, MC, Connection, ConnectionHandle<MCF, MC>>,
-            MC extends AbstractManagedConnection<MCF, MC, Connection, ConnectionHandle<MCF, MC>>>
+            MCF extends AbstractJdbcManagedConnectionFactory<MCF, MC, ?>,
+            MC extends AbstractJdbcManagedConnection<MCF, MC>>
         extends AbstractConnectionHandle<MCF, MC, Connection, ConnectionHandle<MCF, MC>> implements Connection {
 
     public ConnectionHandle(MCF mcf, ConnectionRequestInfo cri, MC mc) {
@@ -62,13 +60,33 @@ public class ConnectionHandle<
         return (E) new SQLException(msg, e);
     }
 
+    @Override
+    protected void doClose() {
+        mc.flushBatchOnClose();
+        super.doClose();
+    }
+
+    /**
+     * Execute the updates queued by transparent batching, if any.
+     */
+    void flushBatch() throws SQLException {
+        execute(c -> {
+            if (c instanceof ConnectionWrapper) {
+                ((ConnectionWrapper) c).flushBatch();
+            }
+        });
+    }
+
+    StatementStatistics getStatementStatistics() {
+        return mcf.getStatementStatistics();
+    }
+
     public void commit() throws SQLException {
-        MC mc = getManagedConnection();
+        MC mc = getEnlistedManagedConnection();
         if (mc.isInXaTransaction()) {
             throw new SQLException("Can not commit within an XA transaction");
         }
-        Connection c = mc.getPhysicalConnection();
-        if (c.getAutoCommit()) {
+        if (mc.isAutoCommit()) {
             return;
         }
 
@@ -86,12 +104,11 @@ public class ConnectionHandle<
     }
 
     public void rollback() throws SQLException {
-        MC mc = getManagedConnection();
+        MC mc = getEnlistedManagedConnection();
         if (mc.isInXaTransaction()) {
             throw new SQLException("Can not rollback within an XA transaction");
         }
-        Connection c = mc.getPhysicalConnection();
-        if (c.getAutoCommit()) {
+        if (mc.isAutoCommit()) {
             return;
         }
 
@@ -109,12 +126,11 @@ public class ConnectionHandle<
     }
 
     public void setAutoCommit(boolean autoCommit) throws SQLException {
-        MC mc = getManagedConnection();
+        MC mc = getEnlistedManagedConnection();
         if (mc.isInXaTransaction()) {
             throw new SQLException("Can not set autoCommit within an XA transaction");
         }
-        Connection c = mc.getPhysicalConnection();
-        if (autoCommit == c.getAutoCommit()) {
+        if (autoCommit == mc.isAutoCommit()) {
             // nothing to do
             return;
         }
@@ -138,7 +154,11 @@ public class ConnectionHandle<
     }
 
     public boolean getAutoCommit() throws SQLException {
-        return call(Connection::getAutoCommit);
+        MC mc = getEnlistedManagedConnection();
+        if (mc.isInXaTransaction()) {
+            return call(Connection::getAutoCommit);
+        }
+        return mc.isAutoCommit();
     }
 
     public Statement createStatement() throws SQLException {
@@ -154,19 +174,19 @@ public class ConnectionHandle<
     }
 
     public PreparedStatement prepareStatement(String sql) throws SQLException {
-        return wrapPreparedStatement(call(c -> c.prepareStatement(sql)));
+        return wrapPreparedStatement(call(c -> c.prepareStatement(sql)), sql);
     }
 
     public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
-        return wrapPreparedStatement(call(c -> c.prepareStatement(sql, autoGeneratedKeys)));
+        return wrapPreparedStatement(call(c -> c.prepareStatement(sql, autoGeneratedKeys)), sql);
     }
 
     public PreparedStatement prepareStatement(String sql, int columnIndexes[]) throws SQLException {
-        return wrapPreparedStatement(call(c -> c.prepareStatement(sql, columnIndexes)));
+        return wrapPreparedStatement(call(c -> c.prepareStatement(sql, columnIndexes)), sql);
     }
 
     public PreparedStatement prepareStatement(String sql, String columnNames[]) throws SQLException {
-        return wrapPreparedStatement(call(c -> c.prepareStatement(sql, columnNames)));
+        return wrapPreparedStatement(call(c -> c.prepareStatement(sql, columnNames)), sql);
     }
 
     @Override
@@ -225,23 +245,23 @@ public class ConnectionHandle<
     }
 
     public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
-        return wrapPreparedStatement(call(c -> c.prepareStatement(sql, resultSetType, resultSetConcurrency)));
+        return wrapPreparedStatement(call(c -> c.prepareStatement(sql, resultSetType, resultSetConcurrency)), sql);
     }
 
     public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
-        return wrapPreparedStatement(call(c -> c.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability)));
+        return wrapPreparedStatement(call(c -> c.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability)), sql);
     }
 
     public CallableStatement prepareCall(String sql) throws SQLException {
-        return wrapCallableStatement(call(c -> c.prepareCall(sql)));
+        return wrapCallableStatement(call(c -> c.prepareCall(sql)), sql);
     }
 
     public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
-        return wrapCallableStatement(call(c -> c.prepareCall(sql, resultSetType, resultSetConcurrency)));
+        return wrapCallableStatement(call(c -> c.prepareCall(sql, resultSetType, resultSetConcurrency)), sql);
     }
 
     public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
-        return wrapCallableStatement(call(c -> c.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability)));
+        return wrapCallableStatement(call(c -> c.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability)), sql);
     }
 
     public DatabaseMetaData getMetaData() throws SQLException {
@@ -363,12 +383,12 @@ public class ConnectionHandle<
         return Wrappers.wrap(Statement.class, this, s);
     }
 
-    private PreparedStatement wrapPreparedStatement(PreparedStatement ps) {
-        return Wrappers.wrap(PreparedStatement.class, this, ps);
+    private PreparedStatement wrapPreparedStatement(PreparedStatement ps, String sql) {
+        return Wrappers.wrap(PreparedStatement.class, this, ps, sql);
     }
 
-    private CallableStatement wrapCallableStatement(CallableStatement cs) {
-        return Wrappers.wrap(CallableStatement.class, this, cs);
+    private CallableStatement wrapCallableStatement(CallableStatement cs, String sql) {
+        return Wrappers.wrap(CallableStatement.class, this, cs, sql);
     }
 
     private DatabaseMetaData wrapMetaData(DatabaseMetaData dbmd) {
@@ -47,6 +47,8 @@ import java.util.logging.Logger;
  * a regular connection.  The current set of capabilities include:
  *  - StatementCaching
  *  - IsolationLevel caching
+ *  - Transparent batching of cached prepared statement updates
+ *  - Default fetch size, max rows and query timeout for statements
  */
 public class ConnectionWrapper implements Connection {
 
@@ -59,6 +61,14 @@ public class ConnectionWrapper implements Connection {
     private int cacheSize = 0;
     private int isolationLevel = 0;
     private boolean isolationCachingEnabled = false;
+    private int maxBatchSize = 0;
+    private boolean batching = false;
+    private PreparedStatementWrapper batchStatement;
+    private int batchCount = 0;
+    private SQLException batchFailure;
+    private final StatementDefaults statementDefaults;
+    private final StatementCacheStatistics cacheStatistics;
+    private final StatementStatistics statementStatistics;
 
     /**
      * Constructs a new ConnectionWrapper object.  This constructor creates a connection wrapper
@@ -77,12 +87,69 @@ public class ConnectionWrapper implements Connection {
      * @param cacheSize
      */
     public ConnectionWrapper(Connection connection, int cacheSize) {
+        this(connection, cacheSize, 0);
+    }
+
+    /**
+     * Creates a connection wrapper that caches prepared statements and, while a transaction is active,
+     * coalesces consecutive updates of the same cached prepared statement into JDBC batches.
+     *
+     * @param connection
+     * @param cacheSize
+     * @param batchSize maximum number of updates queued before the batch is executed, 0 to disable batching
+     */
+    public ConnectionWrapper(Connection connection, int cacheSize, int batchSize) {
+        this(connection, cacheSize, batchSize, null);
+    }
+
+    /**
+     * Creates a connection wrapper that also applies default settings to the statements it creates.
+     *
+     * @param connection
+     * @param cacheSize
+     * @param batchSize
+     * @param statementDefaults defaults applied to statements, or <code>null</code>
+     */
+    public ConnectionWrapper(Connection connection, int cacheSize, int batchSize, StatementDefaults statementDefaults) {
+        this(connection, cacheSize, batchSize, statementDefaults, null);
+    }
+
+    /**
+     * Creates a connection wrapper that also reports the activity of its statement cache.
+     *
+     * @param connection
+     * @param cacheSize
+     * @param batchSize
+     * @param statementDefaults
+     * @param cacheStatistics statistics shared by the connections of a pool, or <code>null</code>
+     */
+    public ConnectionWrapper(Connection connection, int cacheSize, int batchSize, StatementDefaults statementDefaults,
+                             StatementCacheStatistics cacheStatistics) {
+        this(connection, cacheSize, batchSize, statementDefaults, cacheStatistics, null);
+    }
+
+    /**
+     * Creates a connection wrapper that also records the execution times of the transparent batches.
+     *
+     * @param connection
+     * @param cacheSize
+     * @param batchSize
+     * @param statementDefaults
+     * @param cacheStatistics
+     * @param statementStatistics execution times of the statements of a pool, or <code>null</code>
+     */
+    public ConnectionWrapper(Connection connection, int cacheSize, int batchSize, StatementDefaults statementDefaults,
+                             StatementCacheStatistics cacheStatistics, StatementStatistics statementStatistics) {
         this.connection = connection;
+        this.cacheStatistics = cacheStatistics;
+        this.statementStatistics = statementStatistics;
+        this.statementDefaults = statementDefaults != null && !statementDefaults.isEmpty() ? statementDefaults : null;
         caching = false;
         maxCacheSize = cacheSize <= 0 ? 0 : cacheSize;
         if (maxCacheSize > 0) {
             caching = true;
             pStmtCache = new HashMap<>(maxCacheSize * 2);
+            maxBatchSize = batchSize <= 0 ? 0 : batchSize;
         }
         try {
             isolationLevel = connection.getTransactionIsolation();
@@ -93,121 +160,137 @@ public class ConnectionWrapper implements Connection {
 
     public PreparedStatement prepareStatement(String sql) throws SQLException {
         if (!caching) {
-            return connection.prepareStatement(sql);
+            return applyDefaults(connection.prepareStatement(sql), sql);
         }
 
         PreparedStatementKey psk = new PreparedStatementKey(this, sql);
         PreparedStatementWrapper psw = pStmtCache.get(psk);
         if (psw == null) {
-            long startTime = System.currentTimeMillis();
+            long startTime = System.nanoTime();
             PreparedStatement ps = connection.prepareStatement(sql);
-            long endTime = System.currentTimeMillis();
+            long endTime = System.nanoTime();
             psw = new PreparedStatementWrapper(this, sql, ps, endTime - startTime);
             psk.setPreparedStatementWrapper(psw);
             addStatementToCache(psk, psw);
+        } else if (cacheStatistics != null) {
+            cacheStatistics.hit(psw.getActualPrepareTime());
         }
         psw.checkOutStatement();
-        return psw;
+        return applyDefaults(psw, sql);
     }
 
     public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
         if (!caching) {
-            return connection.prepareStatement(sql, resultSetType, resultSetConcurrency);
+            return applyDefaults(connection.prepareStatement(sql, resultSetType, resultSetConcurrency), sql);
         }
 
         PreparedStatementKey psk = new PreparedStatementKey(this, sql, resultSetType, resultSetConcurrency);
         PreparedStatementWrapper psw = pStmtCache.get(psk);
         if (psw == null) {
-            long startTime = System.currentTimeMillis();
+            long startTime = System.nanoTime();
             PreparedStatement ps = connection.prepareStatement(sql, resultSetType,
                     resultSetConcurrency);
-            long endTime = System.currentTimeMillis();
+            long endTime = System.nanoTime();
             psw = new PreparedStatementWrapper(this, sql, ps, endTime - startTime);
             psk.setPreparedStatementWrapper(psw);
             addStatementToCache(psk, psw);
+        } else if (cacheStatistics != null) {
+            cacheStatistics.hit(psw.getActualPrepareTime());
         }
         psw.checkOutStatement();
-        return psw;
+        return applyDefaults(psw, sql);
     }
 
     public PreparedStatement prepareStatement(String sql, int resultSetType,
                                               int resultSetConcurrency, int resultSetHoldability) throws SQLException {
         if (!caching) {
-            return connection.prepareStatement(sql, resultSetType, resultSetConcurrency,
-                    resultSetHoldability);
+            return applyDefaults(connection.prepareStatement(sql, resultSetType, resultSetConcurrency,
+                    resultSetHoldability), sql);
         }
 
         PreparedStatementKey psk = new PreparedStatementKey(this, sql, resultSetType, resultSetConcurrency, resultSetHoldability);
         PreparedStatementWrapper psw = pStmtCache
                 .get(psk);
         if (psw == null) {
-            long startTime = System.currentTimeMillis();
+            long startTime = System.nanoTime();
             PreparedStatement ps = connection.prepareStatement(sql, resultSetType,
                     resultSetConcurrency, resultSetHoldability);
-            long endTime = System.currentTimeMillis();
+            long endTime = System.nanoTime();
             psw = new PreparedStatementWrapper(this, sql, ps, endTime - startTime);
             psk.setPreparedStatementWrapper(psw);
             addStatementToCache(psk, psw);
+        } else if (cacheStatistics != null) {
+            cacheStatistics.hit(psw.getActualPrepareTime());
         }
         psw.checkOutStatement();
-        return psw;
+        return applyDefaults(psw, sql);
     }
 
     public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+        if (!caching) {
+            return applyDefaults(connection.prepareStatement(sql, autoGeneratedKeys), sql);
+        }
+
         PreparedStatementKey psk = new PreparedStatementKey(this, sql, autoGeneratedKeys);
         PreparedStatementWrapper psw = pStmtCache
                 .get(psk);
         if (psw == null) {
-            long startTime = System.currentTimeMillis();
+            long startTime = System.nanoTime();
             PreparedStatement ps = connection.prepareStatement(sql, autoGeneratedKeys);
-            long endTime = System.currentTimeMillis();
-            psw = new PreparedStatementWrapper(this, sql, ps, endTime - startTime);
+            long endTime = System.nanoTime();
+            psw = new PreparedStatementWrapper(this, sql, ps, endTime - startTime, false);
             psk.setPreparedStatementWrapper(psw);
             addStatementToCache(psk, psw);
+        } else if (cacheStatistics != null) {
+            cacheStatistics.hit(psw.getActualPrepareTime());
         }
         psw.checkOutStatement();
-        return psw;
+        return applyDefaults(psw, sql);
     }
 
     public PreparedStatement prepareStatement(String sql, int columnIndexes[])
             throws SQLException {
         if (!caching) {
-            return connection.prepareStatement(sql, columnIndexes);
+            return applyDefaults(connection.prepareStatement(sql, columnIndexes), sql);
         }
 
         PreparedStatementKey psk = new PreparedStatementKey(this, sql, columnIndexes);
         PreparedStatementWrapper psw = pStmtCache.get(psk);
         if (psw == null) {
-            long startTime = System.currentTimeMillis();
+            long startTime = System.nanoTime();
             PreparedStatement ps = connection.prepareStatement(sql, columnIndexes);
-            long endTime = System.currentTimeMillis();
-            psw = new PreparedStatementWrapper(this, sql, ps, endTime - startTime);
+            long endTime = System.nanoTime();
+            psw = new PreparedStatementWrapper(this, sql, ps, endTime - startTime, false);
             psk.setPreparedStatementWrapper(psw);
             addStatementToCache(psk, psw);
+        } else if (cacheStatistics != null) {
+            cacheStatistics.hit(psw.getActualPrepareTime());
         }
         psw.checkOutStatement();
-        return psw;
+        return applyDefaults(psw, sql);
     }
 
     public PreparedStatement prepareStatement(String sql, String columnNames[])
             throws SQLException {
         if (!caching) {
-            return connection.prepareStatement(sql, columnNames);
+            return applyDefaults(connection.prepareStatement(sql, columnNames), sql);
         }
 
         PreparedStatementKey psk = new PreparedStatementKey(this, sql, columnNames);
         PreparedStatementWrapper psw = pStmtCache.get(psk);
 
         if (psw == null) {
-            long startTime = System.currentTimeMillis();
+            long startTime = System.nanoTime();
             PreparedStatement ps = connection.prepareStatement(sql, columnNames);
-            long endTime = System.currentTimeMillis();
-            psw = new PreparedStatementWrapper(this, sql, ps, endTime - startTime);
+            long endTime = System.nanoTime();
+            psw = new PreparedStatementWrapper(this, sql, ps, endTime - startTime, false);
             psk.setPreparedStatementWrapper(psw);
             addStatementToCache(psk, psw);
+        } else if (cacheStatistics != null) {
+            cacheStatistics.hit(psw.getActualPrepareTime());
         }
         psw.checkOutStatement();
-        return psw;
+        return applyDefaults(psw, sql);
     }
 
     @Override
@@ -265,7 +348,7 @@ public class ConnectionWrapper implements Connection {
         return connection.createStruct(s, objects);
     }
 
-    private void addStatementToCache(PreparedStatementKey psk, PreparedStatementWrapper psw) {
+    private void addStatementToCache(PreparedStatementKey psk, PreparedStatementWrapper psw) throws SQLException {
         if (!caching) {
             return;
         }
@@ -275,13 +358,16 @@ public class ConnectionWrapper implements Connection {
         }
         pStmtCache.put(psk, psw);
         cacheSize++;
+        if (cacheStatistics != null) {
+            cacheStatistics.miss(psw.getActualPrepareTime());
+        }
     }
 
     /**
      * evictStatement looks for the statement that is the least used and oldest.  It removes this statement from the
      * cache.
      */
-    private void evictStatement() {
+    private void evictStatement() throws SQLException {
         Iterator<PreparedStatementKey> keyList = pStmtCache.keySet().iterator();
 
         PreparedStatementKey oldestPsk = null;
@@ -294,9 +380,17 @@ public class ConnectionWrapper implements Connection {
                 currentPsk = keyList.next();
             } else {
                 if (oldestPsk != null) {
+                    if (oldestPsk.getPreparedStatementWrapper() == batchStatement) {
+                        flushBatch();
+                    }
                     pStmtCache.remove(oldestPsk);
+                    cacheSize--;
+                    if (cacheStatistics != null) {
+                        cacheStatistics.evicted();
+                    }
                     oldestPsk.getPreparedStatementWrapper().closeStatement();
-                    LOG.info("Statement --> " + oldestPsk.getSql() + " <-- is removed from PreparedStatement Cache");
+                    String evictedSql = oldestPsk.getSql();
+                    LOG.fine(() -> "Statement --> " + evictedSql + " <-- is removed from PreparedStatement Cache");
                     break;
                 }
             }
@@ -323,12 +417,113 @@ public class ConnectionWrapper implements Connection {
 
     }
 
+    private <S extends Statement> S applyDefaults(S statement, String sql) throws SQLException {
+        if (statementDefaults != null) {
+            statementDefaults.apply(statement, sql);
+        }
+        return statement;
+    }
+
     void returnStatementToCache(PreparedStatementWrapper psw) {
         if (psw.decrementUseCount() < 0) {
             LOG.severe("Counting error in PreparedStatementCaching System.\n" + psw.toString());
         }
     }
 
+    /**
+     * Queue the current parameters of a cached prepared statement instead of executing the update.
+     * Updates are only queued while a transaction is active; a pending batch of a different statement
+     * is executed first so that the order of the updates is preserved.
+     *
+     * @param psw the statement to queue
+     * @return <code>true</code> if the update has been queued, <code>false</code> if it must be executed
+     * @throws SQLException
+     */
+    boolean addToBatch(PreparedStatementWrapper psw) throws SQLException {
+        if (!batching) {
+            return false;
+        }
+        if (batchStatement != psw) {
+            flushBatch();
+            batchStatement = psw;
+        }
+        psw.addPendingBatch();
+        if (++batchCount >= maxBatchSize) {
+            flushBatch();
+        }
+        return true;
+    }
+
+    StatementStatistics getStatementStatistics() {
+        return statementStatistics;
+    }
+
+    boolean isBatchPending(PreparedStatementWrapper psw) {
+        return batchStatement == psw;
+    }
+
+    /**
+     * Execute the pending batch, if any. A failure from a previous deferred flush is reported first.
+     *
+     * @throws SQLException
+     */
+    public void flushBatch() throws SQLException {
+        if (batchFailure != null) {
+            SQLException e = batchFailure;
+            batchFailure = null;
+            throw e;
+        }
+        if (batchStatement != null) {
+            PreparedStatementWrapper psw = batchStatement;
+            batchStatement = null;
+            batchCount = 0;
+            psw.executePendingBatch();
+        }
+    }
+
+    /**
+     * Execute the pending batch, keeping any failure to be reported by the next flush.
+     * Used when the caller can not report the exception, i.e. when a connection handle is closed.
+     */
+    public void deferredFlushBatch() {
+        try {
+            flushBatch();
+        } catch (SQLException e) {
+            batchFailure = e;
+        }
+    }
+
+    /**
+     * Discard the pending batch, if any, along with any deferred failure.
+     */
+    public void discardBatch() {
+        batchFailure = null;
+        if (batchStatement != null) {
+            PreparedStatementWrapper psw = batchStatement;
+            batchStatement = null;
+            batchCount = 0;
+            psw.clearPendingBatch();
+        }
+    }
+
+    /**
+     * Enable transparent batching, if configured. Batching is only active while a transaction is active
+     * on the connection.
+     */
+    public void startBatching() {
+        batching = maxBatchSize > 0;
+    }
+
+    /**
+     * Disable transparent batching and execute any pending batch.
+     *
+     * @throws SQLException
+     */
+    public void endBatching() throws SQLException {
+        batching = false;
+        flushBatch();
+    }
+
     public void setTransactionIsolation(int isolationLevel) throws SQLException {
         if (isolationCachingEnabled && this.isolationLevel == isolationLevel) {
             return;
@@ -355,11 +550,11 @@ public class ConnectionWrapper implements Connection {
      */
 
     public Statement createStatement() throws SQLException {
-        return connection.createStatement();
+        return applyDefaults(connection.createStatement(), null);
     }
 
     public CallableStatement prepareCall(String arg0) throws SQLException {
-        return connection.prepareCall(arg0);
+        return applyDefaults(connection.prepareCall(arg0), arg0);
     }
 
     public String nativeSQL(String arg0) throws SQLException {
@@ -367,7 +562,14 @@ public class ConnectionWrapper implements Connection {
     }
 
     public void setAutoCommit(boolean arg0) throws SQLException {
+        if (arg0) {
+            // reenabling autoCommit commits the current transaction
+            endBatching();
+        }
         connection.setAutoCommit(arg0);
+        if (!arg0) {
+            startBatching();
+        }
     }
 
     public boolean getAutoCommit() throws SQLException {
@@ -375,14 +577,21 @@ public class ConnectionWrapper implements Connection {
     }
 
     public void commit() throws SQLException {
+        flushBatch();
         connection.commit();
     }
 
     public void rollback() throws SQLException {
+        discardBatch();
         connection.rollback();
     }
 
     public void close() throws SQLException {
+        discardBatch();
+        if (cacheStatistics != null) {
+            cacheStatistics.discarded(cacheSize);
+        }
+        cacheSize = 0;
         connection.close();
     }
 
@@ -419,12 +628,12 @@ public class ConnectionWrapper implements Connection {
     }
 
     public Statement createStatement(int arg0, int arg1) throws SQLException {
-        return connection.createStatement(arg0, arg1);
+        return applyDefaults(connection.createStatement(arg0, arg1), null);
     }
 
     public CallableStatement prepareCall(String arg0, int arg1, int arg2)
             throws SQLException {
-        return connection.prepareCall(arg0, arg1, arg2);
+        return applyDefaults(connection.prepareCall(arg0, arg1, arg2), arg0);
     }
 
     public Map<String, Class<?>> getTypeMap() throws SQLException {
@@ -447,15 +656,18 @@ public class ConnectionWrapper implements Connection {
     }
 
     public Savepoint setSavepoint() throws SQLException {
+        flushBatch();
         return connection.setSavepoint();
     }
 
     public Savepoint setSavepoint(String arg0) throws SQLException {
+        flushBatch();
         return connection.setSavepoint(arg0);
     }
 
     public void rollback(Savepoint arg0) throws SQLException {
-        connection.rollback();
+        flushBatch();
+        connection.rollback(arg0);
     }
 
     public void releaseSavepoint(Savepoint arg0) throws SQLException {
@@ -463,11 +675,11 @@ public class ConnectionWrapper implements Connection {
     }
 
     public Statement createStatement(int arg0, int arg1, int arg2) throws SQLException {
-        return connection.createStatement(arg0, arg1, arg2);
+        return applyDefaults(connection.createStatement(arg0, arg1, arg2), null);
     }
 
     public CallableStatement prepareCall(String arg0, int arg1, int arg2, int arg3) throws SQLException {
-        return connection.prepareCall(arg0, arg1, arg2, arg3);
+        return applyDefaults(connection.prepareCall(arg0, arg1, arg2, arg3), arg0);
     }
 
     @Override
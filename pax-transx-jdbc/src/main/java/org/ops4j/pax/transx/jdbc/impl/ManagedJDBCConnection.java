@@ -18,22 +18,15 @@ package org.ops4j.pax.transx.jdbc.impl;
 import java.sql.Connection;
 import java.sql.SQLException;
 import javax.resource.ResourceException;
-import javax.resource.spi.LocalTransaction;
-import javax.resource.spi.LocalTransactionException;
 import javax.resource.spi.ResourceAdapterInternalException;
 
 import org.ops4j.pax.transx.connection.ExceptionSorter;
-import org.ops4j.pax.transx.connection.utils.AbstractManagedConnection;
 import org.ops4j.pax.transx.connection.utils.CredentialExtractor;
 
 /**
  * Implementation of ManagedConnection that manages a physical JDBC connection.
  */
-public class ManagedJDBCConnection extends AbstractManagedConnection<LocalDataSourceMCF, ManagedJDBCConnection, Connection, ConnectionHandle<LocalDataSourceMCF, ManagedJDBCConnection>> {
-
-    private final Connection physicalConnection;
-    private final LocalTransactionImpl localTx;
-    private final LocalTransactionImpl localClientTx;
+public class ManagedJDBCConnection extends AbstractJdbcManagedConnection<LocalDataSourceMCF, ManagedJDBCConnection> {
 
     /**
      * Constructor for initializing the manager.
@@ -44,94 +37,12 @@ public class ManagedJDBCConnection extends AbstractManagedConnection<LocalDataSo
      * @param exceptionSorter the ExceptionSorter to use for classifying Exceptions raised on the physical connection
      */
     public ManagedJDBCConnection(LocalDataSourceMCF mcf, Connection physicalConnection, CredentialExtractor credentialExtractor, ExceptionSorter exceptionSorter) {
-        super(mcf, credentialExtractor, exceptionSorter);
-        this.physicalConnection = physicalConnection;
-        localTx = new LocalTransactionImpl(true);
-        localClientTx = new LocalTransactionImpl(false);
-    }
-
-    @Override
-    public Connection getPhysicalConnection() {
-        return physicalConnection;
-    }
-
-    public LocalTransaction getClientLocalTransaction() {
-        return localClientTx;
-    }
-
-    public LocalTransaction getLocalTransaction() throws ResourceException {
-        return localTx;
-    }
-
-    @Override
-    protected boolean isValid() {
-        try {
-            if (getPhysicalConnection().isValid(0)) {
-                return true;
-            }
-        } catch (SQLException e) {
-            // no-op
-        }
-        return false;
-    }
-
-    protected void localTransactionStart(boolean isSPI) throws ResourceException {
-        try {
-            getPhysicalConnection().setAutoCommit(false);
-        } catch (SQLException e) {
-            throw new LocalTransactionException("Unable to disable autoCommit", e);
-        }
-        super.localTransactionStart(isSPI);
-    }
-
-    protected void localTransactionCommit(boolean isSPI) throws ResourceException {
-        try {
-            if (mcf.isCommitBeforeAutocommit()) {
-                getPhysicalConnection().commit();
-            }
-            getPhysicalConnection().setAutoCommit(true);
-        } catch (SQLException e) {
-            try {
-                getPhysicalConnection().rollback();
-            } catch (SQLException e1) {
-                if (log != null) {
-                    e.printStackTrace(log);
-                }
-            }
-            throw new LocalTransactionException("Unable to commit", e);
-        }
-        super.localTransactionCommit(isSPI);
-    }
-
-    protected void localTransactionRollback(boolean isSPI) throws ResourceException {
-        try {
-            getPhysicalConnection().rollback();
-        } catch (SQLException e) {
-            throw new LocalTransactionException("Unable to rollback", e);
-        }
-        super.localTransactionRollback(isSPI);
-        try {
-            getPhysicalConnection().setAutoCommit(true);
-        } catch (SQLException e) {
-            throw new ResourceAdapterInternalException("Unable to enable autoCommit after rollback", e);
-        }
-    }
-
-    public void cleanup() throws ResourceException {
-        super.cleanup();
-        try {
-            //TODO reset tx isolation level
-            if (!getPhysicalConnection().getAutoCommit()) {
-                getPhysicalConnection().setAutoCommit(true);
-            }
-        } catch (SQLException e) {
-            throw new ResourceException("Could not reset autocommit when returning to pool", e);
-        }
+        super(mcf, physicalConnection, credentialExtractor, exceptionSorter);
     }
 
     protected void closePhysicalConnection() throws ResourceException {
         try {
-            getPhysicalConnection().close();
+            connection.close();
         } catch (SQLException e) {
             throw new ResourceAdapterInternalException("Error attempting to destroy managed connection", e);
         }
@@ -139,7 +50,7 @@ public class ManagedJDBCConnection extends AbstractManagedConnection<LocalDataSo
 
     protected void attemptRollback() {
         try {
-            getPhysicalConnection().rollback();
+            connection.rollback();
         } catch (SQLException e) {
             //ignore.... presumably the connection is actually dead
         }
@@ -18,8 +18,6 @@ package org.ops4j.pax.transx.jdbc.impl;
 import java.sql.Connection;
 import java.sql.SQLException;
 import javax.resource.ResourceException;
-import javax.resource.spi.LocalTransaction;
-import javax.resource.spi.LocalTransactionException;
 import javax.resource.spi.ResourceAdapterInternalException;
 import javax.sql.ConnectionEvent;
 import javax.sql.ConnectionEventListener;
@@ -27,19 +25,14 @@ import javax.sql.XAConnection;
 import javax.transaction.xa.XAResource;
 
 import org.ops4j.pax.transx.connection.ExceptionSorter;
-import org.ops4j.pax.transx.connection.utils.AbstractManagedConnection;
 import org.ops4j.pax.transx.connection.utils.CredentialExtractor;
 
-public class ManagedXAConnection extends AbstractManagedConnection<XADataSourceMCF, ManagedXAConnection, Connection, ConnectionHandle<XADataSourceMCF, ManagedXAConnection>> {
+public class ManagedXAConnection extends AbstractJdbcManagedConnection<XADataSourceMCF, ManagedXAConnection> {
 
-    private final LocalTransactionImpl localTx;
-    private final LocalTransactionImpl localClientTx;
-    private final Connection connection;
     private final XAConnection xaConnection;
 
     public ManagedXAConnection(XADataSourceMCF mcf, XAConnection xaConnection, XAResource xaResource, Connection connection, CredentialExtractor credentialExtractor, ExceptionSorter exceptionSorter) {
-        super(mcf, credentialExtractor, exceptionSorter);
-        this.connection = connection;
+        super(mcf, connection, credentialExtractor, exceptionSorter);
         this.xaConnection = xaConnection;
         this.xaResource = xaResource;
         xaConnection.addConnectionEventListener(new ConnectionEventListener() {
@@ -52,90 +45,6 @@ public class ManagedXAConnection extends AbstractManagedConnection<XADataSourceM
                 unfilteredConnectionError(e);
             }
         });
-        localTx = new LocalTransactionImpl(true);
-        localClientTx = new LocalTransactionImpl(false);
-    }
-
-    @Override
-    public Connection getPhysicalConnection() {
-        return connection;
-    }
-
-    public LocalTransaction getClientLocalTransaction() {
-        return localClientTx;
-    }
-
-    public LocalTransaction getLocalTransaction() throws ResourceException {
-        return localTx;
-    }
-
-    protected void localTransactionStart(boolean isSPI) throws ResourceException {
-        try {
-            connection.setAutoCommit(false);
-        } catch (SQLException e) {
-            throw new LocalTransactionException("Unable to disable autoCommit", e);
-        }
-        super.localTransactionStart(isSPI);
-    }
-
-    protected void localTransactionCommit(boolean isSPI) throws ResourceException {
-        try {
-            // according to the JDBC spec, reenabling autoCommit commits any current transaction
-            // we need to do both here, so we rely on this behaviour in the driver as otherwise
-            // commit followed by setAutoCommit(true) may result in 2 commits in the database
-            if (mcf.isCommitBeforeAutocommit()) {
-                connection.commit();
-            }
-            connection.setAutoCommit(true);
-        } catch (SQLException e) {
-            try {
-                connection.rollback();
-            } catch (SQLException e1) {
-                if (log != null) {
-                    e.printStackTrace(log);
-                }
-            }
-            throw new LocalTransactionException("Unable to commit", e);
-        }
-        super.localTransactionCommit(isSPI);
-    }
-
-    protected void localTransactionRollback(boolean isSPI) throws ResourceException {
-        try {
-            connection.rollback();
-        } catch (SQLException e) {
-            throw new LocalTransactionException("Unable to rollback", e);
-        }
-        super.localTransactionRollback(isSPI);
-        try {
-            connection.setAutoCommit(true);
-        } catch (SQLException e) {
-            throw new ResourceAdapterInternalException("Unable to enable autoCommit after rollback", e);
-        }
-    }
-
-    @Override
-    protected boolean isValid() {
-        try {
-            if (connection.isValid(0)) {
-                return true;
-            }
-        } catch (SQLException e) {
-            // no-op
-        }
-        return false;
-    }
-
-    public void cleanup() throws ResourceException {
-        super.cleanup();
-        try {
-            //TODO reset tx isolation level
-            if (!connection.getAutoCommit()) {
-                connection.setAutoCommit(true);
-            }
-        } catch (SQLException e) {
-            throw new ResourceException("Could not reset autocommit when returning to pool", e);
-        }
     }
 
     protected void closePhysicalConnection() throws ResourceException {
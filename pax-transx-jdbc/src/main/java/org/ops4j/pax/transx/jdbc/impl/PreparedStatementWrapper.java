@@ -34,9 +34,11 @@ import java.sql.RowId;
 import java.sql.SQLException;
 import java.sql.SQLWarning;
 import java.sql.SQLXML;
+import java.sql.Statement;
 import java.sql.Time;
 import java.sql.Timestamp;
 import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -47,6 +49,7 @@ public class PreparedStatementWrapper implements PreparedStatement {
     private final PreparedStatement ps;
     private final ConnectionWrapper cw;
     private final String sql;
+    private final boolean batchable;
     private boolean statementClosed = false;
     private long lastTimeUsed = 0;
     private long timesUsed = 0;
@@ -54,9 +57,18 @@ public class PreparedStatementWrapper implements PreparedStatement {
     private long actualPrepareTime = 0;
 
     public PreparedStatementWrapper(ConnectionWrapper cw, String sql, PreparedStatement ps, long prepareTime) {
+        this(cw, sql, ps, prepareTime, true);
+    }
+
+    /**
+     * @param batchable whether updates may be transparently batched, which is not the case
+     * for statements returning generated keys
+     */
+    public PreparedStatementWrapper(ConnectionWrapper cw, String sql, PreparedStatement ps, long prepareTime, boolean batchable) {
         this.ps = ps;
         this.cw = cw;
         this.sql = sql;
+        this.batchable = batchable;
         setActualPrepareTime(prepareTime);
     }
 
@@ -66,7 +78,9 @@ public class PreparedStatementWrapper implements PreparedStatement {
      */
     public void close() throws SQLException {
         ps.clearWarnings();
-        ps.clearBatch();
+        if (!cw.isBatchPending(this)) {
+            ps.clearBatch();
+        }
         ps.clearParameters();
         cw.returnStatementToCache(this);
     }
@@ -88,6 +102,9 @@ public class PreparedStatementWrapper implements PreparedStatement {
         }
     }
 
+    /**
+     * @return the time it took to prepare the statement, in nanoseconds
+     */
     public long getActualPrepareTime() {
         return actualPrepareTime;
     }
@@ -138,10 +155,38 @@ public class PreparedStatementWrapper implements PreparedStatement {
                 "          Last time used: " + new Date(lastTimeUsed).toString() + "\n" +
                 "    Number of times used: " + timesUsed + "\n" +
                 "    Current in Use Count: " + useCount + "\n" +
-                "    Initial Prepare time: " + actualPrepareTime + " milliseconds\n";
+                "    Initial Prepare time: " + TimeUnit.NANOSECONDS.toMillis(actualPrepareTime) + " milliseconds\n";
         return details;
     }
 
+    void addPendingBatch() throws SQLException {
+        ps.addBatch();
+    }
+
+    /**
+     * Execute the queued updates, recording the execution time of the batch against the SQL
+     * of the statement, as the queued updates have not been timed.
+     */
+    void executePendingBatch() throws SQLException {
+        StatementStatistics stats = cw.getStatementStatistics();
+        long start = stats != null ? System.nanoTime() : 0L;
+        try {
+            ps.executeBatch();
+        } finally {
+            if (stats != null) {
+                stats.record(sql, System.nanoTime() - start);
+            }
+        }
+    }
+
+    void clearPendingBatch() {
+        try {
+            ps.clearBatch();
+        } catch (SQLException e) {
+            LOG.log(Level.FINE, "Error clearing pending batch", e);
+        }
+    }
+
     /**
      *
      */
@@ -152,10 +197,19 @@ public class PreparedStatementWrapper implements PreparedStatement {
     }
 
     public ResultSet executeQuery() throws SQLException {
+        cw.flushBatch();
         return ps.executeQuery();
     }
 
+    /**
+     * When transparent batching is active, the update is queued and {@link Statement#SUCCESS_NO_INFO}
+     * is returned, as the actual update count is only known once the batch is executed.
+     */
     public int executeUpdate() throws SQLException {
+        if (batchable && cw.addToBatch(this)) {
+            return Statement.SUCCESS_NO_INFO;
+        }
+        cw.flushBatch();
         return ps.executeUpdate();
     }
 
@@ -303,10 +357,12 @@ public class PreparedStatementWrapper implements PreparedStatement {
     }
 
     public boolean execute() throws SQLException {
+        cw.flushBatch();
         return ps.execute();
     }
 
     public void addBatch() throws SQLException {
+        cw.flushBatch();
         ps.addBatch();
     }
 
@@ -404,10 +460,12 @@ public class PreparedStatementWrapper implements PreparedStatement {
     }
 
     public ResultSet executeQuery(String arg0) throws SQLException {
+        cw.flushBatch();
         return ps.executeQuery(arg0);
     }
 
     public int executeUpdate(String arg0) throws SQLException {
+        cw.flushBatch();
         return ps.executeUpdate(arg0);
     }
 
@@ -456,6 +514,7 @@ public class PreparedStatementWrapper implements PreparedStatement {
     }
 
     public boolean execute(String arg0) throws SQLException {
+        cw.flushBatch();
         return ps.execute(arg0);
     }
 
@@ -496,14 +555,17 @@ public class PreparedStatementWrapper implements PreparedStatement {
     }
 
     public void addBatch(String arg0) throws SQLException {
+        cw.flushBatch();
         ps.addBatch(arg0);
     }
 
     public void clearBatch() throws SQLException {
+        cw.flushBatch();
         ps.clearBatch();
     }
 
     public int[] executeBatch() throws SQLException {
+        cw.flushBatch();
         return ps.executeBatch();
     }
 
@@ -520,26 +582,32 @@ public class PreparedStatementWrapper implements PreparedStatement {
     }
 
     public int executeUpdate(String arg0, int arg1) throws SQLException {
+        cw.flushBatch();
         return ps.executeUpdate(arg0, arg1);
     }
 
     public int executeUpdate(String arg0, int arg1[]) throws SQLException {
+        cw.flushBatch();
         return ps.executeUpdate(arg0, arg1);
     }
 
     public int executeUpdate(String arg0, String arg1[]) throws SQLException {
+        cw.flushBatch();
         return ps.executeUpdate(arg0, arg1);
     }
 
     public boolean execute(String arg0, int arg1) throws SQLException {
+        cw.flushBatch();
         return ps.execute(arg0, arg1);
     }
 
     public boolean execute(String arg0, int arg1[]) throws SQLException {
+        cw.flushBatch();
         return ps.execute(arg0, arg1);
     }
 
     public boolean execute(String arg0, String arg1[]) throws SQLException {
+        cw.flushBatch();
         return ps.execute(arg0, arg1);
     }
 
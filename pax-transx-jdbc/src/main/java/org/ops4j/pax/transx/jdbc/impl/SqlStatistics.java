@@ -0,0 +1,67 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.jdbc.impl;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Snapshot of the execution times of a single SQL statement, in milliseconds.
+ */
+public class SqlStatistics {
+
+    private final String sql;
+    private final long count;
+    private final double totalTime;
+    private final double maxTime;
+    private final double p99Time;
+
+    @ConstructorProperties({"sql", "count", "totalTime", "maxTime", "p99Time"})
+    public SqlStatistics(String sql, long count, double totalTime, double maxTime, double p99Time) {
+        this.sql = sql;
+        this.count = count;
+        this.totalTime = totalTime;
+        this.maxTime = maxTime;
+        this.p99Time = p99Time;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getTotalTime() {
+        return totalTime;
+    }
+
+    public double getMeanTime() {
+        return count > 0 ? totalTime / count : 0;
+    }
+
+    public double getMaxTime() {
+        return maxTime;
+    }
+
+    /**
+     * Approximate 99th percentile, as the upper bound of the histogram bucket holding it.
+     */
+    public double getP99Time() {
+        return p99Time;
+    }
+
+}
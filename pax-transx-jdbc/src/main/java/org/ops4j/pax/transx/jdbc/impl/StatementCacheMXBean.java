@@ -0,0 +1,54 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.jdbc.impl;
+
+public interface StatementCacheMXBean {
+
+    /**
+     * Number of prepare calls served from the cache.
+     */
+    long getHits();
+
+    /**
+     * Number of prepare calls which had to prepare a new statement.
+     */
+    long getMisses();
+
+    double getHitRatio();
+
+    /**
+     * Number of statements evicted because the cache was full.
+     */
+    long getEvictions();
+
+    /**
+     * Number of statements currently cached, across all the connections of the pool.
+     */
+    long getSize();
+
+    /**
+     * Average time to prepare a statement on a cache miss, in milliseconds.
+     */
+    double getAveragePrepareTime();
+
+    /**
+     * Average prepare time saved by a cache hit, in milliseconds.
+     */
+    double getAveragePrepareTimeSaved();
+
+    void reset();
+
+}
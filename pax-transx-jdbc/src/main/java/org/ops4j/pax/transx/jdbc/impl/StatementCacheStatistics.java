@@ -0,0 +1,103 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.jdbc.impl;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Prepared statement cache statistics, aggregated over all the {@link ConnectionWrapper}s of a pool.
+ */
+public class StatementCacheStatistics implements StatementCacheMXBean {
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder size = new LongAdder();
+    private final LongAdder prepareTime = new LongAdder();
+    private final LongAdder prepareTimeSaved = new LongAdder();
+
+    void hit(long prepareTimeNanos) {
+        hits.increment();
+        prepareTimeSaved.add(prepareTimeNanos);
+    }
+
+    void miss(long prepareTimeNanos) {
+        misses.increment();
+        prepareTime.add(prepareTimeNanos);
+        size.increment();
+    }
+
+    void evicted() {
+        evictions.increment();
+        size.decrement();
+    }
+
+    void discarded(int count) {
+        size.add(-count);
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public double getHitRatio() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total > 0 ? (double) h / total : 0;
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public long getSize() {
+        return size.sum();
+    }
+
+    @Override
+    public double getAveragePrepareTime() {
+        return average(prepareTime.sum(), misses.sum());
+    }
+
+    @Override
+    public double getAveragePrepareTimeSaved() {
+        return average(prepareTimeSaved.sum(), hits.sum());
+    }
+
+    @Override
+    public void reset() {
+        // the size reflects the current content of the caches and is not reset
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+        prepareTime.reset();
+        prepareTimeSaved.reset();
+    }
+
+    private static double average(long totalNanos, long count) {
+        return count > 0 ? totalNanos / 1_000_000.0 / count : 0;
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.jdbc.impl;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Default fetch size, max rows and query timeout applied to the statements created
+ * on a connection, with optional overrides for statements whose SQL matches a pattern.
+ */
+public final class StatementDefaults {
+
+    public static final int UNSET = -1;
+
+    private static final int MAX_RESOLVED = 1024;
+
+    private final int fetchSize;
+    private final int maxRows;
+    private final int queryTimeout;
+    private final List<SqlOverride> overrides = new ArrayList<>();
+    private final Map<String, StatementDefaults> resolved = new ConcurrentHashMap<>();
+
+    /**
+     * @param fetchSize the fetch size hint, or {@link #UNSET} to keep the driver default
+     * @param maxRows the maximum number of rows, or {@link #UNSET} to keep the driver default
+     * @param queryTimeout the query timeout in seconds, or {@link #UNSET} to keep the driver default
+     */
+    public StatementDefaults(int fetchSize, int maxRows, int queryTimeout) {
+        this.fetchSize = fetchSize;
+        this.maxRows = maxRows;
+        this.queryTimeout = queryTimeout;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    public int getMaxRows() {
+        return maxRows;
+    }
+
+    public int getQueryTimeout() {
+        return queryTimeout;
+    }
+
+    /**
+     * Add an override for the statements whose SQL contains a match for the given regular expression.
+     * Overrides are evaluated in order and the first match wins. Values left {@link #UNSET}
+     * fall back to the defaults.
+     *
+     * @param sqlPattern the regular expression
+     * @param override the settings for the matching statements
+     */
+    public void addOverride(String sqlPattern, StatementDefaults override) {
+        overrides.add(new SqlOverride(Pattern.compile(sqlPattern), new StatementDefaults(
+                override.fetchSize != UNSET ? override.fetchSize : fetchSize,
+                override.maxRows != UNSET ? override.maxRows : maxRows,
+                override.queryTimeout != UNSET ? override.queryTimeout : queryTimeout)));
+        resolved.clear();
+    }
+
+    public boolean isEmpty() {
+        return fetchSize == UNSET && maxRows == UNSET && queryTimeout == UNSET && overrides.isEmpty();
+    }
+
+    /**
+     * Apply the settings to a newly created or checked out statement.
+     *
+     * @param statement the statement
+     * @param sql the SQL of the statement, or <code>null</code> if not known at creation time
+     * @throws SQLException
+     */
+    public void apply(Statement statement, String sql) throws SQLException {
+        StatementDefaults defaults = resolve(sql);
+        if (defaults.fetchSize != UNSET) {
+            statement.setFetchSize(defaults.fetchSize);
+        }
+        if (defaults.maxRows != UNSET) {
+            statement.setMaxRows(defaults.maxRows);
+        }
+        if (defaults.queryTimeout != UNSET) {
+            statement.setQueryTimeout(defaults.queryTimeout);
+        }
+    }
+
+    private StatementDefaults resolve(String sql) {
+        if (sql == null || overrides.isEmpty()) {
+            return this;
+        }
+        StatementDefaults defaults = resolved.get(sql);
+        if (defaults == null) {
+            defaults = this;
+            for (SqlOverride override : overrides) {
+                if (override.pattern.matcher(sql).find()) {
+                    defaults = override.defaults;
+                    break;
+                }
+            }
+            if (resolved.size() >= MAX_RESOLVED) {
+                resolved.clear();
+            }
+            resolved.put(sql, defaults);
+        }
+        return defaults;
+    }
+
+    private static final class SqlOverride {
+        private final Pattern pattern;
+        private final StatementDefaults defaults;
+
+        private SqlOverride(Pattern pattern, StatementDefaults defaults) {
+            this.pattern = pattern;
+            this.defaults = defaults;
+        }
+    }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.jdbc.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Execution times of the statements of a pool, aggregated per SQL string.
+ * Executions slower than a configurable threshold are logged.
+ */
+public class StatementStatistics implements StatementStatisticsMXBean {
+
+    private static final Logger LOG = Logger.getLogger(StatementStatistics.class.getName());
+
+    private static final int MAX_STATEMENTS = 500;
+    private static final String OTHER = "<other>";
+    private static final String UNKNOWN = "<unknown>";
+
+    private final boolean collect;
+    private volatile long slowThresholdNanos;
+    private final LongAdder slowCount = new LongAdder();
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * @param collect whether per-SQL statistics are collected
+     * @param slowStatementThresholdMs threshold above which executions are logged, 0 to disable
+     */
+    public StatementStatistics(boolean collect, long slowStatementThresholdMs) {
+        this.collect = collect;
+        this.slowThresholdNanos = MILLISECONDS.toNanos(slowStatementThresholdMs);
+    }
+
+    /**
+     * Record an execution.
+     *
+     * @param sql the executed SQL, may be <code>null</code>
+     * @param nanos the execution time in nanoseconds
+     */
+    public void record(String sql, long nanos) {
+        long threshold = slowThresholdNanos;
+        if (threshold > 0 && nanos > threshold) {
+            slowCount.increment();
+            LOG.warning(() -> "Slow statement (" + NANOSECONDS.toMillis(nanos) + " ms): " + sql);
+        }
+        if (collect) {
+            String key = sql != null ? sql : UNKNOWN;
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                if (entries.size() >= MAX_STATEMENTS) {
+                    key = OTHER;
+                }
+                entry = entries.computeIfAbsent(key, k -> new Entry());
+            }
+            entry.record(nanos);
+        }
+    }
+
+    @Override
+    public long getSlowStatementThreshold() {
+        return NANOSECONDS.toMillis(slowThresholdNanos);
+    }
+
+    @Override
+    public void setSlowStatementThreshold(long slowStatementThresholdMs) {
+        this.slowThresholdNanos = MILLISECONDS.toNanos(slowStatementThresholdMs);
+    }
+
+    @Override
+    public long getSlowStatementCount() {
+        return slowCount.sum();
+    }
+
+    @Override
+    public List<SqlStatistics> getStatistics() {
+        List<SqlStatistics> stats = new ArrayList<>(entries.size());
+        entries.forEach((sql, entry) -> stats.add(entry.snapshot(sql)));
+        return stats;
+    }
+
+    @Override
+    public void reset() {
+        entries.clear();
+        slowCount.reset();
+    }
+
+    /**
+     * Execution times of a single SQL string, with a histogram of power-of-two microseconds
+     * buckets to estimate the percentiles.
+     */
+    static final class Entry {
+
+        private static final int BUCKETS = 40;
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        void record(long nanos) {
+            count.increment();
+            total.add(nanos);
+            max.accumulateAndGet(nanos, Math::max);
+            long micros = NANOSECONDS.toMicros(nanos);
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            histogram.incrementAndGet(bucket);
+        }
+
+        SqlStatistics snapshot(String sql) {
+            long n = count.sum();
+            return new SqlStatistics(sql, n, toMillis(total.sum()), toMillis(max.get()), toMillis(percentile(n, 0.99)));
+        }
+
+        private long percentile(long n, double p) {
+            long threshold = (long) Math.ceil(n * p);
+            long cumulated = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                cumulated += histogram.get(i);
+                if (cumulated >= threshold && cumulated > 0) {
+                    // upper bound of the bucket, capped by the observed maximum
+                    return Math.min(max.get(), MICROSECONDS.toNanos(1L << i));
+                }
+            }
+            return max.get();
+        }
+
+        private static double toMillis(long nanos) {
+            return nanos / 1_000_000.0;
+        }
+    }
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.jdbc.impl;
+
+import java.util.List;
+
+public interface StatementStatisticsMXBean {
+
+    /**
+     * Execution time above which a statement is logged as slow, in milliseconds, 0 if disabled.
+     */
+    long getSlowStatementThreshold();
+
+    void setSlowStatementThreshold(long slowStatementThresholdMs);
+
+    /**
+     * Number of executions slower than the threshold.
+     */
+    long getSlowStatementCount();
+
+    /**
+     * Aggregated execution times per SQL statement.
+     */
+    List<SqlStatistics> getStatistics();
+
+    void reset();
+
+}
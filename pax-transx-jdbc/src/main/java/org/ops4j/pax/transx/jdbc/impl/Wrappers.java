@@ -17,6 +17,7 @@ package org.ops4j.pax.transx.jdbc.impl;
 
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.sql.CallableStatement;
 import java.sql.Connection;
@@ -28,6 +29,7 @@ import java.sql.Wrapper;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 
 final class Wrappers {
@@ -44,16 +46,33 @@ final class Wrappers {
 
     private Wrappers() { }
 
-    @SuppressWarnings("unchecked")
     static <H> H wrap(Class<H> clazz, ConnectionHandle c, H h) {
-        return (H) wrap(clazz, c, h, Arrays.asList(wrapperIh(h), statementIh(c, h), getConnectionIh(c)));
+        return wrap(clazz, c, h, null);
+    }
+
+    /**
+     * Wrap a statement, recording the execution times against the given SQL if statistics are enabled.
+     */
+    @SuppressWarnings("unchecked")
+    static <H> H wrap(Class<H> clazz, ConnectionHandle c, H h, String sql) {
+        return (H) wrap(clazz, c, h, sql, Arrays.asList(wrapperIh(h), flushBatchIh(c, h), statementIh(c, h), getConnectionIh(c)));
     }
 
-    private static Object wrap(Class<?> clazz, ConnectionHandle c, Object h, List<InvocationHandler> subHandlers) {
+    private static Object wrap(Class<?> clazz, ConnectionHandle c, Object h, String sql, List<InvocationHandler> subHandlers) {
         if (h == null) {
             return null;
         }
+        StatementStatistics stats = h instanceof Statement ? c.getStatementStatistics() : null;
         InvocationHandler ih = (proxy, method, args) -> {
+            long start = 0L;
+            if (stats != null && method.getName().startsWith("execute")) {
+                if (!isQueueable(h, method)) {
+                    // the pending batch is timed on its own
+                    c.flushBatch();
+                }
+                start = System.nanoTime();
+            }
+            boolean queued = false;
             try {
                 for (InvocationHandler sih : subHandlers) {
                     Object o = sih.invoke(proxy, method, args);
@@ -63,9 +82,11 @@ final class Wrappers {
                 }
                 Object result = method.invoke(h, args);
                 if (CLASSES_TO_WRAP.contains(method.getReturnType())) {
-                    result = wrap(method.getReturnType(), c, result,
-                                  Arrays.asList(wrapperIh(result), statementIh(c, result), getConnectionIh(c)));
+                    result = wrap(method.getReturnType(), c, result, null,
+                                  Arrays.asList(wrapperIh(result), flushBatchIh(c, result), statementIh(c, result), getConnectionIh(c)));
                 }
+                // queued updates are timed when the batch is executed
+                queued = isQueueable(h, method) && Objects.equals(result, Statement.SUCCESS_NO_INFO);
                 return result;
             } catch (InvocationTargetException e) {
                 Throwable t = e.getCause();
@@ -77,11 +98,24 @@ final class Wrappers {
                 } else {
                     throw new IllegalStateException("InvocationTargetException without a cause", e);
                 }
+            } finally {
+                if (start != 0L && !queued) {
+                    String executed = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : sql;
+                    stats.record(executed, System.nanoTime() - start);
+                }
             }
         };
         return Proxy.newProxyInstance(h.getClass().getClassLoader(), new Class[] { clazz }, ih);
     }
 
+    /**
+     * Whether the call may be queued by transparent batching instead of being executed.
+     */
+    private static boolean isQueueable(Object h, Method method) {
+        return h instanceof PreparedStatementWrapper && method.getName().equals("executeUpdate")
+                && method.getParameterCount() == 0;
+    }
+
     private static InvocationHandler getConnectionIh(ConnectionHandle c) {
         return (proxy, method, args) -> {
             if (method.getReturnType() == Connection.class
@@ -92,6 +126,20 @@ final class Wrappers {
         };
     }
 
+    /**
+     * Statements not created through the statement cache execute any pending transparent batch first,
+     * so that the order of the updates is preserved.
+     */
+    private static InvocationHandler flushBatchIh(ConnectionHandle c, Object h) {
+        return (proxy, method, args) -> {
+            if (h instanceof Statement && !(h instanceof PreparedStatementWrapper)
+                    && method.getName().startsWith("execute")) {
+                c.flushBatch();
+            }
+            return UNHANLED;
+        };
+    }
+
     private static InvocationHandler statementIh(ConnectionHandle c, Object h) {
         return (proxy, method, args) -> {
             if (Statement.class.isAssignableFrom(method.getDeclaringClass())
@@ -104,7 +152,7 @@ final class Wrappers {
                     }
                     return UNHANLED;
                 };
-                return Wrappers.wrap(method.getReturnType(), c, ret, Arrays.asList(wrapperIh(ret), getStatementIh));
+                return Wrappers.wrap(method.getReturnType(), c, ret, null, Arrays.asList(wrapperIh(ret), getStatementIh));
             }
             return UNHANLED;
         };
@@ -15,12 +15,24 @@
  */
 package org.ops4j.pax.transx.jdbc;
 
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.sql.DataSource;
 import javax.sql.XADataSource;
 
@@ -28,6 +40,9 @@ import org.h2.jdbcx.JdbcDataSource;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
+import org.ops4j.pax.transx.jdbc.impl.SqlStatistics;
+import org.ops4j.pax.transx.jdbc.impl.StatementCacheMXBean;
+import org.ops4j.pax.transx.jdbc.impl.StatementStatisticsMXBean;
 import org.ops4j.pax.transx.tm.Transaction;
 import org.ops4j.pax.transx.tm.TransactionManager;
 import org.ops4j.pax.transx.tm.impl.geronimo.GeronimoPlatformTransactionManager;
@@ -40,9 +55,11 @@ import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.support.TransactionTemplate;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class H2Test {
@@ -241,6 +258,369 @@ public class H2Test {
         }
     }
 
+    @Test
+    public void testBatchingXaTx() throws Exception {
+        DataSource ds = wrap(createH2DataSource(), 10, 16);
+
+        Transaction tx = tm.begin();
+        try (Connection con = ds.getConnection()) {
+            try (Statement st = con.createStatement()) {
+                st.execute(DROP_USER);
+                st.execute(CREATE_TABLE_USER);
+            }
+        }
+        tx.commit();
+
+        tx = tm.begin();
+        try (Connection con = ds.getConnection()) {
+            for (int i = 0; i < 100; i++) {
+                try (PreparedStatement ps = con.prepareStatement(INSERT_INTO_USER)) {
+                    ps.setInt(1, i);
+                    ps.setString(2, "user" + i);
+                    assertEquals(Statement.SUCCESS_NO_INFO, ps.executeUpdate());
+                }
+            }
+            try (PreparedStatement ps = con.prepareStatement(COUNT_USER)) {
+                ResultSet rs = ps.executeQuery();
+                rs.next();
+                assertEquals(100, rs.getInt(1));
+            }
+            try (PreparedStatement ps = con.prepareStatement(INSERT_INTO_USER)) {
+                ps.setInt(1, 100);
+                ps.setString(2, "user100");
+                ps.executeUpdate();
+            }
+        }
+        tx.commit();
+
+        try (Connection con = ds.getConnection()) {
+            try (PreparedStatement ps = con.prepareStatement(COUNT_USER)) {
+                ResultSet rs = ps.executeQuery();
+                rs.next();
+                assertEquals(101, rs.getInt(1));
+            }
+            try (PreparedStatement ps = con.prepareStatement(DELETE_FROM_USER_BY_ID)) {
+                ps.setInt(1, 100);
+                // no transaction: not batched
+                assertEquals(1, ps.executeUpdate());
+            }
+        }
+    }
+
+    @Test
+    public void testStatementOverrideProperties() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("maxRows", "2");
+        properties.setProperty("statementOverride.0.pattern", "WHERE ID");
+        properties.setProperty("statementOverride.0.maxRows", "0");
+        properties.setProperty("statementOverride.1.pattern", "FROM USERS");
+        properties.setProperty("statementOverride.1.fetchSize", "20");
+        properties.setProperty("statementOverride.1.queryTimeout", "5");
+        DataSource ds = ManagedDataSourceBuilder.builder()
+                .transactionManager(tm)
+                .name("h2invm")
+                .dataSource(createH2DataSource())
+                .properties(properties)
+                .build();
+
+        try (Connection con = ds.getConnection()) {
+            try (Statement st = con.createStatement()) {
+                st.execute(DROP_USER);
+                st.execute(CREATE_TABLE_USER);
+            }
+            try (PreparedStatement ps = con.prepareStatement(SELECT_FROM_USER_BY_ID)) {
+                assertEquals(0, ps.getMaxRows());
+                assertEquals(0, ps.getQueryTimeout());
+            }
+            try (PreparedStatement ps = con.prepareStatement("SELECT * FROM USERS")) {
+                assertEquals(2, ps.getMaxRows());
+                assertEquals(20, ps.getFetchSize());
+                assertEquals(5, ps.getQueryTimeout());
+            }
+        }
+    }
+
+    @Test
+    public void testStatementDefaults() throws Exception {
+        DataSource ds = ManagedDataSourceBuilder.builder()
+                .transactionManager(tm)
+                .name("h2invm")
+                .dataSource(createH2DataSource())
+                .fetchSize(50)
+                .maxRows(2)
+                .statementOverride("WHERE ID", -1, 0, -1)
+                .build();
+
+        try (Connection con = ds.getConnection()) {
+            try (Statement st = con.createStatement()) {
+                assertEquals(50, st.getFetchSize());
+                assertEquals(2, st.getMaxRows());
+                st.execute(DROP_USER);
+                st.execute(CREATE_TABLE_USER);
+            }
+            try (PreparedStatement ps = con.prepareStatement(INSERT_INTO_USER)) {
+                for (int i = 0; i < 3; i++) {
+                    ps.setInt(1, i);
+                    ps.setString(2, "user" + i);
+                    ps.executeUpdate();
+                }
+            }
+            try (PreparedStatement ps = con.prepareStatement("SELECT * FROM USERS")) {
+                ResultSet rs = ps.executeQuery();
+                int nb = 0;
+                while (rs.next()) {
+                    nb++;
+                }
+                assertEquals(2, nb);
+            }
+            try (PreparedStatement ps = con.prepareStatement(SELECT_FROM_USER_BY_ID)) {
+                assertEquals(50, ps.getFetchSize());
+                assertEquals(0, ps.getMaxRows());
+            }
+        }
+    }
+
+    @Test
+    public void testLazyEnlistmentXaTx() throws Exception {
+        DataSource ds = ManagedDataSourceBuilder.builder()
+                .transactionManager(tm)
+                .name("h2lazy")
+                .dataSource(createH2DataSource())
+                .maxPoolSize(1)
+                .lazyEnlistment(true)
+                .build();
+
+        try (Connection con = ds.getConnection()) {
+            try (Statement st = con.createStatement()) {
+                st.execute(DROP_USER);
+                st.execute(CREATE_TABLE_USER);
+            }
+        }
+
+        Transaction tx = tm.begin();
+        try (Connection con = ds.getConnection()) {
+            // never used, so never enlisted
+        }
+        try (Connection con = ds.getConnection()) {
+            try (PreparedStatement ps = con.prepareStatement(INSERT_INTO_USER)) {
+                ps.setInt(1, 1);
+                ps.setString(2, "user1");
+                ps.executeUpdate();
+            }
+        }
+        tx.rollback();
+
+        try (Connection con = ds.getConnection()) {
+            try (Statement st = con.createStatement()) {
+                ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM USERS");
+                rs.next();
+                assertEquals(0, rs.getInt(1));
+            }
+        }
+    }
+
+    @Test
+    public void testLazyEnlistmentSharedHandles() throws Exception {
+        DataSource ds = createLazyDataSource("h2lazyshared");
+
+        Transaction tx = tm.begin();
+        Connection con1 = ds.getConnection();
+        try (Connection con2 = ds.getConnection()) {
+            // closing an unused handle must not release the connection of the other one
+            con1.close();
+            try (PreparedStatement ps = con2.prepareStatement(INSERT_INTO_USER)) {
+                ps.setInt(1, 1);
+                ps.setString(2, "user1");
+                ps.executeUpdate();
+            }
+        }
+        tx.rollback();
+
+        assertEquals(0, countUsers(ds));
+    }
+
+    @Test
+    public void testLazyEnlistmentSuspendedTx() throws Exception {
+        DataSource ds = createLazyDataSource("h2lazysuspended");
+
+        Transaction tx = tm.begin();
+        try (Connection con = ds.getConnection()) {
+            tx.suspend();
+            try (PreparedStatement ps = con.prepareStatement(INSERT_INTO_USER)) {
+                ps.setInt(1, 1);
+                ps.setString(2, "user1");
+                ps.executeUpdate();
+                fail("Expected an SQLException");
+            } catch (SQLException e) {
+                // expected, the connection can not be used outside of its transaction
+            }
+            tx.resume();
+        }
+        tx.rollback();
+
+        assertEquals(0, countUsers(ds));
+    }
+
+    private DataSource createLazyDataSource(String name) throws Exception {
+        DataSource ds = ManagedDataSourceBuilder.builder()
+                .transactionManager(tm)
+                .name(name)
+                .dataSource(createH2DataSource())
+                .maxPoolSize(1)
+                .lazyEnlistment(true)
+                .build();
+        try (Connection con = ds.getConnection()) {
+            try (Statement st = con.createStatement()) {
+                st.execute(DROP_USER);
+                st.execute(CREATE_TABLE_USER);
+            }
+        }
+        return ds;
+    }
+
+    private int countUsers(DataSource ds) throws SQLException {
+        try (Connection con = ds.getConnection()) {
+            try (Statement st = con.createStatement()) {
+                ResultSet rs = st.executeQuery(COUNT_USER);
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    @Test
+    public void testStatementStatistics() throws Exception {
+        DataSource ds = ManagedDataSourceBuilder.builder()
+                .transactionManager(tm)
+                .name("h2stats")
+                .dataSource(createH2DataSource())
+                .statementStatistics(true)
+                .build();
+
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        Set<ObjectName> names = mbs.queryNames(new ObjectName("org.ops4j.pax.transx:type=StatementStatistics,*"), null);
+        ObjectName name = names.stream()
+                .filter(n -> n.getKeyProperty("name").endsWith("-h2stats"))
+                .findFirst().orElseThrow(AssertionError::new);
+        StatementStatisticsMXBean stats = JMX.newMXBeanProxy(mbs, name, StatementStatisticsMXBean.class);
+
+        try (Connection con = ds.getConnection()) {
+            try (Statement st = con.createStatement()) {
+                st.execute(DROP_USER);
+                st.execute(CREATE_TABLE_USER);
+            }
+            for (int i = 0; i < 3; i++) {
+                try (PreparedStatement ps = con.prepareStatement(INSERT_INTO_USER)) {
+                    ps.setInt(1, i);
+                    ps.setString(2, "user" + i);
+                    ps.executeUpdate();
+                }
+            }
+        }
+
+        SqlStatistics insert = stats.getStatistics().stream()
+                .filter(s -> INSERT_INTO_USER.equals(s.getSql()))
+                .findFirst().orElseThrow(AssertionError::new);
+        assertEquals(3, insert.getCount());
+        assertEquals(0, stats.getSlowStatementCount());
+
+        stats.reset();
+        assertEquals(0, stats.getStatistics().size());
+    }
+
+    @Test
+    public void testStatementStatisticsWithBatching() throws Exception {
+        DataSource ds = ManagedDataSourceBuilder.builder()
+                .transactionManager(tm)
+                .name("h2batchstats")
+                .dataSource(createH2DataSource())
+                .preparedStatementCacheSize(10)
+                .batchSize(16)
+                .statementStatistics(true)
+                .build();
+
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        Set<ObjectName> names = mbs.queryNames(new ObjectName("org.ops4j.pax.transx:type=StatementStatistics,*"), null);
+        ObjectName name = names.stream()
+                .filter(n -> n.getKeyProperty("name").endsWith("-h2batchstats"))
+                .findFirst().orElseThrow(AssertionError::new);
+        StatementStatisticsMXBean stats = JMX.newMXBeanProxy(mbs, name, StatementStatisticsMXBean.class);
+
+        try (Connection con = ds.getConnection()) {
+            try (Statement st = con.createStatement()) {
+                st.execute(DROP_USER);
+                st.execute(CREATE_TABLE_USER);
+            }
+        }
+
+        Transaction tx = tm.begin();
+        try (Connection con = ds.getConnection()) {
+            for (int i = 0; i < 20; i++) {
+                try (PreparedStatement ps = con.prepareStatement(INSERT_INTO_USER)) {
+                    ps.setInt(1, i);
+                    ps.setString(2, "user" + i);
+                    assertEquals(Statement.SUCCESS_NO_INFO, ps.executeUpdate());
+                }
+            }
+            try (PreparedStatement ps = con.prepareStatement(COUNT_USER)) {
+                ResultSet rs = ps.executeQuery();
+                rs.next();
+                assertEquals(20, rs.getInt(1));
+            }
+        }
+        tx.commit();
+
+        // one execution per batch: a full one, then the remaining updates flushed by the query
+        SqlStatistics insert = stats.getStatistics().stream()
+                .filter(s -> INSERT_INTO_USER.equals(s.getSql()))
+                .findFirst().orElseThrow(AssertionError::new);
+        assertEquals(2, insert.getCount());
+        SqlStatistics count = stats.getStatistics().stream()
+                .filter(s -> COUNT_USER.equals(s.getSql()))
+                .findFirst().orElseThrow(AssertionError::new);
+        assertEquals(1, count.getCount());
+    }
+
+    @Test
+    public void testStatementCacheStatistics() throws Exception {
+        DataSource ds = ManagedDataSourceBuilder.builder()
+                .transactionManager(tm)
+                .name("h2cache")
+                .dataSource(createH2DataSource())
+                .preparedStatementCacheSize(1)
+                .build();
+
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        Set<ObjectName> names = mbs.queryNames(new ObjectName("org.ops4j.pax.transx:type=StatementCache,*"), null);
+        ObjectName name = names.stream()
+                .filter(n -> n.getKeyProperty("name").endsWith("-h2cache"))
+                .findFirst().orElseThrow(AssertionError::new);
+        StatementCacheMXBean cache = JMX.newMXBeanProxy(mbs, name, StatementCacheMXBean.class);
+
+        try (Connection con = ds.getConnection()) {
+            try (Statement st = con.createStatement()) {
+                st.execute(DROP_USER);
+                st.execute(CREATE_TABLE_USER);
+            }
+            for (int i = 0; i < 3; i++) {
+                try (PreparedStatement ps = con.prepareStatement(INSERT_INTO_USER)) {
+                    ps.setInt(1, i);
+                    ps.setString(2, "user" + i);
+                    ps.executeUpdate();
+                }
+            }
+            try (PreparedStatement ps = con.prepareStatement(SELECT_FROM_USER_BY_ID)) {
+                ps.setInt(1, 0);
+                ps.executeQuery().close();
+            }
+        }
+
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(1, cache.getEvictions());
+        assertEquals(1, cache.getSize());
+    }
+
     @Test
     @Ignore
     public void testBenchPreparedStatement() throws Exception {
@@ -293,17 +673,80 @@ public class H2Test {
         }
     }
 
+    @Test
+    public void testAutoCommitCache() throws Exception {
+        CountingDataSource counting = new CountingDataSource((DataSource) createH2DataSource());
+        DataSource ds = ManagedDataSourceBuilder.builder()
+                .transactionManager(tm)
+                .name("h2invm")
+                .dataSource(counting.proxy())
+                .maxPoolSize(1)
+                .build();
+
+        try (Connection con = ds.getConnection()) {
+            con.setAutoCommit(false);
+            int calls = counting.getAutoCommitCalls.get();
+            assertFalse(con.getAutoCommit());
+            con.setAutoCommit(true);
+            assertTrue(con.getAutoCommit());
+            con.setAutoCommit(false);
+            assertFalse(con.getAutoCommit());
+            assertEquals(calls, counting.getAutoCommitCalls.get());
+        }
+
+        // the cleanup restored autoCommit on the physical connection and in the cache
+        try (Connection con = ds.getConnection()) {
+            int calls = counting.getAutoCommitCalls.get();
+            assertTrue(con.getAutoCommit());
+            assertEquals(calls, counting.getAutoCommitCalls.get());
+            assertTrue(counting.physical.getAutoCommit());
+        }
+    }
+
+    @Test
+    public void testAutoCommitCacheAfterFailedCommit() throws Exception {
+        CountingDataSource counting = new CountingDataSource((DataSource) createH2DataSource());
+        DataSource ds = ManagedDataSourceBuilder.builder()
+                .transactionManager(tm)
+                .name("h2invm")
+                .dataSource(counting.proxy())
+                .build();
+
+        try (Connection con = ds.getConnection()) {
+            con.setAutoCommit(false);
+            counting.failSetAutoCommit = true;
+            try {
+                con.commit();
+                fail("Expected a SQLException");
+            } catch (SQLException e) {
+                // expected
+            }
+            counting.failSetAutoCommit = false;
+
+            // the state is unknown after the failure, so it is read again from the driver, once
+            int calls = counting.getAutoCommitCalls.get();
+            assertFalse(con.getAutoCommit());
+            assertFalse(con.getAutoCommit());
+            assertEquals(calls + 1, counting.getAutoCommitCalls.get());
+        }
+    }
+
 
     private DataSource wrap(XADataSource xaDs) throws Exception {
         return wrap(xaDs, 0);
     }
 
     private DataSource wrap(XADataSource xaDs, int psCacheSize) throws Exception {
+        return wrap(xaDs, psCacheSize, 0);
+    }
+
+    private DataSource wrap(XADataSource xaDs, int psCacheSize, int batchSize) throws Exception {
         return ManagedDataSourceBuilder.builder()
                 .transactionManager(tm)
                 .name("h2invm")
                 .dataSource(xaDs)
                 .preparedStatementCacheSize(psCacheSize)
+                .batchSize(batchSize)
                 .build();
     }
 
@@ -314,4 +757,50 @@ public class H2Test {
         ds.setPassword("");
         return ds;
     }
+
+    /**
+     * Data source counting the calls to getAutoCommit on its connections, and failing
+     * setAutoCommit on demand.
+     */
+    static class CountingDataSource implements InvocationHandler {
+
+        final DataSource delegate;
+        final AtomicInteger getAutoCommitCalls = new AtomicInteger();
+        volatile boolean failSetAutoCommit;
+        volatile Connection physical;
+
+        CountingDataSource(DataSource delegate) {
+            this.delegate = delegate;
+        }
+
+        DataSource proxy() {
+            return (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { DataSource.class }, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result = invoke(delegate, method, args);
+            if (result instanceof Connection) {
+                Connection connection = (Connection) result;
+                physical = connection;
+                return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class }, (p, m, a) -> {
+                    if ("getAutoCommit".equals(m.getName())) {
+                        getAutoCommitCalls.incrementAndGet();
+                    } else if ("setAutoCommit".equals(m.getName()) && failSetAutoCommit) {
+                        throw new SQLException("setAutoCommit failed");
+                    }
+                    return invoke(connection, m, a);
+                });
+            }
+            return result;
+        }
+
+        private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
 }
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.jms;
+
+import java.util.Collection;
+import javax.jms.Destination;
+import javax.jms.JMSProducer;
+
+/**
+ * Producer able to send several messages at once. The producers created by the contexts of
+ * the managed connection factories built by {@link ManagedConnectionFactoryBuilder} implement
+ * this interface.
+ */
+public interface BatchJMSProducer extends JMSProducer {
+
+    /**
+     * Send a batch of messages or message bodies to a destination, and commit the context
+     * once if it is transacted and not in an XA transaction.
+     *
+     * The producer settings are applied once for the batch. Bodies are sent as the
+     * corresponding send methods would, but a single message per body type carries the
+     * headers and properties of this producer and is reused for all the bodies of that
+     * type, unless sends are asynchronous. If a send fails, the transaction is left for
+     * the caller to roll back.
+     *
+     * @param destination the destination
+     * @param batch messages, or bodies of type String, byte[], Map or Serializable
+     * @return this producer
+     */
+    JMSProducer sendBatch(Destination destination, Collection<?> batch);
+
+}
@@ -40,6 +40,11 @@ public class ManagedConnectionFactoryBuilder {
     private String userName;
     private String password;
     private String clientID;
+    private int sharedConnections;
+    private int producerCacheSize;
+    private int consumerCacheSize;
+    private int asyncSendWindow = ManagedConnectionFactoryImpl.DEFAULT_ASYNC_SEND_WINDOW;
+    private long asyncSendTimeout = ManagedConnectionFactoryImpl.DEFAULT_ASYNC_SEND_TIMEOUT;
     private ManagedConnectionFactory managedConnectionFactory;
 
     private ManagedConnectionFactoryBuilder() {
@@ -75,6 +80,55 @@ public class ManagedConnectionFactoryBuilder {
         return this;
     }
 
+    /**
+     * Create the pooled sessions on at most this number of physical connections per user,
+     * instead of a physical connection per pooled session. Shared connections are started
+     * once and never stopped, as other sessions may be consuming from them.
+     */
+    public ManagedConnectionFactoryBuilder sharedConnections(int sharedConnections) {
+        this.sharedConnections = sharedConnections;
+        return this;
+    }
+
+    /**
+     * Keep up to this number of idle producers per pooled session, keyed by destination, so
+     * that closing a producer and creating it again does not go to the broker.
+     */
+    public ManagedConnectionFactoryBuilder producerCacheSize(int producerCacheSize) {
+        this.producerCacheSize = producerCacheSize;
+        return this;
+    }
+
+    /**
+     * Keep up to this number of idle consumers per pooled session, keyed by destination,
+     * selector and noLocal flag. An idle consumer may still hold messages prefetched by the
+     * broker, which are only delivered when it is reused. It can not be used along with
+     * {@link #sharedConnections(int)}, as shared connections are never stopped and idle
+     * consumers would keep receiving messages.
+     */
+    public ManagedConnectionFactoryBuilder consumerCacheSize(int consumerCacheSize) {
+        this.consumerCacheSize = consumerCacheSize;
+        return this;
+    }
+
+    /**
+     * Allow up to this number of asynchronous sends waiting for their completion per pooled
+     * session, further sends blocking until one completes. Sends with a completion listener
+     * are synchronous within XA transactions, or if 0.
+     */
+    public ManagedConnectionFactoryBuilder asyncSendWindow(int asyncSendWindow) {
+        this.asyncSendWindow = asyncSendWindow;
+        return this;
+    }
+
+    /**
+     * Fail an asynchronous send if the window stays full for this number of milliseconds.
+     */
+    public ManagedConnectionFactoryBuilder asyncSendTimeout(long asyncSendTimeout) {
+        this.asyncSendTimeout = asyncSendTimeout;
+        return this;
+    }
+
     public ManagedConnectionFactoryBuilder exceptionSorter(ExceptionSorter exceptionSorter) {
         this.exceptionSorter = exceptionSorter;
         return this;
@@ -150,6 +204,23 @@ public class ManagedConnectionFactoryBuilder {
         return this;
     }
 
+    /**
+     * Only enlist a connection in the transaction when it is first used.
+     */
+    public ManagedConnectionFactoryBuilder lazyEnlistment(boolean lazyEnlistment) {
+        builder.lazyEnlistment(lazyEnlistment);
+        return this;
+    }
+
+    /**
+     * Return a connection to the pool when its XA association ends and complete
+     * the transaction on a dedicated connection.
+     */
+    public ManagedConnectionFactoryBuilder releaseOnXaEnd(boolean releaseOnXaEnd) {
+        builder.releaseOnXaEnd(releaseOnXaEnd);
+        return this;
+    }
+
     /**
      * Configure with whitelisted set of properties
      * @param properties
@@ -191,6 +262,26 @@ public class ManagedConnectionFactoryBuilder {
         if (clientID != null) {
             this.clientID(clientID.toString());
         }
+        Object sharedConnections = property.apply("sharedConnections");
+        if (sharedConnections != null) {
+            this.sharedConnections(toInt(sharedConnections, "sharedConnections"));
+        }
+        Object producerCacheSize = property.apply("producerCacheSize");
+        if (producerCacheSize != null) {
+            this.producerCacheSize(toInt(producerCacheSize, "producerCacheSize"));
+        }
+        Object consumerCacheSize = property.apply("consumerCacheSize");
+        if (consumerCacheSize != null) {
+            this.consumerCacheSize(toInt(consumerCacheSize, "consumerCacheSize"));
+        }
+        Object asyncSendWindow = property.apply("asyncSendWindow");
+        if (asyncSendWindow != null) {
+            this.asyncSendWindow(toInt(asyncSendWindow, "asyncSendWindow"));
+        }
+        Object asyncSendTimeout = property.apply("asyncSendTimeout");
+        if (asyncSendTimeout != null) {
+            this.asyncSendTimeout(toInt(asyncSendTimeout, "asyncSendTimeout"));
+        }
         // TODO: exception sorter
 //        Object exceptionSorter = property.apply("exceptionSorter");
         Object minIdle = property.apply("minIdle");
@@ -221,6 +312,14 @@ public class ManagedConnectionFactoryBuilder {
         if (maxLifetime != null) {
             this.maxLifetime(toInt(maxLifetime, "maxLifetime"));
         }
+        Object lazyEnlistment = property.apply("lazyEnlistment");
+        if (lazyEnlistment != null) {
+            this.lazyEnlistment("true".equalsIgnoreCase(lazyEnlistment.toString()));
+        }
+        Object releaseOnXaEnd = property.apply("releaseOnXaEnd");
+        if (releaseOnXaEnd != null) {
+            this.releaseOnXaEnd("true".equalsIgnoreCase(releaseOnXaEnd.toString()));
+        }
     }
 
     private int toInt(Object v, String property) {
@@ -235,12 +334,20 @@ public class ManagedConnectionFactoryBuilder {
         if (connectionFactory == null && xaConnectionFactory == null) {
             throw new NullPointerException("connectionFactory must be set");
         }
+        if (consumerCacheSize > 0 && sharedConnections > 0) {
+            throw new IllegalArgumentException("consumerCacheSize can not be used with sharedConnections");
+        }
         if (managedConnectionFactory == null) {
             ExceptionSorter es = exceptionSorter != null ? exceptionSorter : new NoExceptionsAreFatalSorter();
             ManagedConnectionFactoryImpl mcf = new ManagedConnectionFactoryImpl(connectionFactory, xaConnectionFactory, es);
             mcf.setUserName(userName);
             mcf.setPassword(password);
             mcf.setClientID(clientID);
+            mcf.setSharedConnections(sharedConnections);
+            mcf.setProducerCacheSize(producerCacheSize);
+            mcf.setConsumerCacheSize(consumerCacheSize);
+            mcf.setAsyncSendWindow(asyncSendWindow);
+            mcf.setAsyncSendTimeout(asyncSendTimeout);
             managedConnectionFactory = mcf;
         }
         builder.managedConnectionFactory(managedConnectionFactory);
@@ -465,6 +465,17 @@ public class JMSContextImpl implements JMSContext {
 
     //----- Internal implementation methods ----------------------------------//
 
+    /**
+     * Whether the context is transacted and its transaction is not part of an XA transaction.
+     */
+    boolean isLocallyTransacted() {
+        if (!getTransacted()) {
+            return false;
+        }
+        Session s = getSession();
+        return !(s instanceof SessionImpl && ((SessionImpl) s).isInXaTransaction());
+    }
+
     private <T> T startIfNeeded(T consumer) throws JMSException {
         if (getAutoStart()) {
             connection.start();
@@ -16,10 +16,12 @@
 package org.ops4j.pax.transx.jms.impl;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Supplier;
 import javax.jms.BytesMessage;
 import javax.jms.CompletionListener;
 import javax.jms.DeliveryMode;
@@ -34,7 +36,9 @@ import javax.jms.MessageProducer;
 import javax.jms.ObjectMessage;
 import javax.jms.TextMessage;
 
-public final class JMSProducerImpl implements JMSProducer {
+import org.ops4j.pax.transx.jms.BatchJMSProducer;
+
+public final class JMSProducerImpl implements BatchJMSProducer {
 
     private final JMSContextImpl context;
     private final MessageProducer producer;
@@ -121,10 +125,78 @@ public final class JMSProducerImpl implements JMSProducer {
         return this;
     }
 
+    @Override
+    public JMSProducer sendBatch(Destination destination, Collection<?> batch) {
+        try {
+            applySettings();
+            Map<Class<?>, Message> templates = completionListener == null ? new HashMap<>() : null;
+            for (Object item : batch) {
+                Message message;
+                if (item instanceof Message) {
+                    message = (Message) item;
+                    applyHeaders(message);
+                } else {
+                    message = toMessage(item, templates);
+                }
+                send(destination, message);
+            }
+            if (context.isLocallyTransacted()) {
+                context.commit();
+            }
+        } catch (JMSException jmse) {
+            throw Utils.convertToRuntimeException(jmse);
+        }
+        return this;
+    }
+
+    private Message toMessage(Object body, Map<Class<?>, Message> templates) throws JMSException {
+        if (body instanceof String) {
+            TextMessage message = template(TextMessage.class, templates, context::createTextMessage);
+            message.setText((String) body);
+            return message;
+        } else if (body instanceof byte[]) {
+            BytesMessage message = template(BytesMessage.class, templates, context::createBytesMessage);
+            message.clearBody();
+            message.writeBytes((byte[]) body);
+            return message;
+        } else if (body instanceof Map) {
+            MapMessage message = template(MapMessage.class, templates, context::createMapMessage);
+            message.clearBody();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) body).entrySet()) {
+                message.setObject(entry.getKey().toString(), entry.getValue());
+            }
+            return message;
+        } else if (body instanceof Serializable) {
+            ObjectMessage message = template(ObjectMessage.class, templates, context::createObjectMessage);
+            message.setObject((Serializable) body);
+            return message;
+        } else {
+            throw new MessageFormatException("Unsupported message body: " + (body != null ? body.getClass().getName() : null));
+        }
+    }
+
+    private <T extends Message> T template(Class<T> type, Map<Class<?>, Message> templates, Supplier<T> factory) throws JMSException {
+        Message message = templates != null ? templates.get(type) : null;
+        if (message == null) {
+            message = factory.get();
+            applyHeaders(message);
+            if (templates != null) {
+                templates.put(type, message);
+            }
+        }
+        return type.cast(message);
+    }
+
     private void doSend(Destination destination, Message message) throws JMSException {
         if (message == null) {
             throw new MessageFormatException("Message must not be null");
         }
+        applyHeaders(message);
+        applySettings();
+        send(destination, message);
+    }
+
+    private void applyHeaders(Message message) throws JMSException {
         for (Map.Entry<String, Object> entry : messageProperties.entrySet()) {
             message.setObjectProperty(entry.getKey(), entry.getValue());
         }
@@ -140,21 +212,24 @@ public final class JMSProducerImpl implements JMSProducer {
         if (replyTo != null) {
             message.setJMSReplyTo(replyTo);
         }
+    }
+
+    private void applySettings() throws JMSException {
         producer.setDeliveryMode(deliveryMode);
         producer.setPriority(priority);
         producer.setTimeToLive(timeToLive);
         producer.setDisableMessageID(disableMessageId);
         producer.setDisableMessageTimestamp(disableTimestamp);
         // producer.setDeliveryDelay(deliveryDelay);
-        try {
+    }
+
+    private void send(Destination destination, Message message) throws JMSException {
+        CompletionListener listener = completionListener;
+        if (listener != null) {
+            // asynchronous outside of XA transactions, see SessionImpl
+            producer.send(destination, message, listener);
+        } else {
             producer.send(destination, message);
-            if (completionListener != null) {
-                completionListener.onCompletion(message);
-            }
-        } catch (Exception e) {
-            if (completionListener != null) {
-                completionListener.onException(message, e);
-            }
         }
     }
 
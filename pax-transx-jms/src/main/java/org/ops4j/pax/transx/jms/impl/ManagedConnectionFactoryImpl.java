@@ -31,9 +31,18 @@ import org.ops4j.pax.transx.connection.utils.AbstractManagedConnectionFactory;
 public class ManagedConnectionFactoryImpl
         extends AbstractManagedConnectionFactory<ManagedConnectionFactoryImpl, ManagedConnectionImpl, Session, SessionImpl> {
 
+    public static final int DEFAULT_ASYNC_SEND_WINDOW = 256;
+    public static final long DEFAULT_ASYNC_SEND_TIMEOUT = 30000;
+
     private final XAConnectionFactory xaConnectionFactory;
     private final ConnectionFactory connectionFactory;
     private String clientID;
+    private int sharedConnections;
+    private int producerCacheSize;
+    private int consumerCacheSize;
+    private int asyncSendWindow = DEFAULT_ASYNC_SEND_WINDOW;
+    private long asyncSendTimeout = DEFAULT_ASYNC_SEND_TIMEOUT;
+    private volatile SharedConnections connections;
 
     public ManagedConnectionFactoryImpl(ConnectionFactory connectionFactory, XAConnectionFactory xaConnectionFactory, ExceptionSorter exceptionSorter) {
         assert exceptionSorter != null;
@@ -68,8 +77,73 @@ public class ManagedConnectionFactoryImpl
         this.clientID = clientID;
     }
 
+    public int getSharedConnections() {
+        return sharedConnections;
+    }
+
+    /**
+     * Share this number of physical connections between all the managed connections, or
+     * create a physical connection for each managed connection if 0.
+     */
+    public void setSharedConnections(int sharedConnections) {
+        this.sharedConnections = sharedConnections;
+        this.connections = sharedConnections > 0 ? new SharedConnections(this, sharedConnections) : null;
+    }
+
+    SharedConnections getSharedConnectionsPool() {
+        return connections;
+    }
+
+    public int getProducerCacheSize() {
+        return producerCacheSize;
+    }
+
+    /**
+     * Keep up to this number of idle producers per managed connection, 0 to disable caching.
+     */
+    public void setProducerCacheSize(int producerCacheSize) {
+        this.producerCacheSize = producerCacheSize;
+    }
+
+    public int getConsumerCacheSize() {
+        return consumerCacheSize;
+    }
+
+    /**
+     * Keep up to this number of idle consumers per managed connection, 0 to disable caching.
+     * Consumers are not cached on shared connections, which are never stopped.
+     */
+    public void setConsumerCacheSize(int consumerCacheSize) {
+        this.consumerCacheSize = consumerCacheSize;
+    }
+
+    public int getAsyncSendWindow() {
+        return asyncSendWindow;
+    }
+
+    /**
+     * Allow up to this number of asynchronous sends waiting for their completion per managed
+     * connection, further sends blocking until one completes, or send synchronously if 0.
+     */
+    public void setAsyncSendWindow(int asyncSendWindow) {
+        this.asyncSendWindow = asyncSendWindow;
+    }
+
+    public long getAsyncSendTimeout() {
+        return asyncSendTimeout;
+    }
+
+    /**
+     * Wait up to this number of milliseconds for a previous asynchronous send to complete
+     * when the window is full, before failing the send.
+     */
+    public void setAsyncSendTimeout(long asyncSendTimeout) {
+        this.asyncSendTimeout = asyncSendTimeout;
+    }
+
     @Override
     public Object createConnectionFactory(ConnectionManager cm) throws ResourceException {
+        setConnectionManager(cm);
         return new TransxConnectionFactory(this, cm);
     }
 
@@ -15,9 +15,13 @@
  */
 package org.ops4j.pax.transx.jms.impl;
 
+import java.util.concurrent.Semaphore;
 import javax.jms.Connection;
 import javax.jms.ConnectionMetaData;
+import javax.jms.ExceptionListener;
 import javax.jms.JMSException;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
 import javax.jms.Session;
 import javax.jms.XAConnection;
 import javax.jms.XASession;
@@ -32,14 +36,27 @@ import org.ops4j.pax.transx.connection.utils.CredentialExtractor;
 
 import static org.ops4j.pax.transx.jms.impl.Utils.trace;
 
+/**
+ * Managed JMS connection. In XA mode, only the XA session is created upfront, and the
+ * session used outside of XA transactions is created the first time it is needed, on the
+ * same physical connection.
+ */
 public class ManagedConnectionImpl extends AbstractManagedConnection<ManagedConnectionFactoryImpl, ManagedConnectionImpl, Session, SessionImpl> implements ManagedConnection {
 
     private final XAConnection xaConnection;
     private final XASession xaSession;
     private final Session xaSessionSession;
     private final Connection connection;
-    private final Session session;
     private final boolean xaSupport;
+    private final boolean transacted;
+    private final SharedConnections.SharedConnection sharedConnection;
+    private final ExceptionListener sharedConnectionListener = this::unfilteredConnectionError;
+    private final SessionObjectCache<MessageProducer> producerCache;
+    private final SessionObjectCache<MessageConsumer> consumerCache;
+    private final Semaphore asyncSendWindow;
+    private final long asyncSendTimeout;
+    private volatile boolean asyncSendSupported = true;
+    private Session session;
 
     public ManagedConnectionImpl(ManagedConnectionFactoryImpl mcf,
                                  Subject subject,
@@ -48,27 +65,39 @@ public class ManagedConnectionImpl extends AbstractManagedConnection<ManagedConn
         super(mcf, new CredentialExtractor(subject, cri, mcf), exceptionSorter);
         this.cri = cri;
         this.xaSupport = mcf.getXaConnectionFactory() != null;
+        this.transacted = cri != null && cri.isTransacted();
+        this.producerCache = mcf.getProducerCacheSize() > 0 ? new SessionObjectCache<>(mcf.getProducerCacheSize()) : null;
+        this.consumerCache = mcf.getConsumerCacheSize() > 0 && mcf.getSharedConnectionsPool() == null
+                ? new SessionObjectCache<>(mcf.getConsumerCacheSize()) : null;
+        this.asyncSendWindow = mcf.getAsyncSendWindow() > 0 ? new Semaphore(mcf.getAsyncSendWindow()) : null;
+        this.asyncSendTimeout = mcf.getAsyncSendTimeout();
         try {
-            boolean transacted = cri != null && cri.isTransacted();
-            int acknowledgeMode = Session.AUTO_ACKNOWLEDGE;
             String userName = credentialExtractor.getUserName();
             String password = credentialExtractor.getPassword();
-            if (userName != null && password != null) {
+            SharedConnections sharedConnections = mcf.getSharedConnectionsPool();
+            if (sharedConnections != null) {
+                sharedConnection = sharedConnections.acquire(userName, password, sharedConnectionListener);
+                connection = sharedConnection.getConnection();
+                xaConnection = xaSupport ? (XAConnection) connection : null;
+            } else if (userName != null && password != null) {
+                sharedConnection = null;
                 xaConnection = xaSupport ? mcf.getXaConnectionFactory().createXAConnection(userName, password) : null;
                 connection = xaSupport ? xaConnection : mcf.getConnectionFactory().createConnection(userName, password);
             } else {
+                sharedConnection = null;
                 xaConnection = xaSupport ? mcf.getXaConnectionFactory().createXAConnection() : null;
                 connection = xaSupport ? xaConnection : mcf.getConnectionFactory().createConnection();
             }
-            connection.setExceptionListener(this::onException);
-            session = connection.createSession(transacted, acknowledgeMode);
+            if (sharedConnection == null) {
+                connection.setExceptionListener(this::onException);
+            }
             if (xaSupport) {
-                xaConnection.setExceptionListener(this::onException);
                 xaSession = xaConnection.createXASession();
 
                 xaSessionSession = xaSession.getSession();
                 xaResource = xaSession.getXAResource();
             } else {
+                session = connection.createSession(transacted, Session.AUTO_ACKNOWLEDGE);
                 xaSession = null;
                 xaSessionSession = null;
                 xaResource = null;
@@ -84,51 +113,107 @@ public class ManagedConnectionImpl extends AbstractManagedConnection<ManagedConn
     }
 
     private Session getSession() {
+        if (inXaTransaction) {
+            return xaSessionSession;
+        }
+        synchronized (this) {
+            if (session == null) {
+                try {
+                    session = connection.createSession(transacted, Session.AUTO_ACKNOWLEDGE);
+                } catch (JMSException e) {
+                    throw Utils.convertToRuntimeException(e);
+                }
+            }
+            return session;
+        }
+    }
+
+    /**
+     * The session currently in use, without creating it.
+     */
+    private synchronized Session getCurrentSession() {
         return inXaTransaction ? xaSessionSession : session;
     }
 
+    SessionObjectCache<MessageProducer> getProducerCache() {
+        return producerCache;
+    }
+
+    SessionObjectCache<MessageConsumer> getConsumerCache() {
+        return consumerCache;
+    }
+
+    boolean isInXaTransaction() {
+        return inXaTransaction;
+    }
+
+    /**
+     * The permits of the asynchronous sends, or <code>null</code> if the sends are synchronous.
+     */
+    Semaphore getAsyncSendWindow() {
+        return asyncSendSupported ? asyncSendWindow : null;
+    }
+
+    long getAsyncSendTimeout() {
+        return asyncSendTimeout;
+    }
+
+    void asyncSendUnsupported() {
+        asyncSendSupported = false;
+    }
+
     ConnectionMetaData getConnectionMetaData() throws JMSException {
         return connection.getMetaData();
     }
 
     private void onException(final JMSException exception) {
         safe(() -> connection.setExceptionListener(null), "Unable to unset exception listener");
-        safe(() -> {
-            if (xaSupport) {
-                xaConnection.setExceptionListener(null);
-            }
-        }, "Unable to unset exception listener");
         unfilteredConnectionError(exception);
     }
 
     void start() throws JMSException {
-        if (xaConnection != null) {
-            xaConnection.start();
-        }
-        if (connection != null) {
-            connection.start();
-        }
+        connection.start();
     }
 
     void stop() throws JMSException {
-        if (xaConnection != null) {
-            xaConnection.stop();
-        }
-        if (connection != null) {
-            connection.stop();
+        if (sharedConnection != null) {
+            // other sessions may be consuming from the shared connection
+            return;
         }
+        connection.stop();
     }
 
     @Override
     protected void closePhysicalConnection() throws ResourceException {
-        try {
+        if (producerCache != null) {
+            producerCache.clear();
+        }
+        if (consumerCache != null) {
+            consumerCache.clear();
+        }
+        if (sharedConnection != null) {
             try {
-                connection.close();
-            } finally {
-                if (xaConnection != null) {
-                    xaConnection.close();
+                try {
+                    Session s;
+                    synchronized (this) {
+                        s = session;
+                    }
+                    if (s != null) {
+                        s.close();
+                    }
+                    if (xaSupport) {
+                        xaSession.close();
+                    }
+                } finally {
+                    mcf.getSharedConnectionsPool().release(sharedConnection, sharedConnectionListener);
                 }
+            } catch (JMSException e) {
+                throw new ResourceException("Could not properly close the connection", e);
             }
+            return;
+        }
+        try {
+            connection.close();
         } catch (JMSException e) {
             throw new ResourceException("Could not properly close the connection", e);
         }
@@ -138,19 +223,22 @@ public class ManagedConnectionImpl extends AbstractManagedConnection<ManagedConn
     public void cleanup() throws ResourceException {
         super.cleanup();
 
-        safe(connection::stop, "Error stopping connection");
-        safe(() -> {
-            if (xaSupport) {
-                xaConnection.stop();
-            }
-        }, "Error stopping xaConnection");
+        if (sharedConnection == null) {
+            safe(connection::stop, "Error stopping connection");
+        }
 
         inXaTransaction = false;
     }
 
     protected boolean isValid() {
         try {
-            session.createMessage();
+            Session s;
+            synchronized (this) {
+                s = session;
+            }
+            if (s != null) {
+                s.createMessage();
+            }
             connection.getMetaData();
             if (xaSupport) {
                 xaSession.createMessage();
@@ -171,8 +259,9 @@ public class ManagedConnectionImpl extends AbstractManagedConnection<ManagedConn
             @Override
             public void commit() throws ResourceException {
                 try {
-                    if (getSession().getTransacted()) {
-                        getSession().commit();
+                    Session s = getCurrentSession();
+                    if (s != null && s.getTransacted()) {
+                        s.commit();
                     }
                 } catch (JMSException e) {
                     throw new ResourceException("Could not commit LocalTransaction", e);
@@ -182,8 +271,9 @@ public class ManagedConnectionImpl extends AbstractManagedConnection<ManagedConn
             @Override
             public void rollback() throws ResourceException {
                 try {
-                    if (getSession().getTransacted()) {
-                        getSession().rollback();
+                    Session s = getCurrentSession();
+                    if (s != null && s.getTransacted()) {
+                        s.rollback();
                     }
                 } catch (JMSException ex) {
                     throw new ResourceException("Could not rollback LocalTransaction", ex);
@@ -17,10 +17,17 @@ package org.ops4j.pax.transx.jms.impl;
 
 import java.io.Serializable;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.jms.BytesMessage;
+import javax.jms.CompletionListener;
+import javax.jms.DeliveryMode;
 import javax.jms.Destination;
 import javax.jms.IllegalStateException;
 import javax.jms.InvalidDestinationException;
@@ -86,6 +93,11 @@ public class SessionImpl extends AbstractConnectionHandle<ManagedConnectionFacto
     public void cleanup() {
     }
 
+    boolean isInXaTransaction() {
+        ManagedConnectionImpl mc = this.mc;
+        return mc != null && mc.isInXaTransaction();
+    }
+
     void start() throws JMSException {
         if (mc != null) {
             mc.start();
@@ -108,17 +120,20 @@ public class SessionImpl extends AbstractConnectionHandle<ManagedConnectionFacto
 
     @Override
     public QueueReceiver createReceiver(Queue queue) throws JMSException {
-        return call(session -> wrap(QueueReceiver.class, getQueueSessionInternal(session).createReceiver(queue)));
+        return call(session -> consumer(QueueReceiver.class, session, "receiver", queue, null, false,
+                () -> getQueueSessionInternal(session).createReceiver(queue)));
     }
 
     @Override
     public QueueReceiver createReceiver(Queue queue, String messageSelector) throws JMSException {
-        return call(session -> wrap(QueueReceiver.class, getQueueSessionInternal(session).createReceiver(queue, messageSelector)));
+        return call(session -> consumer(QueueReceiver.class, session, "receiver", queue, messageSelector, false,
+                () -> getQueueSessionInternal(session).createReceiver(queue, messageSelector)));
     }
 
     @Override
     public QueueSender createSender(Queue queue) throws JMSException {
-        return call(session -> wrap(QueueSender.class, getQueueSessionInternal(session).createSender(queue)));
+        return call(session -> producer(QueueSender.class, session, "sender", queue,
+                () -> getQueueSessionInternal(session).createSender(queue)));
     }
 
     @Override
@@ -133,27 +148,32 @@ public class SessionImpl extends AbstractConnectionHandle<ManagedConnectionFacto
 
     @Override
     public TopicPublisher createPublisher(Topic topic) throws JMSException {
-        return call(session -> wrap(TopicPublisher.class, getTopicSessionInternal(session).createPublisher(topic)));
+        return call(session -> producer(TopicPublisher.class, session, "publisher", topic,
+                () -> getTopicSessionInternal(session).createPublisher(topic)));
     }
 
     @Override
     public MessageConsumer createConsumer(Destination destination) throws JMSException {
-        return call(session -> wrap(MessageConsumer.class, session.createConsumer(destination)));
+        return call(session -> consumer(MessageConsumer.class, session, "consumer", destination, null, false,
+                () -> session.createConsumer(destination)));
     }
 
     @Override
     public MessageConsumer createConsumer(Destination destination, String messageSelector) throws JMSException {
-        return call(session -> wrap(MessageConsumer.class, session.createConsumer(destination, messageSelector)));
+        return call(session -> consumer(MessageConsumer.class, session, "consumer", destination, messageSelector, false,
+                () -> session.createConsumer(destination, messageSelector)));
     }
 
     @Override
     public MessageConsumer createConsumer(Destination destination, String messageSelector, boolean noLocal) throws JMSException {
-        return call(session -> wrap(MessageConsumer.class, session.createConsumer(destination, messageSelector, noLocal)));
+        return call(session -> consumer(MessageConsumer.class, session, "consumer", destination, messageSelector, noLocal,
+                () -> session.createConsumer(destination, messageSelector, noLocal)));
     }
 
     @Override
     public MessageProducer createProducer(Destination destination) throws JMSException {
-        return call(session -> wrap(MessageProducer.class, session.createProducer(destination)));
+        return call(session -> producer(MessageProducer.class, session, "producer", destination,
+                () -> session.createProducer(destination)));
     }
 
     @Override
@@ -338,14 +358,208 @@ public class SessionImpl extends AbstractConnectionHandle<ManagedConnectionFacto
         return (E) new JMSException(msg).initCause(e);
     }
 
+    /**
+     * Get a producer from the cache of the managed connection, or create it. Closing the
+     * returned producer gives it back to the cache.
+     */
+    private <T extends MessageProducer> T producer(Class<T> clazz, Session session, String kind, Destination destination,
+                                                   Utils.ProviderWithException<JMSException, T> factory) throws JMSException {
+        SessionObjectCache<MessageProducer> cache = mc.getProducerCache();
+        if (cache == null || isTemporary(destination)) {
+            return wrap(clazz, factory.call());
+        }
+        SessionObjectCache.Key key = new SessionObjectCache.Key(session, kind, destination, null, false);
+        MessageProducer cached = cache.poll(key);
+        T producer = cached != null ? clazz.cast(cached) : factory.call();
+        return wrap(clazz, producer, () -> {
+            try {
+                // restore the defaults the next user expects
+                producer.setDeliveryMode(DeliveryMode.PERSISTENT);
+                producer.setPriority(Message.DEFAULT_PRIORITY);
+                producer.setTimeToLive(Message.DEFAULT_TIME_TO_LIVE);
+                producer.setDisableMessageID(false);
+                producer.setDisableMessageTimestamp(false);
+            } catch (JMSException | RuntimeException e) {
+                SessionObjectCache.close(producer);
+                return;
+            }
+            cache.offer(key, producer);
+        });
+    }
+
+    /**
+     * Get a consumer from the cache of the managed connection, or create it. Closing the
+     * returned consumer gives it back to the cache.
+     */
+    private <T extends MessageConsumer> T consumer(Class<T> clazz, Session session, String kind, Destination destination,
+                                                   String selector, boolean noLocal,
+                                                   Utils.ProviderWithException<JMSException, T> factory) throws JMSException {
+        SessionObjectCache<MessageConsumer> cache = mc.getConsumerCache();
+        if (cache == null || isTemporary(destination)) {
+            return wrap(clazz, factory.call());
+        }
+        SessionObjectCache.Key key = new SessionObjectCache.Key(session, kind, destination, selector, noLocal);
+        MessageConsumer cached = cache.poll(key);
+        T consumer = cached != null ? clazz.cast(cached) : factory.call();
+        return wrap(clazz, consumer, () -> {
+            try {
+                consumer.setMessageListener(null);
+            } catch (JMSException | RuntimeException e) {
+                SessionObjectCache.close(consumer);
+                return;
+            }
+            cache.offer(key, consumer);
+        });
+    }
+
+    /**
+     * Send a message with a completion listener. Outside of XA transactions, the message is
+     * sent asynchronously, within the window of the managed connection: once the window is
+     * full, the send blocks until a previous one completes, and fails if none completes within
+     * the timeout of the managed connection factory. Within an XA transaction, or if
+     * the provider does not support asynchronous sends, the message is sent synchronously and
+     * the listener called once it is sent. A synchronous send failing within an XA transaction
+     * also throws the exception, so that the transaction does not commit without the message.
+     */
+    private Object send(Object producer, Method method, Object[] args) throws Throwable {
+        CompletionListener listener = (CompletionListener) args[args.length - 1];
+        ManagedConnectionImpl mc = this.mc;
+        Semaphore window = mc != null && !mc.isInXaTransaction() ? mc.getAsyncSendWindow() : null;
+        if (window == null) {
+            return sendAndComplete(producer, method, args, listener, mc != null && mc.isInXaTransaction());
+        }
+        try {
+            if (!window.tryAcquire(mc.getAsyncSendTimeout(), TimeUnit.MILLISECONDS)) {
+                throw new JMSException("Timed out waiting for asynchronous sends to complete");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw (JMSException) new JMSException("Interrupted while waiting for asynchronous sends to complete").initCause(e);
+        }
+        WindowCompletionListener windowListener = new WindowCompletionListener(window, listener);
+        Object[] asyncArgs = args.clone();
+        asyncArgs[args.length - 1] = windowListener;
+        try {
+            return method.invoke(producer, asyncArgs);
+        } catch (InvocationTargetException e) {
+            windowListener.release();
+            Throwable t = e.getTargetException();
+            if (isUnsupported(t, method)) {
+                mc.asyncSendUnsupported();
+                return sendAndComplete(producer, method, args, listener, false);
+            }
+            throw t;
+        }
+    }
+
+    /**
+     * Check whether an asynchronous send failed because the provider does not implement it:
+     * the method is missing from a JMS 1.1 provider, or it throws an UnsupportedOperationException
+     * itself, before handing the message to the provider. Other failures do not disable
+     * asynchronous sends.
+     */
+    private static boolean isUnsupported(Throwable t, Method method) {
+        if (t instanceof AbstractMethodError) {
+            return true;
+        }
+        if (t instanceof UnsupportedOperationException) {
+            StackTraceElement[] trace = t.getStackTrace();
+            return trace.length > 0 && trace[0].getMethodName().equals(method.getName());
+        }
+        return false;
+    }
+
+    private static Object sendAndComplete(Object producer, Method method, Object[] args, CompletionListener listener,
+                                          boolean rethrow) throws Throwable {
+        Message message = null;
+        for (Object arg : args) {
+            if (arg instanceof Message) {
+                message = (Message) arg;
+                break;
+            }
+        }
+        Class<?>[] types = method.getParameterTypes();
+        Method send = method.getDeclaringClass().getMethod("send", Arrays.copyOf(types, types.length - 1));
+        try {
+            send.invoke(producer, Arrays.copyOf(args, args.length - 1));
+        } catch (InvocationTargetException e) {
+            Throwable t = e.getTargetException();
+            if (t instanceof Exception) {
+                listener.onException(message, (Exception) t);
+                if (!rethrow) {
+                    return null;
+                }
+            }
+            throw t;
+        }
+        listener.onCompletion(message);
+        return null;
+    }
+
+    /**
+     * Completion listener giving back its permit to the window of asynchronous sends.
+     */
+    private static final class WindowCompletionListener implements CompletionListener {
+
+        private final Semaphore window;
+        private final CompletionListener delegate;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        WindowCompletionListener(Semaphore window, CompletionListener delegate) {
+            this.window = window;
+            this.delegate = delegate;
+        }
+
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                window.release();
+            }
+        }
+
+        @Override
+        public void onCompletion(Message message) {
+            release();
+            delegate.onCompletion(message);
+        }
+
+        @Override
+        public void onException(Message message, Exception exception) {
+            release();
+            delegate.onException(message, exception);
+        }
+    }
+
+    private static boolean isTemporary(Destination destination) {
+        return destination instanceof TemporaryQueue || destination instanceof TemporaryTopic;
+    }
+
     private <T extends AutoCloseable> T wrap(Class<T> clazz, T closeable) {
-        closeables.add(closeable);
+        return wrap(clazz, closeable, closeable);
+    }
+
+    /**
+     * Wrap a producer, consumer or subscriber, running the closer instead of closing it when
+     * it is closed or when the session is closed.
+     */
+    private <T extends AutoCloseable> T wrap(Class<T> clazz, T closeable, AutoCloseable closer) {
+        closeables.add(closer);
         return clazz.cast(Proxy.newProxyInstance(closeable.getClass().getClassLoader(), new Class[]{ clazz },
                 (proxy, method, args) -> {
+                    if ("send".equals(method.getName())
+                            && args != null
+                            && args[args.length - 1] instanceof CompletionListener) {
+                        return send(closeable, method, args);
+                    }
                     if ("close".equals(method.getName())
                             && method.getParameterCount() == 0
                             && method.getReturnType() == void.class) {
-                        closeables.remove(closeable);
+                        boolean open = closeables.remove(closer);
+                        if (closer != closeable) {
+                            if (open) {
+                                closer.close();
+                            }
+                            return null;
+                        }
                     }
                     try {
                         return method.invoke(closeable, args);
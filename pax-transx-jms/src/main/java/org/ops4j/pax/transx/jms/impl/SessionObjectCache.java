@@ -0,0 +1,110 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.jms.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import javax.jms.Destination;
+import javax.jms.Session;
+
+import static org.ops4j.pax.transx.jms.impl.Utils.trace;
+
+/**
+ * Idle producers or consumers of the physical sessions of a managed connection, reused by the
+ * following handles instead of being created again on the broker.
+ *
+ * An object is taken out of the cache while a handle uses it, so it is never shared.
+ */
+final class SessionObjectCache<T extends AutoCloseable> {
+
+    private final int maxSize;
+    private final Map<Key, T> idle = new HashMap<>();
+
+    SessionObjectCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    synchronized T poll(Key key) {
+        return idle.remove(key);
+    }
+
+    /**
+     * Keep an idle object, or close it if the cache is full or already holds one for the key.
+     */
+    void offer(Key key, T object) {
+        synchronized (this) {
+            if (idle.size() < maxSize && idle.putIfAbsent(key, object) == null) {
+                return;
+            }
+        }
+        close(object);
+    }
+
+    /**
+     * Forget the cached objects, which are closed along with their physical session.
+     */
+    synchronized void clear() {
+        idle.clear();
+    }
+
+    static void close(AutoCloseable object) {
+        try {
+            object.close();
+        } catch (Exception e) {
+            trace("Error closing " + object, e);
+        }
+    }
+
+    static final class Key {
+
+        private final Session session;
+        private final String kind;
+        private final Destination destination;
+        private final String selector;
+        private final boolean noLocal;
+
+        Key(Session session, String kind, Destination destination, String selector, boolean noLocal) {
+            this.session = session;
+            this.kind = kind;
+            this.destination = destination;
+            this.selector = selector;
+            this.noLocal = noLocal;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return session == key.session
+                    && noLocal == key.noLocal
+                    && kind.equals(key.kind)
+                    && Objects.equals(destination, key.destination)
+                    && Objects.equals(selector, key.selector);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(session), kind, destination, selector, noLocal);
+        }
+    }
+
+}
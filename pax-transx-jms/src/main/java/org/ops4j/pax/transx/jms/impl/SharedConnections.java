@@ -0,0 +1,187 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.jms.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import javax.jms.Connection;
+import javax.jms.ExceptionListener;
+import javax.jms.JMSException;
+
+import static org.ops4j.pax.transx.jms.impl.Utils.trace;
+
+/**
+ * Physical connections shared by the managed connections of a factory.
+ *
+ * Each managed connection creates its sessions on one of at most <code>maxConnections</code>
+ * physical connections per set of credentials, the least used one, so that a large pool of
+ * sessions only opens a few connections to the broker. A physical connection is closed when
+ * its last managed connection is destroyed, and discarded when it fails, after notifying the
+ * managed connections using it.
+ */
+class SharedConnections {
+
+    private final ManagedConnectionFactoryImpl mcf;
+    private final int maxConnections;
+    private final Map<List<String>, List<SharedConnection>> connections = new HashMap<>();
+
+    SharedConnections(ManagedConnectionFactoryImpl mcf, int maxConnections) {
+        this.mcf = mcf;
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * Get a physical connection for a new managed connection. The connection slot is reserved
+     * while holding the lock, but the physical connection is created outside of it, so that a
+     * slow broker does not block the managed connections using other slots. Concurrent callers
+     * choosing a slot whose connection is still being created wait for it.
+     */
+    SharedConnection acquire(String userName, String password, ExceptionListener listener) throws JMSException {
+        List<String> key = Arrays.asList(userName, password);
+        SharedConnection shared = null;
+        boolean creating = false;
+        synchronized (this) {
+            List<SharedConnection> list = connections.computeIfAbsent(key, k -> new ArrayList<>());
+            if (list.size() < maxConnections) {
+                shared = new SharedConnection(key);
+                list.add(shared);
+                creating = true;
+            } else {
+                for (SharedConnection c : list) {
+                    if (shared == null || c.users < shared.users) {
+                        shared = c;
+                    }
+                }
+            }
+            shared.users++;
+        }
+        if (creating) {
+            try {
+                shared.created(create(userName, password));
+            } catch (JMSException | RuntimeException e) {
+                remove(shared);
+                shared.future.completeExceptionally(e);
+            }
+        }
+        try {
+            shared.await();
+        } catch (JMSException | RuntimeException e) {
+            synchronized (this) {
+                shared.users--;
+            }
+            throw e;
+        }
+        shared.listeners.add(listener);
+        return shared;
+    }
+
+    void release(SharedConnection shared, ExceptionListener listener) throws JMSException {
+        shared.listeners.remove(listener);
+        synchronized (this) {
+            if (--shared.users > 0) {
+                return;
+            }
+            remove(shared);
+        }
+        shared.connection.close();
+    }
+
+    private Connection create(String userName, String password) throws JMSException {
+        boolean xa = mcf.getXaConnectionFactory() != null;
+        if (userName != null && password != null) {
+            return xa ? mcf.getXaConnectionFactory().createXAConnection(userName, password)
+                    : mcf.getConnectionFactory().createConnection(userName, password);
+        } else {
+            return xa ? mcf.getXaConnectionFactory().createXAConnection()
+                    : mcf.getConnectionFactory().createConnection();
+        }
+    }
+
+    private synchronized void remove(SharedConnection shared) {
+        List<SharedConnection> list = connections.get(shared.key);
+        if (list != null && list.remove(shared) && list.isEmpty()) {
+            connections.remove(shared.key);
+        }
+    }
+
+    final class SharedConnection {
+
+        private final List<String> key;
+        private final CompletableFuture<Connection> future = new CompletableFuture<>();
+        private final List<ExceptionListener> listeners = new CopyOnWriteArrayList<>();
+        private volatile Connection connection;
+        private int users;
+
+        SharedConnection(List<String> key) {
+            this.key = key;
+        }
+
+        Connection getConnection() {
+            return connection;
+        }
+
+        private void created(Connection connection) throws JMSException {
+            this.connection = connection;
+            try {
+                connection.setExceptionListener(this::onException);
+            } catch (JMSException | RuntimeException e) {
+                try {
+                    connection.close();
+                } catch (JMSException e2) {
+                    e.addSuppressed(e2);
+                }
+                throw e;
+            }
+            future.complete(connection);
+        }
+
+        /**
+         * Wait for the physical connection to be created.
+         */
+        private void await() throws JMSException {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw (JMSException) new JMSException("Interrupted while waiting for the connection").initCause(e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof JMSException) {
+                    throw (JMSException) cause;
+                }
+                throw (RuntimeException) cause;
+            }
+        }
+
+        private void onException(JMSException exception) {
+            // new managed connections must not use the failed connection anymore
+            remove(this);
+            try {
+                connection.setExceptionListener(null);
+            } catch (JMSException e) {
+                trace("Unable to unset exception listener", e);
+            }
+            listeners.forEach(l -> l.onException(exception));
+        }
+    }
+
+}
@@ -15,9 +15,15 @@
  */
 package org.ops4j.pax.transx.jms;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import javax.jms.CompletionListener;
 import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
 import javax.jms.JMSConsumer;
@@ -28,6 +34,8 @@ import javax.jms.MessageProducer;
 import javax.jms.Queue;
 import javax.jms.Session;
 import javax.jms.TextMessage;
+import javax.jms.XAConnection;
+import javax.jms.XAConnectionFactory;
 import javax.resource.spi.TransactionSupport.TransactionSupportLevel;
 
 import org.apache.activemq.ActiveMQConnectionFactory;
@@ -303,6 +311,165 @@ public class ActiveMQTest {
         assertNull(msg);
     }
 
+    @Test
+    public void testSharedConnections() throws Exception {
+        ConnectionFactory cf = ManagedConnectionFactoryBuilder.builder()
+                .transaction(TransactionSupportLevel.XATransaction)
+                .transactionManager(tm)
+                .name("vmbroker" + brokerId++)
+                .connectionFactory(new ActiveMQConnectionFactory(BROKER_URL), new ActiveMQXAConnectionFactory(BROKER_URL))
+                .sharedConnections(1)
+                .build();
+        closeables.add((AutoCloseable) cf);
+
+        Transaction tx = tm.begin();
+        try (JMSContext c1 = cf.createContext(); JMSContext c2 = cf.createContext()) {
+            Queue queue = c1.createQueue(QUEUE);
+            c1.createProducer().send(queue, "Hello");
+            c2.createProducer().send(queue, "World");
+        }
+        tx.commit();
+        tx = tm.begin();
+        assertEquals(2, consumeMessages(cf, QUEUE).size());
+        tx.commit();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConsumerCacheWithSharedConnections() throws Exception {
+        ManagedConnectionFactoryBuilder.builder()
+                .transaction(TransactionSupportLevel.NoTransaction)
+                .name("vmbroker" + brokerId++)
+                .connectionFactory(new ActiveMQConnectionFactory(BROKER_URL), null)
+                .sharedConnections(1)
+                .consumerCacheSize(4)
+                .build();
+    }
+
+    @Test
+    public void testProducerAndConsumerCache() throws Exception {
+        ConnectionFactory cf = ManagedConnectionFactoryBuilder.builder()
+                .transaction(TransactionSupportLevel.NoTransaction)
+                .name("vmbroker" + brokerId++)
+                .connectionFactory(new ActiveMQConnectionFactory(BROKER_URL), null)
+                .maxPoolSize(1)
+                .producerCacheSize(4)
+                .consumerCacheSize(4)
+                .build();
+        closeables.add((AutoCloseable) cf);
+        JmsTemplate jms = new JmsTemplate(cf);
+        jms.setDefaultDestinationName(QUEUE);
+        jms.setReceiveTimeout(1000);
+
+        for (int i = 0; i < 3; i++) {
+            jms.setPriority(i);
+            jms.setExplicitQosEnabled(i == 1);
+            jms.convertAndSend("Hello " + i);
+        }
+        for (int i = 0; i < 3; i++) {
+            Message msg = jms.receive();
+            assertEquals("Hello " + i, ((TextMessage) msg).getText());
+            assertEquals(i == 1 ? 1 : Message.DEFAULT_PRIORITY, msg.getJMSPriority());
+        }
+        assertNull(jms.receiveAndConvert());
+    }
+
+    @Test
+    public void testAsyncSend() throws Exception {
+        ConnectionFactory cf = createCF(BROKER_URL, false);
+        List<Message> completed = new ArrayList<>();
+        try (JMSContext context = cf.createContext()) {
+            Queue queue = context.createQueue(QUEUE);
+            context.createProducer().setAsync(new CompletionListener() {
+                @Override
+                public void onCompletion(Message message) {
+                    synchronized (completed) {
+                        completed.add(message);
+                        completed.notifyAll();
+                    }
+                }
+
+                @Override
+                public void onException(Message message, Exception exception) {
+                    fail(exception.toString());
+                }
+            }).send(queue, "Hello");
+            synchronized (completed) {
+                if (completed.isEmpty()) {
+                    completed.wait(5000);
+                }
+            }
+        }
+        assertEquals(1, completed.size());
+        assertEquals(1, consumeMessages(cf, QUEUE).size());
+    }
+
+    @Test
+    public void testSendBatch() throws Exception {
+        ConnectionFactory cf = createCF(BROKER_URL, false);
+        try (JMSContext context = cf.createContext(JMSContext.SESSION_TRANSACTED)) {
+            Queue queue = context.createQueue(QUEUE);
+            ((BatchJMSProducer) context.createProducer())
+                    .setProperty("batch", true)
+                    .sendBatch(queue, Arrays.asList("Hello", context.createTextMessage("World"), "!"));
+        }
+        try (JMSContext context = cf.createContext()) {
+            Queue queue = context.createQueue(QUEUE);
+            try (JMSConsumer consumer = context.createConsumer(queue, "batch = true")) {
+                assertEquals("Hello", consumer.receiveBody(String.class, 1000));
+                assertEquals("World", consumer.receiveBody(String.class, 1000));
+                assertEquals("!", consumer.receiveBody(String.class, 1000));
+            }
+        }
+    }
+
+    @Test
+    public void testXaModeCreatesSessionOnlyWhenNeeded() throws Exception {
+        ActiveMQXAConnectionFactory xacf = new ActiveMQXAConnectionFactory(BROKER_URL);
+        AtomicInteger sessions = new AtomicInteger();
+        AtomicInteger xaSessions = new AtomicInteger();
+        XAConnectionFactory counting = (XAConnectionFactory) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[] { XAConnectionFactory.class }, (proxy, method, args) -> {
+                    Object connection = invoke(xacf, method, args);
+                    if (!(connection instanceof XAConnection)) {
+                        return connection;
+                    }
+                    return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { XAConnection.class },
+                            (p, m, a) -> {
+                                if (m.getName().equals("createSession")) {
+                                    sessions.incrementAndGet();
+                                } else if (m.getName().equals("createXASession")) {
+                                    xaSessions.incrementAndGet();
+                                }
+                                return invoke(connection, m, a);
+                            });
+                });
+        ConnectionFactory cf = ManagedConnectionFactoryBuilder.builder()
+                .transaction(TransactionSupportLevel.XATransaction)
+                .transactionManager(tm)
+                .name("vmbroker" + brokerId++)
+                .connectionFactory(new ActiveMQConnectionFactory(BROKER_URL), counting)
+                .maxPoolSize(1)
+                .build();
+        closeables.add((AutoCloseable) cf);
+
+        // used in transactions only, the connection has no plain session
+        for (int i = 0; i < 2; i++) {
+            Transaction tx = tm.begin();
+            try (JMSContext context = cf.createContext()) {
+                context.createProducer().send(context.createQueue("xaqueue"), "Hello");
+            }
+            tx.commit();
+        }
+        assertEquals(1, xaSessions.get());
+        assertEquals(0, sessions.get());
+
+        // used outside of a transaction, the plain session is created once
+        assertEquals(2, consumeMessages(cf, "xaqueue").size());
+        assertEquals(0, consumeMessages(cf, "xaqueue").size());
+        assertEquals(1, xaSessions.get());
+        assertEquals(1, sessions.get());
+    }
+
     private List<String> consumeMessages(ConnectionFactory cf, String queue) {
         try (JMSContext ctx = cf.createContext()) {
             return consumeMessages(ctx, ctx.createQueue(queue));
@@ -323,6 +490,14 @@ public class ActiveMQTest {
         }
     }
 
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
     private ConnectionFactory createCF(String brokerUrl) throws Exception {
         return createCF(brokerUrl, true);
     }
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.jms;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.jms.CompletionListener;
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import javax.resource.spi.TransactionSupport.TransactionSupportLevel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Asynchronous sends against a provider whose producers complete the sends when the test
+ * tells them to.
+ */
+public class AsyncSendTest {
+
+    static int id;
+
+    /**
+     * Sends the provider has accepted and not completed yet.
+     */
+    final List<PendingSend> pending = new CopyOnWriteArrayList<>();
+    volatile JMSException refusal;
+    volatile RuntimeException asyncFailure;
+
+    ConnectionFactory cf;
+    Connection connection;
+    Session session;
+    MessageProducer producer;
+    RecordingListener listener = new RecordingListener();
+
+    @Before
+    public void setUp() throws Exception {
+        cf = ManagedConnectionFactoryBuilder.builder()
+                .transaction(TransactionSupportLevel.NoTransaction)
+                .name("stub" + id++)
+                .connectionFactory(stub(ConnectionFactory.class, this::connectionFactory), null)
+                .maxPoolSize(1)
+                .asyncSendWindow(2)
+                .asyncSendTimeout(200)
+                .build();
+        connection = cf.createConnection();
+        session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        producer = session.createProducer(session.createQueue("queue"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        connection.close();
+        ((AutoCloseable) cf).close();
+    }
+
+    @Test
+    public void testWindowLimit() throws Exception {
+        Message m1 = session.createTextMessage("1");
+        Message m2 = session.createTextMessage("2");
+        Message m3 = session.createTextMessage("3");
+        producer.send(m1, listener);
+        producer.send(m2, listener);
+        assertEquals(2, pending.size());
+
+        // the window is full and no send completes
+        long start = System.nanoTime();
+        try {
+            producer.send(m3, listener);
+            fail("Expected JMSException");
+        } catch (JMSException e) {
+            // expected
+        }
+        assertTrue(System.nanoTime() - start >= 200_000_000L);
+        assertEquals(2, pending.size());
+
+        pending.get(0).complete();
+        assertEquals(1, listener.completed.size());
+        assertSame(m1, listener.completed.get(0));
+        producer.send(m3, listener);
+        assertEquals(3, pending.size());
+    }
+
+    @Test
+    public void testErrorCallback() throws Exception {
+        Message m1 = session.createTextMessage("1");
+        producer.send(m1, listener);
+        producer.send(session.createTextMessage("2"), listener);
+
+        JMSException failure = new JMSException("failed");
+        pending.get(0).fail(failure);
+        assertEquals(0, listener.completed.size());
+        assertEquals(1, listener.failed.size());
+        assertSame(m1, listener.failed.get(0));
+        assertSame(failure, listener.exceptions.get(0));
+
+        // the failed send gave its permit back
+        producer.send(session.createTextMessage("3"), listener);
+        assertEquals(3, pending.size());
+    }
+
+    @Test
+    public void testRefusedSendReleasesWindow() throws Exception {
+        refusal = new JMSException("refused");
+        for (int i = 0; i < 3; i++) {
+            try {
+                producer.send(session.createTextMessage("refused"), listener);
+                fail("Expected JMSException");
+            } catch (JMSException e) {
+                assertSame(refusal, e);
+            }
+        }
+        refusal = null;
+        producer.send(session.createTextMessage("1"), listener);
+        producer.send(session.createTextMessage("2"), listener);
+        assertEquals(2, pending.size());
+        assertEquals(0, listener.failed.size());
+    }
+
+    @Test
+    public void testUnsupportedAsyncSend() throws Exception {
+        // thrown by the send method of the provider itself
+        asyncFailure = new UnsupportedOperationException("not supported");
+        asyncFailure.setStackTrace(new StackTraceElement[] {
+                new StackTraceElement("org.example.Producer", "send", "Producer.java", 42)
+        });
+        Message m1 = session.createTextMessage("1");
+        producer.send(m1, listener);
+        assertEquals(0, pending.size());
+        assertEquals(1, listener.completed.size());
+        assertSame(m1, listener.completed.get(0));
+
+        // later sends are synchronous
+        asyncFailure = null;
+        producer.send(session.createTextMessage("2"), listener);
+        assertEquals(0, pending.size());
+        assertEquals(2, listener.completed.size());
+    }
+
+    @Test
+    public void testFailedSendKeepsAsyncSends() throws Exception {
+        // thrown while the provider handles the message
+        asyncFailure = new UnsupportedOperationException("read-only message");
+        try {
+            producer.send(session.createTextMessage("1"), listener);
+            fail("Expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+            assertSame(asyncFailure, e);
+        }
+        assertEquals(0, listener.completed.size());
+
+        asyncFailure = null;
+        producer.send(session.createTextMessage("2"), listener);
+        assertEquals(1, pending.size());
+    }
+
+    private Object connectionFactory(Method method, Object[] args) {
+        return method.getName().equals("createConnection") ? stub(Connection.class, this::connection) : null;
+    }
+
+    private Object connection(Method method, Object[] args) {
+        return method.getName().equals("createSession") ? stub(Session.class, this::session) : null;
+    }
+
+    private Object session(Method method, Object[] args) {
+        switch (method.getName()) {
+            case "createProducer":
+                return stub(MessageProducer.class, this::producer);
+            case "createQueue":
+                return stub(Queue.class, (m, a) -> m.getName().equals("getQueueName") ? args[0] : null);
+            case "createTextMessage":
+                return stub(TextMessage.class, (m, a) -> null);
+            default:
+                return null;
+        }
+    }
+
+    private Object producer(Method method, Object[] args) throws JMSException {
+        if (method.getName().equals("send") && args[args.length - 1] instanceof CompletionListener) {
+            if (refusal != null) {
+                throw refusal;
+            }
+            if (asyncFailure != null) {
+                throw asyncFailure;
+            }
+            Message message = null;
+            for (Object arg : args) {
+                if (arg instanceof Message) {
+                    message = (Message) arg;
+                }
+            }
+            pending.add(new PendingSend(message, (CompletionListener) args[args.length - 1]));
+        }
+        return null;
+    }
+
+    interface Handler {
+        Object invoke(Method method, Object[] args) throws Exception;
+    }
+
+    /**
+     * Implement an interface with a handler, the methods the handler does not answer
+     * returning the default value of their type.
+     */
+    static <T> T stub(Class<T> clazz, Handler handler) {
+        return clazz.cast(Proxy.newProxyInstance(AsyncSendTest.class.getClassLoader(), new Class[] { clazz },
+                (proxy, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class) {
+                        switch (method.getName()) {
+                            case "equals":
+                                return proxy == args[0];
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            default:
+                                return clazz.getSimpleName();
+                        }
+                    }
+                    Object result = handler.invoke(method, args);
+                    Class<?> type = method.getReturnType();
+                    if (result == null && type.isPrimitive() && type != void.class) {
+                        return Array.get(Array.newInstance(type, 1), 0);
+                    }
+                    return result;
+                }));
+    }
+
+    static class PendingSend {
+        final Message message;
+        final CompletionListener listener;
+
+        PendingSend(Message message, CompletionListener listener) {
+            this.message = message;
+            this.listener = listener;
+        }
+
+        void complete() {
+            listener.onCompletion(message);
+        }
+
+        void fail(Exception exception) {
+            listener.onException(message, exception);
+        }
+    }
+
+    static class RecordingListener implements CompletionListener {
+        final List<Message> completed = new CopyOnWriteArrayList<>();
+        final List<Message> failed = new CopyOnWriteArrayList<>();
+        final List<Exception> exceptions = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onCompletion(Message message) {
+            completed.add(message);
+        }
+
+        @Override
+        public void onException(Message message, Exception exception) {
+            failed.add(message);
+            exceptions.add(exception);
+        }
+    }
+
+}
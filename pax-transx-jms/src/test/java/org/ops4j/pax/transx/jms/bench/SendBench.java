@@ -0,0 +1,101 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.jms.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSContext;
+import javax.jms.JMSProducer;
+import javax.jms.Topic;
+import javax.resource.spi.TransactionSupport;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ops4j.pax.transx.jms.BatchJMSProducer;
+import org.ops4j.pax.transx.jms.ManagedConnectionFactoryBuilder;
+
+/**
+ * Sending messages in a locally transacted context, one by one then committing, or through
+ * {@link BatchJMSProducer#sendBatch}.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 8)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SendBench {
+
+    private static final String BROKER_URL = "vm://bench?marshal=false&broker.persistent=false";
+
+    @Param({ "100" })
+    int messages;
+
+    ConnectionFactory cf;
+    JMSContext context;
+    Topic topic;
+    List<String> bodies;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        cf = ManagedConnectionFactoryBuilder.builder()
+                .transaction(TransactionSupport.TransactionSupportLevel.NoTransaction)
+                .name("bench")
+                .connectionFactory(new ActiveMQConnectionFactory(BROKER_URL), null)
+                .build();
+        context = cf.createContext(JMSContext.SESSION_TRANSACTED);
+        // messages sent to a topic without subscribers are not kept by the broker
+        topic = context.createTopic("bench");
+        bodies = new ArrayList<>();
+        for (int i = 0; i < messages; i++) {
+            bodies.add("Message " + i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws Exception {
+        context.close();
+        ((AutoCloseable) cf).close();
+    }
+
+    @Benchmark
+    public void send() {
+        JMSProducer producer = context.createProducer().setProperty("bench", true);
+        for (String body : bodies) {
+            producer.send(topic, body);
+        }
+        context.commit();
+    }
+
+    @Benchmark
+    public void sendBatch() {
+        BatchJMSProducer producer = (BatchJMSProducer) context.createProducer().setProperty("bench", true);
+        producer.sendBatch(topic, bodies);
+    }
+
+}
@@ -15,6 +15,7 @@
  */
 package org.ops4j.pax.transx.tm;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 
 /**
@@ -32,11 +33,37 @@ public interface Transaction {
      */
     Status getStatus();
 
+    /**
+     * Get the time left before the transaction times out, in milliseconds,
+     * or {@link Long#MAX_VALUE} if it is not known.
+     */
+    default long getRemainingTime() {
+        return Long.MAX_VALUE;
+    }
+
     /**
      * Commit the transaction
      */
     void commit() throws Exception;
 
+    /**
+     * Commit the transaction without waiting for its completion.
+     * The transaction is disassociated from the calling thread when this method returns,
+     * and the returned future completes when the commit does, or exceptionally with the
+     * exception {@link #commit()} would have thrown.
+     * The default implementation commits on the calling thread.
+     */
+    default CompletableFuture<Void> commitAsync() {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            commit();
+            future.complete(null);
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
     /**
      * Rollback the transaction
      */
@@ -72,4 +99,19 @@ public interface Transaction {
      */
     void synchronization(Runnable pre, Consumer<Status> post);
 
+    /**
+     * Add a pre- and/or post-completion job, called after the jobs added with
+     * {@link #synchronization(Runnable, Consumer)} before completion, and before them
+     * after completion.
+     *
+     * The ordering only applies to the jobs added through this interface. The job is not
+     * registered with the {@code TransactionSynchronizationRegistry}, so it is not ordered
+     * relatively to the synchronizations registered directly with the transaction manager.
+     * If the transaction was not active when it was first accessed through this interface,
+     * the job is registered on its own and no ordering is guaranteed.
+     */
+    default void interposedSynchronization(Runnable pre, Consumer<Status> post) {
+        synchronization(pre, post);
+    }
+
 }
@@ -15,6 +15,9 @@
  */
 package org.ops4j.pax.transx.tm;
 
+import java.util.function.Predicate;
+import javax.transaction.xa.Xid;
+
 /**
  * JTA Transaction manager
  */
@@ -50,4 +53,15 @@ public interface TransactionManager {
      */
     ResourceFactory getResource(String name);
 
+    /**
+     * Get a filter accepting the branches this transaction manager may have created, used by
+     * resources to skip, during recovery, the branches of other transaction managers sharing
+     * the same resource manager.
+     *
+     * @return the filter, or <code>null</code> if all the branches are to be recovered
+     */
+    default Predicate<Xid> getXidFilter() {
+        return null;
+    }
+
 }
@@ -27,6 +27,8 @@ import com.atomikos.icatch.config.UserTransactionServiceImp;
 import com.atomikos.icatch.jta.J2eeTransactionManager;
 import com.atomikos.icatch.jta.J2eeUserTransaction;
 import com.atomikos.icatch.jta.TransactionManagerImp;
+import org.ops4j.pax.transx.tm.impl.AbstractTransactionManagerWrapper;
+import org.ops4j.pax.transx.tm.impl.RecoveryOrchestrator;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.cm.ConfigurationException;
@@ -63,6 +65,11 @@ public class TransactionManagerService {
     private final BundleContext bundleContext;
     private final UserTransactionService uts;
     private final TransactionManagerImp tm;
+    private final boolean joinSameRM;
+    private final int commitThreads;
+    private final int recoveryThreads;
+    private final int recoveryPrefetchValidity;
+    private TransactionManagerWrapper wrapper;
     private List<ServiceRegistration<?>> services;
 
     public TransactionManagerService(String pid, Dictionary<String, ?> properties, BundleContext bundleContext) throws ConfigurationException {
@@ -71,6 +78,11 @@ public class TransactionManagerService {
         this.bundleContext = bundleContext;
         // Transaction timeout
         int transactionTimeout = getInt(TRANSACTION_TIMEOUT, DEFAULT_TRANSACTION_TIMEOUT);
+        joinSameRM = getBool(AbstractTransactionManagerWrapper.JOIN_SAME_RM, false);
+        commitThreads = getInt(AbstractTransactionManagerWrapper.COMMIT_THREADS, 0);
+        recoveryThreads = getInt(AbstractTransactionManagerWrapper.RECOVERY_THREADS, 0);
+        recoveryPrefetchValidity = getInt(AbstractTransactionManagerWrapper.RECOVERY_PREFETCH_VALIDITY,
+                (int) RecoveryOrchestrator.DEFAULT_PREFETCH_VALIDITY);
         if (transactionTimeout <= 0) {
             throw new ConfigurationException(TRANSACTION_TIMEOUT, "The transaction timeout property must be greater than zero.");
         }
@@ -88,7 +100,12 @@ public class TransactionManagerService {
         services = new ArrayList<>();
         services.add(bundleContext.registerService(UserTransaction.class, new J2eeUserTransaction(), null));
         services.add(bundleContext.registerService(TransactionManager.class, new J2eeTransactionManager(), null));
-        services.add(bundleContext.registerService(org.ops4j.pax.transx.tm.TransactionManager.class, new TransactionManagerWrapper(tm), null));
+        wrapper = new TransactionManagerWrapper(tm);
+        wrapper.setJoinSameRM(joinSameRM);
+        wrapper.setCommitThreads(commitThreads);
+        wrapper.setRecoveryPrefetchValidity(recoveryPrefetchValidity);
+        wrapper.setRecoveryThreads(recoveryThreads);
+        services.add(bundleContext.registerService(org.ops4j.pax.transx.tm.TransactionManager.class, wrapper, null));
     }
 
     public void destroy() throws Exception {
@@ -100,6 +117,10 @@ public class TransactionManagerService {
             }
         }
         services.clear();
+        if (wrapper != null) {
+            wrapper.setCommitThreads(0);
+            wrapper.setRecoveryThreads(0);
+        }
         Configuration.shutdown(false);
    }
 
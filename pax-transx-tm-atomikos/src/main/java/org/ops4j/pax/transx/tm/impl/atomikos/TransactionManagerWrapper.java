@@ -17,11 +17,13 @@ package org.ops4j.pax.transx.tm.impl.atomikos;
 
 import java.util.HashMap;
 import java.util.Map;
+import javax.transaction.SystemException;
 import javax.transaction.TransactionManager;
 import javax.transaction.xa.XAResource;
 
 import com.atomikos.datasource.ResourceException;
 import com.atomikos.datasource.xa.XATransactionalResource;
+import com.atomikos.icatch.CompositeTransaction;
 import com.atomikos.icatch.config.Configuration;
 import com.atomikos.icatch.jta.J2eeTransactionManager;
 import org.ops4j.pax.transx.tm.ResourceFactory;
@@ -52,10 +54,11 @@ public class TransactionManagerWrapper extends AbstractTransactionManagerWrapper
 
     @Override
     public synchronized void registerResource(ResourceFactory resource) {
+        ResourceFactory factory = prefetchRecovery(resource);
         XATransactionalResource xatr = new XATransactionalResource(resource.getName()) {
             @Override
             protected XAResource refreshXAConnection() throws ResourceException {
-                return resource.create();
+                return factory.create();
             }
         };
         Configuration.addResource(xatr);
@@ -75,4 +78,44 @@ public class TransactionManagerWrapper extends AbstractTransactionManagerWrapper
         return resources.get(name);
     }
 
+    @Override
+    protected TransactionWrapper doCreateTransactionWrapper(javax.transaction.Transaction tx) {
+        return new AtomikosTransactionWrapper(tx);
+    }
+
+    class AtomikosTransactionWrapper extends TransactionWrapper {
+
+        AtomikosTransactionWrapper(javax.transaction.Transaction transaction) {
+            super(transaction);
+        }
+
+        /**
+         * Atomikos only exposes the timeout of a transaction, and only for the transaction of
+         * the current thread, so the remaining time is only known for transactions begun
+         * through this wrapper, while they are associated with the calling thread.
+         */
+        @Override
+        public long getRemainingTime() {
+            long begin = beginTime;
+            if (begin == 0) {
+                return Long.MAX_VALUE;
+            }
+            try {
+                if (tm.getTransaction() != getTransaction()) {
+                    return Long.MAX_VALUE;
+                }
+                CompositeTransaction ct = Configuration.getCompositeTransactionManager().getCompositeTransaction();
+                if (ct != null) {
+                    long timeout = ct.getTimeout();
+                    if (timeout > 0) {
+                        return Math.max(0, begin + timeout - System.currentTimeMillis());
+                    }
+                }
+            } catch (SystemException e) {
+                // unknown
+            }
+            return Long.MAX_VALUE;
+        }
+    }
+
 }
@@ -21,11 +21,13 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
 import javax.transaction.xa.Xid;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnitRunner;
@@ -35,6 +37,8 @@ import static org.junit.Assert.assertFalse;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -45,6 +49,8 @@ public class AtomikosTest {
     LastResource xares1;
     @Mock
     NamedResource xares2;
+    @Mock
+    NamedResource xares3;
     @Spy
     ResourceFactory rf1 = new ResourceFactory() {
         @Override
@@ -84,13 +90,12 @@ public class AtomikosTest {
         Path dir = basedir.resolve("target/data/atomikos");
         Files.createDirectories(dir);
         System.setProperty("com.atomikos.icatch.log_base_dir", dir.toString());
-
-        when(xares1.isSameRM(xares1)).thenReturn(true);
-        when(xares2.isSameRM(xares2)).thenReturn(true);
     }
 
     @Test
     public void testLRC() throws Exception {
+        when(xares1.isSameRM(xares1)).thenReturn(true);
+        when(xares2.isSameRM(xares2)).thenReturn(true);
         TransactionManager tm = createTm();
         tm.registerResource(rf1);
         tm.registerResource(rf2);
@@ -112,6 +117,44 @@ public class AtomikosTest {
         verify(xares2).end(any(Xid.class), anyInt());
     }
 
+    @Test
+    public void testOnePhaseCommit() throws Exception {
+        when(xares2.isSameRM(xares2)).thenReturn(true);
+        TransactionManager tm = createTm();
+        tm.registerResource(rf2);
+
+        tm.begin();
+        tm.getTransaction().enlistResource(xares2);
+        tm.getTransaction().commit();
+
+        verify(xares2).start(any(Xid.class), anyInt());
+        verify(xares2, never()).prepare(any(Xid.class));
+        verify(xares2).commit(any(Xid.class), eq(true));
+        verify(xares2).end(any(Xid.class), anyInt());
+    }
+
+    @Test
+    public void testJoinSameRM() throws Exception {
+        when(xares2.isSameRM(xares2)).thenReturn(true);
+        when(xares2.isSameRM(xares3)).thenReturn(true);
+        TransactionManagerWrapper tm = new TransactionManagerWrapper();
+        tm.setJoinSameRM(true);
+        tm.registerResource(rf2);
+
+        tm.begin();
+        tm.getTransaction().enlistResource(xares2);
+        tm.getTransaction().enlistResource(xares3);
+        tm.getTransaction().commit();
+
+        ArgumentCaptor<Xid> xid = ArgumentCaptor.forClass(Xid.class);
+        verify(xares2).start(xid.capture(), eq(XAResource.TMNOFLAGS));
+        verify(xares3).start(xid.getValue(), XAResource.TMJOIN);
+        verify(xares3).end(xid.getValue(), XAResource.TMSUCCESS);
+        verify(xares2, never()).prepare(any(Xid.class));
+        verify(xares2).commit(xid.getValue(), true);
+        verify(xares3, never()).commit(any(Xid.class), anyBoolean());
+    }
+
     private TransactionManager createTm() throws XAException {
         return new TransactionManagerWrapper();
     }
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.tm.bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ops4j.pax.transx.tm.NamedResource;
+import org.ops4j.pax.transx.tm.ResourceFactory;
+import org.ops4j.pax.transx.tm.Transaction;
+import org.ops4j.pax.transx.tm.TransactionManager;
+import org.ops4j.pax.transx.tm.impl.atomikos.TransactionManagerWrapper;
+
+/**
+ * Transactions enlisting one or two resources through the Atomikos wrapper, the former being
+ * committed in one phase.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 8)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CommitBench {
+
+    @Param({ "1", "2" })
+    int resources;
+
+    TransactionManager tm;
+    NamedResource[] enlisted;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Path dir = Paths.get("target/data/atomikos-bench");
+        Files.createDirectories(dir);
+        System.setProperty("com.atomikos.icatch.log_base_dir", dir.toString());
+
+        tm = new TransactionManagerWrapper();
+        enlisted = new NamedResource[resources];
+        for (int i = 0; i < resources; i++) {
+            NamedResource resource = new NoopResource("res" + i);
+            enlisted[i] = resource;
+            // Atomikos only enlists resources registered for recovery
+            tm.registerResource(new ResourceFactory() {
+                @Override
+                public String getName() {
+                    return resource.getName();
+                }
+
+                @Override
+                public NamedResource create() {
+                    return resource;
+                }
+
+                @Override
+                public void release(NamedResource r) {
+                }
+            });
+        }
+    }
+
+    @Benchmark
+    public void commit() throws Exception {
+        Transaction tx = tm.begin();
+        for (NamedResource r : enlisted) {
+            tx.enlistResource(r);
+        }
+        tx.commit();
+    }
+
+    static class NoopResource implements NamedResource {
+
+        private final String name;
+
+        NoopResource(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void start(Xid xid, int flags) {
+        }
+
+        @Override
+        public void end(Xid xid, int flags) {
+        }
+
+        @Override
+        public int prepare(Xid xid) {
+            return XA_OK;
+        }
+
+        @Override
+        public void commit(Xid xid, boolean onePhase) {
+        }
+
+        @Override
+        public void rollback(Xid xid) {
+        }
+
+        @Override
+        public void forget(Xid xid) {
+        }
+
+        @Override
+        public Xid[] recover(int flag) {
+            return new Xid[0];
+        }
+
+        @Override
+        public boolean isSameRM(XAResource xares) {
+            return xares == this;
+        }
+
+        @Override
+        public int getTransactionTimeout() {
+            return 0;
+        }
+
+        @Override
+        public boolean setTransactionTimeout(int seconds) {
+            return false;
+        }
+    }
+}
@@ -16,23 +16,45 @@
 package org.ops4j.pax.transx.tm.impl;
 
 import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import javax.transaction.RollbackException;
 import javax.transaction.Synchronization;
 import javax.transaction.SystemException;
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
 
+import org.ops4j.pax.transx.tm.LastResource;
 import org.ops4j.pax.transx.tm.NamedResource;
+import org.ops4j.pax.transx.tm.ResourceFactory;
 import org.ops4j.pax.transx.tm.Status;
 import org.ops4j.pax.transx.tm.Transaction;
 import org.ops4j.pax.transx.tm.TransactionManager;
 
 public abstract class AbstractTransactionManagerWrapper<TM extends javax.transaction.TransactionManager> implements TransactionManager {
 
+    public static final String JOIN_SAME_RM = "joinSameRM";
+    public static final String COMMIT_THREADS = "commitThreads";
+    public static final String RECOVERY_THREADS = "recoveryThreads";
+    public static final String RECOVERY_PREFETCH_VALIDITY = "recoveryPrefetchValidity";
+
     protected final TM tm;
     protected final Map<javax.transaction.Transaction, TransactionWrapper> transactions = new WeakHashMap<>();
+    protected volatile boolean joinSameRM = false;
+    protected volatile ThreadPoolExecutor commitExecutor;
+    protected volatile RecoveryOrchestrator recoveryOrchestrator;
+    protected volatile long recoveryPrefetchValidity = RecoveryOrchestrator.DEFAULT_PREFETCH_VALIDITY;
 
     public AbstractTransactionManagerWrapper(TM tm) {
         this.tm = tm;
@@ -55,9 +77,111 @@ public abstract class AbstractTransactionManagerWrapper<TM extends javax.transac
 
     @Override
     public Transaction begin() throws Exception {
+        long beginTime = System.currentTimeMillis();
         tm.begin();
         disassociate();
-        return getTransaction();
+        Transaction tx = getTransaction();
+        if (tx instanceof AbstractTransactionManagerWrapper.TransactionWrapper) {
+            ((TransactionWrapper) tx).beginTime = beginTime;
+        }
+        return tx;
+    }
+
+    /**
+     * Enable or disable joining resources to an existing branch. When enabled, a resource
+     * enlisted in a transaction where an active participant reports the same resource manager
+     * through {@link javax.transaction.xa.XAResource#isSameRM(XAResource)} is started on that
+     * participant's branch with TMJOIN, so two pools pointing to the same database take part
+     * in the transaction as a single branch. It is meant for transaction managers which do not
+     * join such resources themselves; the wrappers of those which do refuse it.
+     */
+    public void setJoinSameRM(boolean joinSameRM) {
+        this.joinSameRM = joinSameRM;
+    }
+
+    public boolean isJoinSameRM() {
+        return joinSameRM;
+    }
+
+    /**
+     * Set the number of threads used to prepare and commit the participants of a transaction
+     * in parallel, and to run {@link Transaction#commitAsync()}. When all threads are busy, the
+     * work runs on the calling thread. Zero, the default, keeps the sequential commit of the
+     * underlying transaction manager and releases the threads of a previous setting.
+     */
+    public synchronized void setCommitThreads(int commitThreads) {
+        ThreadPoolExecutor previous = commitExecutor;
+        if (commitThreads > 0) {
+            commitExecutor = new ThreadPoolExecutor(0, commitThreads, 60, TimeUnit.SECONDS,
+                    new SynchronousQueue<>(), ThreadUtils.namedThreadFactory("pax-transx-commit"),
+                    (r, executor) -> r.run());
+        } else {
+            commitExecutor = null;
+        }
+        if (previous != null) {
+            previous.shutdown();
+        }
+    }
+
+    public int getCommitThreads() {
+        ThreadPoolExecutor executor = commitExecutor;
+        return executor != null ? executor.getMaximumPoolSize() : 0;
+    }
+
+    /**
+     * Set the number of threads recovering the registered resources concurrently.
+     * Zero, the default, leaves recovery to the underlying transaction manager only,
+     * and releases the threads of a previous setting.
+     */
+    public synchronized void setRecoveryThreads(int recoveryThreads) {
+        RecoveryOrchestrator previous = recoveryOrchestrator;
+        recoveryOrchestrator = recoveryThreads > 0
+                ? new RecoveryOrchestrator(recoveryThreads, recoveryPrefetchValidity, TimeUnit.MILLISECONDS) : null;
+        if (previous != null) {
+            previous.shutdown();
+        }
+    }
+
+    public int getRecoveryThreads() {
+        RecoveryOrchestrator orchestrator = recoveryOrchestrator;
+        return orchestrator != null ? orchestrator.getThreads() : 0;
+    }
+
+    /**
+     * Set the time in milliseconds during which the scan of a newly registered resource may
+     * answer the first scan of the underlying transaction manager. It should cover the time the
+     * transaction manager takes to scan a resource after its registration, which is its recovery
+     * period when it only recovers from a periodic thread. It applies to the recovery threads
+     * set afterwards.
+     */
+    public void setRecoveryPrefetchValidity(long recoveryPrefetchValidity) {
+        this.recoveryPrefetchValidity = recoveryPrefetchValidity;
+    }
+
+    public long getRecoveryPrefetchValidity() {
+        return recoveryPrefetchValidity;
+    }
+
+    /**
+     * Start scanning a newly registered resource when concurrent recovery is enabled.
+     *
+     * @return the factory to give to the underlying transaction manager
+     */
+    protected ResourceFactory prefetchRecovery(ResourceFactory resource) {
+        RecoveryOrchestrator orchestrator = recoveryOrchestrator;
+        return orchestrator != null ? orchestrator.prefetch(resource) : resource;
+    }
+
+    /**
+     * Run a task recovering a resource, concurrently with other ones when enabled.
+     */
+    protected CompletableFuture<Void> runRecovery(Runnable task) {
+        RecoveryOrchestrator orchestrator = recoveryOrchestrator;
+        if (orchestrator != null) {
+            return orchestrator.submit(task);
+        }
+        task.run();
+        return CompletableFuture.completedFuture(null);
     }
 
     protected TransactionWrapper doCreateTransactionWrapper(javax.transaction.Transaction tx) {
@@ -73,13 +197,46 @@ public abstract class AbstractTransactionManagerWrapper<TM extends javax.transac
     protected class TransactionWrapper implements Transaction {
 
         final WeakReference<javax.transaction.Transaction> transactionWr;
+        final Map<NamedResource, NamedResource> participants = new IdentityHashMap<>();
+        final Map<NamedResource, Participant> joined = new IdentityHashMap<>();
+        final Map<Participant, CompletableFuture<Integer>> prepares = new IdentityHashMap<>();
+        final Map<Participant, CompletableFuture<Void>> commits = new IdentityHashMap<>();
         boolean suspended;
+        /**
+         * Status of the transaction as last observed. It is updated on completion through a
+         * synchronization, when the transaction is marked for rollback through this wrapper or
+         * found marked when registering a synchronization, and whenever the status is read from
+         * the transaction manager. A transaction which is no longer active never becomes active
+         * again, so {@link #isActive()} only queries the transaction manager while it is.
+         */
+        volatile Status status;
+        /**
+         * Jobs to run on completion, or <code>null</code> if the transaction was not active
+         * when the wrapper was created.
+         */
+        final Synchronizations synchronizations;
+        /**
+         * Time the transaction has been begun at, in {@link System#currentTimeMillis()} terms,
+         * when it has been begun through this wrapper, or zero if it is not known.
+         */
+        volatile long beginTime;
 
         public TransactionWrapper(javax.transaction.Transaction transaction) {
             this.transactionWr = new WeakReference<>(Objects.requireNonNull(transaction, "transaction should not be null"));
-            if (isActive()) {
-                synchronization(null, st -> disassociate());
+            this.status = getStatus();
+            Synchronizations syncs = null;
+            if (status == Status.ACTIVE) {
+                syncs = new Synchronizations();
+                try {
+                    getTransaction().registerSynchronization(syncs);
+                } catch (RollbackException e) {
+                    status = Status.MARKED_ROLLBACK;
+                    syncs = null;
+                } catch (SystemException e) {
+                    throw new RuntimeException("Exception caught while registering synchronization", e);
+                }
             }
+            this.synchronizations = syncs;
         }
 
         protected javax.transaction.Transaction getTransaction() throws SystemException {
@@ -87,9 +244,23 @@ public abstract class AbstractTransactionManagerWrapper<TM extends javax.transac
             return transactionWr.get();
         }
 
+        /**
+         * The transaction may have been marked for rollback or rolled back outside of this
+         * wrapper, by a resource, by the timeout of the transaction manager, or through the
+         * transaction manager directly, so an active status is checked again.
+         */
         @Override
         public boolean isActive() {
-            return getStatus() == Status.ACTIVE;
+            return status == Status.ACTIVE && !suspended && getStatus() == Status.ACTIVE;
+        }
+
+        /**
+         * The remaining time is unknown by default. Wrappers of transaction managers exposing
+         * the timeout of their transactions override this method.
+         */
+        @Override
+        public long getRemainingTime() {
+            return Long.MAX_VALUE;
         }
 
         @Override
@@ -111,9 +282,18 @@ public abstract class AbstractTransactionManagerWrapper<TM extends javax.transac
             associate(this);
         }
 
+        /**
+         * Commit the transaction. When a single resource has been enlisted through this wrapper,
+         * its branch is committed in one phase as soon as the transaction manager ends it, once
+         * the synchronizations have been called, so that it is never prepared nor logged.
+         */
         @Override
         public void commit() throws Exception {
             ensureAssociated();
+            Participant sole = soleParticipant();
+            if (sole != null) {
+                sole.onePhase = true;
+            }
             try {
                 getTransaction().commit();
             } finally {
@@ -121,6 +301,38 @@ public abstract class AbstractTransactionManagerWrapper<TM extends javax.transac
             }
         }
 
+        /**
+         * Commit the transaction on a commit thread when {@link #setCommitThreads(int) enabled},
+         * once it has been suspended from the calling thread.
+         */
+        @Override
+        public CompletableFuture<Void> commitAsync() {
+            Executor executor = commitExecutor;
+            if (executor == null) {
+                return Transaction.super.commitAsync();
+            }
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            try {
+                ensureAssociated();
+                if (tm.getTransaction() == getTransaction()) {
+                    tm.suspend();
+                }
+                disassociate();
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+                return future;
+            }
+            executor.execute(() -> {
+                try {
+                    commit();
+                    future.complete(null);
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            });
+            return future;
+        }
+
         @Override
         public void rollback() throws Exception {
             ensureAssociated();
@@ -135,6 +347,7 @@ public abstract class AbstractTransactionManagerWrapper<TM extends javax.transac
         public void setRollbackOnly() throws Exception {
             ensureAssociated();
             getTransaction().setRollbackOnly();
+            status = Status.MARKED_ROLLBACK;
         }
 
         @Override
@@ -143,7 +356,11 @@ public abstract class AbstractTransactionManagerWrapper<TM extends javax.transac
                 if (suspended) {
                     return Status.SUSPENDED;
                 }
-                return toStatus(getTransaction().getStatus());
+                Status current = toStatus(getTransaction().getStatus());
+                if (status == Status.ACTIVE) {
+                    status = current;
+                }
+                return current;
             } catch (SystemException e) {
                 throw new RuntimeException("Exception caught while getting transaction status", e);
             }
@@ -152,18 +369,391 @@ public abstract class AbstractTransactionManagerWrapper<TM extends javax.transac
         @Override
         public void enlistResource(NamedResource xares) throws Exception {
             ensureAssociated();
-            getTransaction().enlistResource(xares);
+            if (!join(xares)) {
+                getTransaction().enlistResource(participant(xares));
+            }
         }
 
         @Override
         public void delistResource(NamedResource xares, int flags) throws Exception {
             ensureAssociated();
-            getTransaction().delistResource(xares, flags);
+            if (!leave(xares, flags)) {
+                getTransaction().delistResource(participants.getOrDefault(xares, xares), flags);
+            }
+        }
+
+        /**
+         * Record a resource taking part in this transaction and return the resource to enlist
+         * with the underlying transaction manager.
+         */
+        protected NamedResource participant(NamedResource xares) {
+            synchronized (participants) {
+                return participants.computeIfAbsent(xares, r -> r instanceof LastResource ? r : new Participant(r));
+            }
+        }
+
+        /**
+         * When joining is enabled, start the resource on the branch of an active participant of
+         * the same resource manager with TMJOIN instead of enlisting a new branch.
+         *
+         * @return <code>true</code> if the resource has been joined to an existing branch
+         */
+        protected boolean join(NamedResource xares) throws XAException {
+            if (!joinSameRM || xares instanceof LastResource) {
+                return false;
+            }
+            synchronized (participants) {
+                for (NamedResource p : participants.values()) {
+                    if (p instanceof AbstractTransactionManagerWrapper.TransactionWrapper.Participant) {
+                        Participant participant = (Participant) p;
+                        if (participant.join(xares)) {
+                            joined.put(xares, participant);
+                            return true;
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * End the association of a joined resource.
+         *
+         * @return <code>true</code> if the resource was joined to the branch of another participant
+         */
+        protected boolean leave(NamedResource xares, int flags) throws XAException {
+            synchronized (participants) {
+                Participant participant = joined.get(xares);
+                if (participant != null) {
+                    participant.leave(xares, flags);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Prepare a participant. When parallel commit is enabled, the first prepare request of
+         * the transaction also prepares the branches of the other participants on the commit
+         * threads, and the later requests of the transaction manager collect their votes.
+         */
+        int prepare(Participant participant, Xid xid) throws XAException {
+            Executor executor = commitExecutor;
+            CompletableFuture<Integer> vote;
+            synchronized (participants) {
+                if (executor != null && prepares.isEmpty()) {
+                    for (NamedResource r : participants.values()) {
+                        if (r != participant && r instanceof AbstractTransactionManagerWrapper.TransactionWrapper.Participant) {
+                            Participant other = (Participant) r;
+                            Xid branchXid = other.branchXid;
+                            if (branchXid != null && !other.joinedBranch) {
+                                prepares.put(other, async(executor, () -> other.delegate.prepare(branchXid)));
+                            }
+                        }
+                    }
+                }
+                vote = prepares.get(participant);
+            }
+            return vote != null ? await(vote) : participant.delegate.prepare(xid);
+        }
+
+        /**
+         * Commit a prepared participant. When parallel commit is enabled, the first commit
+         * request of the transaction also commits the other participants which voted
+         * {@link XAResource#XA_OK} on the commit threads.
+         */
+        void commit(Participant participant, Xid xid) throws XAException {
+            Executor executor = commitExecutor;
+            CompletableFuture<Void> done;
+            synchronized (participants) {
+                if (executor != null && commits.isEmpty() && !prepares.isEmpty()) {
+                    for (Map.Entry<Participant, CompletableFuture<Integer>> e : prepares.entrySet()) {
+                        Participant other = e.getKey();
+                        Xid branchXid = other.branchXid;
+                        if (other != participant && e.getValue().isDone()
+                                && !e.getValue().isCompletedExceptionally()
+                                && e.getValue().join() == XAResource.XA_OK) {
+                            commits.put(other, async(executor, () -> {
+                                other.delegate.commit(branchXid, false);
+                                return null;
+                            }));
+                        }
+                    }
+                }
+                done = commits.get(participant);
+            }
+            if (done != null) {
+                await(done);
+            } else {
+                participant.delegate.commit(xid, false);
+            }
+        }
+
+        /**
+         * Wait for a prepare request issued on a commit thread before rolling back the branch.
+         */
+        void awaitPrepare(Participant participant) {
+            CompletableFuture<Integer> vote;
+            synchronized (participants) {
+                vote = prepares.get(participant);
+            }
+            if (vote != null) {
+                try {
+                    await(vote);
+                } catch (XAException e) {
+                    // the vote is reported by prepare
+                }
+            }
+        }
+
+        /**
+         * Whether the transaction manager is going to roll the transaction back, such as when
+         * a synchronization marked it for rollback before the resources are ended.
+         */
+        boolean isRollingBack() {
+            try {
+                int st = getTransaction().getStatus();
+                return st == javax.transaction.Status.STATUS_MARKED_ROLLBACK
+                        || st == javax.transaction.Status.STATUS_ROLLING_BACK
+                        || st == javax.transaction.Status.STATUS_ROLLEDBACK;
+            } catch (SystemException e) {
+                return true;
+            }
+        }
+
+        /**
+         * The participant whose branch is still associated, if it is the only resource enlisted
+         * through this wrapper and no resource has been joined to it.
+         */
+        Participant soleParticipant() {
+            synchronized (participants) {
+                if (participants.size() != 1 || !joined.isEmpty()) {
+                    return null;
+                }
+                NamedResource r = participants.values().iterator().next();
+                if (r instanceof AbstractTransactionManagerWrapper.TransactionWrapper.Participant
+                        && ((Participant) r).activeXid != null) {
+                    return (Participant) r;
+                }
+                return null;
+            }
+        }
+
+        /**
+         * Decorator of the resources enlisted with the underlying transaction manager.
+         *
+         * When it is the only participant of a transaction committed through the wrapper, it
+         * commits its branch in one phase when the transaction manager ends it. The following
+         * completion requests of the transaction manager report the outcome of that commit:
+         * a prepare request votes ok, a second commit does nothing, and a rollback reports a
+         * heuristic commit. A resource enlisted directly with the transaction manager is thus
+         * completed after this branch, like a last resource, and a failure to prepare it is
+         * reported as a heuristic outcome instead of being hidden.
+         *
+         * It also carries the resources of the same resource manager joined to its branch, whose
+         * associations follow the ones of the branch.
+         */
+        class Participant implements NamedResource {
+
+            final NamedResource delegate;
+            /**
+             * Joined resources, with the flags of their last start or end call.
+             */
+            final Map<NamedResource, Integer> joinedResources = new IdentityHashMap<>();
+            Xid activeXid;
+            /**
+             * Branch of the participant, and whether the transaction manager joined it to the
+             * branch of another resource.
+             */
+            volatile Xid branchXid;
+            volatile boolean joinedBranch;
+            /**
+             * Whether the branch is committed in one phase when it is ended, and whether that
+             * commit has been done, with its failure if any.
+             */
+            volatile boolean onePhase;
+            boolean committed;
+            XAException commitFailure;
+
+            Participant(NamedResource delegate) {
+                this.delegate = delegate;
+            }
+
+            boolean join(NamedResource xares) throws XAException {
+                if (activeXid == null || !delegate.isSameRM(xares)) {
+                    return false;
+                }
+                xares.start(activeXid, XAResource.TMJOIN);
+                joinedResources.put(xares, XAResource.TMJOIN);
+                return true;
+            }
+
+            void leave(NamedResource xares, int flags) throws XAException {
+                if (isAssociated(joinedResources.get(xares))) {
+                    xares.end(activeXid, flags);
+                    joinedResources.put(xares, flags);
+                }
+            }
+
+            private boolean isAssociated(Integer flags) {
+                return flags != null && (flags == XAResource.TMJOIN || flags == XAResource.TMRESUME);
+            }
+
+            @Override
+            public String getName() {
+                return delegate.getName();
+            }
+
+            /**
+             * Commit the branch in one phase, keeping the outcome for the completion requests
+             * of the transaction manager.
+             */
+            private synchronized void commitOnePhase(Xid xid) {
+                try {
+                    delegate.commit(xid, true);
+                } catch (XAException e) {
+                    commitFailure = e;
+                }
+                committed = true;
+            }
+
+            /**
+             * @return <code>true</code> if the branch has been committed in one phase
+             * @throws XAException the failure of that commit
+             */
+            private synchronized boolean committedOnePhase() throws XAException {
+                if (committed && commitFailure != null) {
+                    throw commitFailure;
+                }
+                return committed;
+            }
+
+            @Override
+            public int prepare(Xid xid) throws XAException {
+                if (committedOnePhase()) {
+                    // not read-only, so that a rollback of the transaction reaches this branch
+                    return XAResource.XA_OK;
+                }
+                return TransactionWrapper.this.prepare(this, xid);
+            }
+
+            @Override
+            public void commit(Xid xid, boolean onePhase) throws XAException {
+                if (committedOnePhase()) {
+                    return;
+                }
+                if (onePhase) {
+                    delegate.commit(xid, true);
+                } else {
+                    TransactionWrapper.this.commit(this, xid);
+                }
+            }
+
+            @Override
+            public void rollback(Xid xid) throws XAException {
+                synchronized (this) {
+                    if (committed) {
+                        if (commitFailure == null) {
+                            throw new XAException(XAException.XA_HEURCOM);
+                        }
+                        if (commitFailure.errorCode >= XAException.XA_RBBASE
+                                && commitFailure.errorCode <= XAException.XA_RBEND) {
+                            return;
+                        }
+                    }
+                }
+                awaitPrepare(this);
+                delegate.rollback(xid);
+            }
+
+            @Override
+            public void start(Xid xid, int flags) throws XAException {
+                delegate.start(xid, flags);
+                synchronized (participants) {
+                    activeXid = xid;
+                    if (branchXid == null) {
+                        branchXid = xid;
+                        joinedBranch = flags == XAResource.TMJOIN;
+                    }
+                    if (flags == XAResource.TMRESUME) {
+                        for (Map.Entry<NamedResource, Integer> e : joinedResources.entrySet()) {
+                            if (e.getValue() == XAResource.TMSUSPEND) {
+                                e.getKey().start(xid, XAResource.TMRESUME);
+                                e.setValue(XAResource.TMRESUME);
+                            }
+                        }
+                    }
+                }
+            }
+
+            @Override
+            public void end(Xid xid, int flags) throws XAException {
+                synchronized (participants) {
+                    // joined resources must be ended before the branch is prepared
+                    for (Map.Entry<NamedResource, Integer> e : joinedResources.entrySet()) {
+                        if (isAssociated(e.getValue())) {
+                            e.getKey().end(xid, flags);
+                            e.setValue(flags);
+                        }
+                    }
+                    activeXid = null;
+                }
+                delegate.end(xid, flags);
+                if (onePhase && flags == XAResource.TMSUCCESS && !isRollingBack()) {
+                    commitOnePhase(xid);
+                }
+            }
+
+            @Override
+            public void forget(Xid xid) throws XAException {
+                delegate.forget(xid);
+            }
+
+            @Override
+            public Xid[] recover(int flag) throws XAException {
+                return delegate.recover(flag);
+            }
+
+            @Override
+            public boolean isSameRM(XAResource xares) throws XAException {
+                if (xares instanceof AbstractTransactionManagerWrapper.TransactionWrapper.Participant) {
+                    xares = ((AbstractTransactionManagerWrapper<?>.TransactionWrapper.Participant) xares).delegate;
+                }
+                return delegate.isSameRM(xares);
+            }
+
+            @Override
+            public int getTransactionTimeout() throws XAException {
+                return delegate.getTransactionTimeout();
+            }
+
+            @Override
+            public boolean setTransactionTimeout(int seconds) throws XAException {
+                return delegate.setTransactionTimeout(seconds);
+            }
         }
 
         @Override
         public void synchronization(Runnable pre, Consumer<Status> post) {
             ensureAssociated();
+            if (synchronizations != null) {
+                synchronizations.add(pre, post, false);
+            } else {
+                register(pre, post);
+            }
+        }
+
+        @Override
+        public void interposedSynchronization(Runnable pre, Consumer<Status> post) {
+            ensureAssociated();
+            if (synchronizations != null) {
+                synchronizations.add(pre, post, true);
+            } else {
+                register(pre, post);
+            }
+        }
+
+        private void register(Runnable pre, Consumer<Status> post) {
             try {
                 getTransaction().registerSynchronization(new Synchronization() {
                     @Override
@@ -180,12 +770,109 @@ public abstract class AbstractTransactionManagerWrapper<TM extends javax.transac
                     }
                 });
             } catch (RollbackException e) {
+                status = Status.MARKED_ROLLBACK;
                 throw new IllegalStateException("Transaction is marked for rollback", e);
             } catch (SystemException e) {
                 throw new RuntimeException("Exception caught while registering synchronization", e);
             }
         }
 
+        /**
+         * The single synchronization registered with the transaction manager, which calls the
+         * jobs added through this wrapper. Before completion, regular jobs are called in the
+         * order they have been added, then interposed ones. After completion, interposed jobs
+         * are called first.
+         *
+         * This is a regular synchronization of the transaction manager: interposed jobs are
+         * only ordered relatively to the jobs added through this wrapper, not to the
+         * synchronizations registered directly with the transaction manager.
+         */
+        final class Synchronizations implements Synchronization {
+
+            private Object[] callbacks = new Object[8];
+            private int size;
+            private int interposed;
+            private boolean completed;
+
+            synchronized void add(Runnable pre, Consumer<Status> post, boolean isInterposed) {
+                if (completed) {
+                    throw new IllegalStateException("Transaction has completed");
+                }
+                if (size + 3 > callbacks.length) {
+                    callbacks = Arrays.copyOf(callbacks, callbacks.length * 2);
+                }
+                callbacks[size++] = pre;
+                callbacks[size++] = post;
+                callbacks[size++] = isInterposed ? Boolean.TRUE : Boolean.FALSE;
+                if (isInterposed) {
+                    interposed++;
+                }
+            }
+
+            @Override
+            public void beforeCompletion() {
+                // jobs may add other jobs while running, so the size is read on each iteration
+                runBefore(false);
+                runBefore(true);
+            }
+
+            private void runBefore(boolean isInterposed) {
+                for (int i = 0; ; i += 3) {
+                    Runnable pre;
+                    synchronized (this) {
+                        if (i >= size) {
+                            return;
+                        }
+                        if ((callbacks[i + 2] == Boolean.TRUE) != isInterposed) {
+                            continue;
+                        }
+                        pre = (Runnable) callbacks[i];
+                    }
+                    if (pre != null) {
+                        pre.run();
+                    }
+                }
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public void afterCompletion(int st) {
+                Status completion = toStatus(st);
+                status = completion;
+                Object[] cbs;
+                int n;
+                int ip;
+                synchronized (this) {
+                    completed = true;
+                    cbs = callbacks;
+                    n = size;
+                    ip = interposed;
+                }
+                RuntimeException failure = null;
+                for (int pass = ip > 0 ? 0 : 1; pass < 2; pass++) {
+                    boolean isInterposed = pass == 0;
+                    for (int i = 0; i < n; i += 3) {
+                        Consumer<Status> post = (Consumer<Status>) cbs[i + 1];
+                        if (post != null && (cbs[i + 2] == Boolean.TRUE) == isInterposed) {
+                            try {
+                                post.accept(completion);
+                            } catch (RuntimeException e) {
+                                if (failure == null) {
+                                    failure = e;
+                                } else {
+                                    failure.addSuppressed(e);
+                                }
+                            }
+                        }
+                    }
+                }
+                disassociate();
+                if (failure != null) {
+                    throw failure;
+                }
+            }
+        }
+
         protected void ensureAssociated() {
             if (suspended) {
                 throw new IllegalStateException("Transaction is suspended");
@@ -194,6 +881,33 @@ public abstract class AbstractTransactionManagerWrapper<TM extends javax.transac
 
     }
 
+    private static <T> CompletableFuture<T> async(Executor executor, XACallable<T> callable) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                future.complete(callable.call());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        return future;
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws XAException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof XAException) {
+                throw (XAException) e.getCause();
+            }
+            throw (XAException) new XAException(XAException.XAER_RMERR).initCause(e.getCause());
+        }
+    }
+
+    private interface XACallable<T> {
+        T call() throws XAException;
+    }
+
     protected static Status toStatus(int status) {
         switch (status) {
             case javax.transaction.Status.STATUS_ACTIVE:
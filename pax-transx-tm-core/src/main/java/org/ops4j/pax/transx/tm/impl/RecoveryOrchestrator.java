@@ -0,0 +1,275 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.tm.impl;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+import org.ops4j.pax.transx.tm.NamedResource;
+import org.ops4j.pax.transx.tm.ResourceFactory;
+
+/**
+ * Runs the recovery work of the registered resources concurrently.
+ *
+ * Transaction managers recover their resources one after the other, either when they are
+ * registered or from a periodic recovery thread. The orchestrator scans each resource for
+ * in-doubt branches as soon as it is registered, on a bounded pool of threads. The scan the
+ * transaction manager runs first after registering the resource is answered from that result,
+ * if it starts while the prefetch is running or within the validity of the prefetch after it
+ * has completed. Transaction managers scanning a resource from a periodic recovery thread only
+ * should use a validity covering their recovery period. Any later scan goes to the resource.
+ * The transaction manager stays in charge of resolving the branches.
+ */
+public class RecoveryOrchestrator {
+
+    private static final Logger LOG = Logger.getLogger(RecoveryOrchestrator.class.getName());
+
+    /**
+     * Default time in milliseconds after the completion of a prefetched scan during which its
+     * result may be used, suited to transaction managers scanning a resource when registering it.
+     */
+    public static final long DEFAULT_PREFETCH_VALIDITY = 10_000;
+
+    private final ThreadPoolExecutor executor;
+    private final long validity;
+
+    public RecoveryOrchestrator(int threads) {
+        this(threads, DEFAULT_PREFETCH_VALIDITY, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param threads the number of threads scanning the resources
+     * @param validity the time after the completion of a prefetched scan during which its result may be used
+     * @param unit the unit of the validity
+     */
+    public RecoveryOrchestrator(int threads, long validity, TimeUnit unit) {
+        this(threads, unit.toNanos(validity));
+    }
+
+    RecoveryOrchestrator(int threads, long validity) {
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), ThreadUtils.namedThreadFactory("pax-transx-recovery"));
+        this.executor.allowCoreThreadTimeOut(true);
+        this.validity = validity;
+    }
+
+    public int getThreads() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * Run a recovery task, such as the registration of a resource with a transaction manager
+     * recovering it synchronously.
+     */
+    public CompletableFuture<Void> submit(Runnable task) {
+        return CompletableFuture.runAsync(task, executor);
+    }
+
+    /**
+     * Start scanning a resource and return a factory answering the registration-time scan
+     * from the result.
+     */
+    public ResourceFactory prefetch(ResourceFactory factory) {
+        Prefetch prefetch = new Prefetch(validity);
+        prefetch.scan = CompletableFuture.supplyAsync(() -> {
+            try {
+                return scan(factory);
+            } finally {
+                prefetch.completed = System.nanoTime();
+            }
+        }, executor);
+        return new PrefetchingResourceFactory(factory, prefetch);
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private static Xid[] scan(ResourceFactory factory) {
+        NamedResource resource = factory.create();
+        try {
+            return resource.recover(XAResource.TMSTARTRSCAN | XAResource.TMENDRSCAN);
+        } catch (XAException e) {
+            throw new CompletionException(e);
+        } finally {
+            factory.release(resource);
+        }
+    }
+
+    /**
+     * A prefetched scan, used at most once.
+     */
+    static final class Prefetch {
+
+        private final long validity;
+        volatile CompletableFuture<Xid[]> scan;
+        volatile long completed;
+        private boolean used;
+
+        Prefetch(long validity) {
+            this.validity = validity;
+        }
+
+        /**
+         * Take the prefetched scan if it has not been used yet and is still running or has
+         * completed recently.
+         *
+         * @return the scan, or null if the resource must be scanned
+         */
+        synchronized CompletableFuture<Xid[]> take() {
+            if (used) {
+                return null;
+            }
+            used = true;
+            CompletableFuture<Xid[]> result = scan;
+            if (result.isDone() && System.nanoTime() - completed > validity) {
+                return null;
+            }
+            return result;
+        }
+    }
+
+    static final class PrefetchingResourceFactory implements ResourceFactory {
+
+        private final ResourceFactory delegate;
+        private final Prefetch prefetch;
+        private boolean created;
+
+        PrefetchingResourceFactory(ResourceFactory delegate, Prefetch prefetch) {
+            this.delegate = delegate;
+            this.prefetch = prefetch;
+        }
+
+        @Override
+        public String getName() {
+            return delegate.getName();
+        }
+
+        @Override
+        public NamedResource create() {
+            NamedResource resource = delegate.create();
+            synchronized (this) {
+                if (created) {
+                    return resource;
+                }
+                created = true;
+            }
+            return new PrefetchedResource(resource, prefetch);
+        }
+
+        @Override
+        public void release(NamedResource resource) {
+            delegate.release(resource instanceof PrefetchedResource ? ((PrefetchedResource) resource).delegate : resource);
+        }
+    }
+
+    /**
+     * Resource whose first recovery scan returns the prefetched branches, if it is still valid
+     * when that scan starts. The prefetched scan covers all the branches, so the following
+     * calls of the same scan return none.
+     */
+    static final class PrefetchedResource implements NamedResource {
+
+        private final NamedResource delegate;
+        private final Prefetch prefetch;
+        private boolean inPrefetchedScan;
+
+        PrefetchedResource(NamedResource delegate, Prefetch prefetch) {
+            this.delegate = delegate;
+            this.prefetch = prefetch;
+        }
+
+        @Override
+        public synchronized Xid[] recover(int flag) throws XAException {
+            if ((flag & XAResource.TMSTARTRSCAN) != 0) {
+                inPrefetchedScan = false;
+                CompletableFuture<Xid[]> scan = prefetch.take();
+                if (scan != null) {
+                    try {
+                        Xid[] xids = scan.join();
+                        inPrefetchedScan = (flag & XAResource.TMENDRSCAN) == 0;
+                        return xids;
+                    } catch (CompletionException e) {
+                        LOG.log(Level.FINE, "Prefetched recovery scan of " + getName() + " failed, scanning again", e.getCause());
+                    }
+                }
+            } else if (inPrefetchedScan) {
+                inPrefetchedScan = (flag & XAResource.TMENDRSCAN) == 0;
+                return new Xid[0];
+            }
+            return delegate.recover(flag);
+        }
+
+        @Override
+        public String getName() {
+            return delegate.getName();
+        }
+
+        @Override
+        public void commit(Xid xid, boolean onePhase) throws XAException {
+            delegate.commit(xid, onePhase);
+        }
+
+        @Override
+        public void end(Xid xid, int flags) throws XAException {
+            delegate.end(xid, flags);
+        }
+
+        @Override
+        public void forget(Xid xid) throws XAException {
+            delegate.forget(xid);
+        }
+
+        @Override
+        public int getTransactionTimeout() throws XAException {
+            return delegate.getTransactionTimeout();
+        }
+
+        @Override
+        public boolean isSameRM(XAResource xares) throws XAException {
+            return delegate.isSameRM(xares);
+        }
+
+        @Override
+        public int prepare(Xid xid) throws XAException {
+            return delegate.prepare(xid);
+        }
+
+        @Override
+        public void rollback(Xid xid) throws XAException {
+            delegate.rollback(xid);
+        }
+
+        @Override
+        public boolean setTransactionTimeout(int seconds) throws XAException {
+            return delegate.setTransactionTimeout(seconds);
+        }
+
+        @Override
+        public void start(Xid xid, int flags) throws XAException {
+            delegate.start(xid, flags);
+        }
+    }
+
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.tm.impl;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+import org.junit.After;
+import org.junit.Test;
+import org.ops4j.pax.transx.tm.NamedResource;
+import org.ops4j.pax.transx.tm.ResourceFactory;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RecoveryOrchestratorTest {
+
+    private static final long VALIDITY = TimeUnit.MINUTES.toNanos(1);
+
+    private RecoveryOrchestrator orchestrator;
+
+    @After
+    public void tearDown() {
+        if (orchestrator != null) {
+            orchestrator.shutdown();
+        }
+    }
+
+    @Test
+    public void testRegistrationScanUsesPrefetch() throws Exception {
+        orchestrator = new RecoveryOrchestrator(1, VALIDITY);
+        StubFactory stub = new StubFactory("res1", xid("a"));
+        ResourceFactory factory = orchestrator.prefetch(stub);
+        stub.awaitScan();
+        stub.inDoubt = new Xid[] { xid("b") };
+
+        NamedResource resource = factory.create();
+        assertArrayEquals(new Xid[] { xid("a") }, resource.recover(XAResource.TMSTARTRSCAN));
+        assertEquals(0, resource.recover(XAResource.TMENDRSCAN).length);
+        factory.release(resource);
+        assertEquals(1, stub.scans.get());
+
+        // the periodic scans go to the resource
+        assertArrayEquals(new Xid[] { xid("b") }, scan(factory));
+        assertEquals(2, stub.scans.get());
+    }
+
+    @Test
+    public void testLaterScanOfSameResourceGoesToResource() throws Exception {
+        orchestrator = new RecoveryOrchestrator(1, VALIDITY);
+        StubFactory stub = new StubFactory("res1", xid("a"));
+        ResourceFactory factory = orchestrator.prefetch(stub);
+        stub.awaitScan();
+
+        NamedResource resource = factory.create();
+        assertArrayEquals(new Xid[] { xid("a") }, resource.recover(XAResource.TMSTARTRSCAN));
+        stub.inDoubt = new Xid[0];
+        assertEquals(0, resource.recover(XAResource.TMSTARTRSCAN | XAResource.TMENDRSCAN).length);
+        assertEquals(2, stub.scans.get());
+    }
+
+    @Test
+    public void testExpiredPrefetchIsNotUsed() throws Exception {
+        orchestrator = new RecoveryOrchestrator(1, 1);
+        StubFactory stub = new StubFactory("res1", xid("a"));
+        ResourceFactory factory = orchestrator.prefetch(stub);
+        stub.awaitScan();
+        stub.inDoubt = new Xid[] { xid("b") };
+        Thread.sleep(10);
+
+        assertArrayEquals(new Xid[] { xid("b") }, scan(factory));
+        assertEquals(2, stub.scans.get());
+    }
+
+    @Test
+    public void testScanStartedDuringPrefetchWaitsForIt() throws Exception {
+        orchestrator = new RecoveryOrchestrator(1, 1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        StubFactory stub = new StubFactory("res1", xid("a"));
+        stub.onScan = () -> await(proceed);
+        ResourceFactory factory = orchestrator.prefetch(stub);
+        CompletableFuture.runAsync(() -> {
+            sleep(200);
+            stub.onScan = () -> { };
+            proceed.countDown();
+        });
+
+        assertArrayEquals(new Xid[] { xid("a") }, scan(factory));
+        assertEquals(1, stub.scans.get());
+    }
+
+    @Test
+    public void testConcurrentRegistration() throws Exception {
+        orchestrator = new RecoveryOrchestrator(2, VALIDITY);
+        CyclicBarrier barrier = new CyclicBarrier(2);
+        StubFactory stub1 = new StubFactory("res1", xid("a"));
+        StubFactory stub2 = new StubFactory("res2", xid("b"));
+        // each prefetch only completes if the other one runs at the same time
+        stub1.onScan = () -> await(barrier);
+        stub2.onScan = () -> await(barrier);
+        ResourceFactory factory1 = orchestrator.prefetch(stub1);
+        ResourceFactory factory2 = orchestrator.prefetch(stub2);
+        stub1.awaitScan();
+        stub2.awaitScan();
+
+        assertArrayEquals(new Xid[] { xid("a") }, scan(factory1));
+        assertArrayEquals(new Xid[] { xid("b") }, scan(factory2));
+        assertEquals(1, stub1.scans.get());
+        assertEquals(1, stub2.scans.get());
+    }
+
+    @Test
+    public void testFailedPrefetchScansAgain() throws Exception {
+        orchestrator = new RecoveryOrchestrator(1, VALIDITY);
+        StubFactory stub = new StubFactory("res1", xid("a"));
+        stub.failures = 1;
+        ResourceFactory factory = orchestrator.prefetch(stub);
+        stub.awaitScan();
+
+        assertArrayEquals(new Xid[] { xid("a") }, scan(factory));
+        assertEquals(2, stub.scans.get());
+    }
+
+    @Test
+    public void testFailureIsPropagated() throws Exception {
+        orchestrator = new RecoveryOrchestrator(1, VALIDITY);
+        StubFactory stub = new StubFactory("res1", xid("a"));
+        stub.failures = 2;
+        ResourceFactory factory = orchestrator.prefetch(stub);
+        stub.awaitScan();
+
+        try {
+            scan(factory);
+            throw new AssertionError("Expected XAException");
+        } catch (XAException e) {
+            assertEquals(XAException.XAER_RMERR, e.errorCode);
+        }
+        assertEquals(2, stub.scans.get());
+        assertTrue(stub.released.availablePermits() > 0);
+    }
+
+    private static Xid[] scan(ResourceFactory factory) throws XAException {
+        NamedResource resource = factory.create();
+        try {
+            return resource.recover(XAResource.TMSTARTRSCAN | XAResource.TMENDRSCAN);
+        } finally {
+            factory.release(resource);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await(5, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Xid xid(String gtrid) {
+        return new StubXid(gtrid);
+    }
+
+    static class StubFactory implements ResourceFactory {
+
+        final String name;
+        final AtomicInteger scans = new AtomicInteger();
+        final Semaphore released = new Semaphore(0);
+        volatile Xid[] inDoubt;
+        volatile int failures;
+        volatile Runnable onScan = () -> { };
+
+        StubFactory(String name, Xid... inDoubt) {
+            this.name = name;
+            this.inDoubt = inDoubt;
+        }
+
+        void awaitScan() throws InterruptedException {
+            assertTrue(released.tryAcquire(5, TimeUnit.SECONDS));
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public NamedResource create() {
+            return new StubResource(this);
+        }
+
+        @Override
+        public void release(NamedResource resource) {
+            assertTrue(resource instanceof StubResource);
+            released.release();
+        }
+    }
+
+    static class StubResource implements NamedResource {
+
+        private final StubFactory factory;
+
+        StubResource(StubFactory factory) {
+            this.factory = factory;
+        }
+
+        @Override
+        public String getName() {
+            return factory.name;
+        }
+
+        @Override
+        public Xid[] recover(int flag) throws XAException {
+            if ((flag & XAResource.TMSTARTRSCAN) == 0) {
+                return new Xid[0];
+            }
+            factory.scans.incrementAndGet();
+            factory.onScan.run();
+            if (factory.failures > 0) {
+                factory.failures--;
+                throw new XAException(XAException.XAER_RMERR);
+            }
+            return factory.inDoubt;
+        }
+
+        @Override
+        public void commit(Xid xid, boolean onePhase) {
+        }
+
+        @Override
+        public void end(Xid xid, int flags) {
+        }
+
+        @Override
+        public void forget(Xid xid) {
+        }
+
+        @Override
+        public int getTransactionTimeout() {
+            return 0;
+        }
+
+        @Override
+        public boolean isSameRM(XAResource xares) {
+            return xares == this;
+        }
+
+        @Override
+        public int prepare(Xid xid) {
+            return XA_OK;
+        }
+
+        @Override
+        public void rollback(Xid xid) {
+        }
+
+        @Override
+        public boolean setTransactionTimeout(int seconds) {
+            return false;
+        }
+
+        @Override
+        public void start(Xid xid, int flags) {
+        }
+    }
+
+    static class StubXid implements Xid {
+
+        private final byte[] gtrid;
+
+        StubXid(String gtrid) {
+            this.gtrid = gtrid.getBytes();
+        }
+
+        @Override
+        public int getFormatId() {
+            return 1;
+        }
+
+        @Override
+        public byte[] getGlobalTransactionId() {
+            return gtrid;
+        }
+
+        @Override
+        public byte[] getBranchQualifier() {
+            return new byte[0];
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof StubXid && Arrays.equals(gtrid, ((StubXid) o).gtrid);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(gtrid);
+        }
+    }
+
+}
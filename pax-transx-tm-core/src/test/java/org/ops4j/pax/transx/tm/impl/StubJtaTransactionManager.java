@@ -0,0 +1,248 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.tm.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.transaction.HeuristicMixedException;
+import javax.transaction.RollbackException;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.SystemException;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+/**
+ * Transaction manager completing its transactions like Geronimo does: the synchronizations
+ * are called and the resources ended before a single resource is committed in one phase, or
+ * several resources are prepared and committed.
+ */
+class StubJtaTransactionManager implements TransactionManager {
+
+    private final ThreadLocal<StubJtaTransaction> current = new ThreadLocal<>();
+    private int count;
+
+    @Override
+    public void begin() {
+        current.set(new StubJtaTransaction("tx" + ++count));
+    }
+
+    @Override
+    public void commit() throws RollbackException, HeuristicMixedException, SystemException {
+        getTransaction().commit();
+    }
+
+    @Override
+    public void rollback() throws SystemException {
+        getTransaction().rollback();
+    }
+
+    @Override
+    public void setRollbackOnly() throws SystemException {
+        getTransaction().setRollbackOnly();
+    }
+
+    @Override
+    public int getStatus() throws SystemException {
+        StubJtaTransaction tx = current.get();
+        return tx != null ? tx.getStatus() : Status.STATUS_NO_TRANSACTION;
+    }
+
+    @Override
+    public StubJtaTransaction getTransaction() {
+        return current.get();
+    }
+
+    @Override
+    public void setTransactionTimeout(int seconds) {
+    }
+
+    @Override
+    public Transaction suspend() {
+        StubJtaTransaction tx = current.get();
+        current.remove();
+        return tx;
+    }
+
+    @Override
+    public void resume(Transaction tx) {
+        current.set((StubJtaTransaction) tx);
+    }
+
+    class StubJtaTransaction implements Transaction {
+
+        final String gtrid;
+        final List<XAResource> resources = new ArrayList<>();
+        final List<Synchronization> synchronizations = new ArrayList<>();
+        int status = Status.STATUS_ACTIVE;
+
+        StubJtaTransaction(String gtrid) {
+            this.gtrid = gtrid;
+        }
+
+        Xid xid(XAResource resource) {
+            return new BranchXid(gtrid, resources.indexOf(resource));
+        }
+
+        @Override
+        public void commit() throws RollbackException, HeuristicMixedException, SystemException {
+            try {
+                synchronizations.forEach(Synchronization::beforeCompletion);
+                if (status == Status.STATUS_MARKED_ROLLBACK) {
+                    end(XAResource.TMFAIL);
+                    rollbackResources();
+                    throw new RollbackException("Transaction marked for rollback");
+                }
+                end(XAResource.TMSUCCESS);
+                if (resources.size() == 1) {
+                    resources.get(0).commit(xid(resources.get(0)), true);
+                } else {
+                    status = Status.STATUS_PREPARING;
+                    for (XAResource r : resources) {
+                        try {
+                            r.prepare(xid(r));
+                        } catch (XAException e) {
+                            try {
+                                rollbackResources();
+                            } catch (XAException h) {
+                                if (h.errorCode == XAException.XA_HEURCOM) {
+                                    status = Status.STATUS_UNKNOWN;
+                                    throw new HeuristicMixedException("Prepare failed after a branch committed");
+                                }
+                                throw h;
+                            }
+                            throw new RollbackException("Prepare failed");
+                        }
+                    }
+                    for (XAResource r : resources) {
+                        r.commit(xid(r), false);
+                    }
+                }
+                status = Status.STATUS_COMMITTED;
+            } catch (XAException e) {
+                status = Status.STATUS_ROLLEDBACK;
+                throw new RollbackException(e.toString());
+            } finally {
+                current.remove();
+                int st = status;
+                synchronizations.forEach(s -> s.afterCompletion(st));
+            }
+        }
+
+        @Override
+        public void rollback() throws SystemException {
+            try {
+                end(XAResource.TMFAIL);
+                rollbackResources();
+            } catch (XAException e) {
+                throw new SystemException(e.toString());
+            } finally {
+                current.remove();
+                synchronizations.forEach(s -> s.afterCompletion(Status.STATUS_ROLLEDBACK));
+            }
+        }
+
+        private void end(int flags) throws XAException {
+            for (XAResource r : resources) {
+                r.end(xid(r), flags);
+            }
+        }
+
+        private void rollbackResources() throws XAException {
+            status = Status.STATUS_ROLLING_BACK;
+            for (XAResource r : resources) {
+                r.rollback(xid(r));
+            }
+            status = Status.STATUS_ROLLEDBACK;
+        }
+
+        @Override
+        public boolean enlistResource(XAResource xares) throws RollbackException, SystemException {
+            if (status == Status.STATUS_MARKED_ROLLBACK) {
+                throw new RollbackException("Transaction marked for rollback");
+            }
+            resources.add(xares);
+            try {
+                xares.start(xid(xares), XAResource.TMNOFLAGS);
+            } catch (XAException e) {
+                throw new SystemException(e.toString());
+            }
+            return true;
+        }
+
+        @Override
+        public boolean delistResource(XAResource xares, int flags) throws SystemException {
+            try {
+                xares.end(xid(xares), flags);
+            } catch (XAException e) {
+                throw new SystemException(e.toString());
+            }
+            return true;
+        }
+
+        @Override
+        public int getStatus() {
+            return status;
+        }
+
+        @Override
+        public void registerSynchronization(Synchronization sync) throws RollbackException {
+            if (status == Status.STATUS_MARKED_ROLLBACK) {
+                throw new RollbackException("Transaction marked for rollback");
+            }
+            synchronizations.add(sync);
+        }
+
+        @Override
+        public void setRollbackOnly() {
+            status = Status.STATUS_MARKED_ROLLBACK;
+        }
+    }
+
+    static class BranchXid implements Xid {
+
+        private final byte[] gtrid;
+        private final byte[] bqual;
+
+        BranchXid(String gtrid, int branch) {
+            this.gtrid = gtrid.getBytes();
+            this.bqual = new byte[] { (byte) branch };
+        }
+
+        @Override
+        public int getFormatId() {
+            return 1;
+        }
+
+        @Override
+        public byte[] getGlobalTransactionId() {
+            return gtrid;
+        }
+
+        @Override
+        public byte[] getBranchQualifier() {
+            return bqual;
+        }
+
+        @Override
+        public String toString() {
+            return new String(gtrid) + "-" + bqual[0];
+        }
+    }
+}
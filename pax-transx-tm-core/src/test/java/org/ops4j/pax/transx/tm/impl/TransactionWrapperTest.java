@@ -0,0 +1,252 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.tm.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.transaction.HeuristicMixedException;
+import javax.transaction.RollbackException;
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.pax.transx.tm.NamedResource;
+import org.ops4j.pax.transx.tm.ResourceFactory;
+import org.ops4j.pax.transx.tm.Status;
+import org.ops4j.pax.transx.tm.Transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TransactionWrapperTest {
+
+    private StubJtaTransactionManager jtm;
+    private AbstractTransactionManagerWrapper<StubJtaTransactionManager> tm;
+
+    @Before
+    public void setUp() {
+        jtm = new StubJtaTransactionManager();
+        tm = new AbstractTransactionManagerWrapper<StubJtaTransactionManager>(jtm) {
+            @Override
+            public boolean isLastResourceCommitSupported() {
+                return false;
+            }
+
+            @Override
+            public void registerResource(ResourceFactory resource) {
+            }
+
+            @Override
+            public void unregisterResource(String name) {
+            }
+
+            @Override
+            public ResourceFactory getResource(String name) {
+                return null;
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        tm.setRecoveryThreads(0);
+    }
+
+    @Test
+    public void testOnePhaseCommitAfterSynchronizations() throws Exception {
+        RecordingResource r1 = new RecordingResource();
+        Transaction tx = tm.begin();
+        tx.enlistResource(r1);
+        tx.synchronization(() -> r1.calls.add("beforeCompletion"), null);
+        tx.commit();
+
+        assertEquals(Arrays.asList("start", "beforeCompletion", "end", "commit 1pc"), r1.calls);
+    }
+
+    @Test
+    public void testOnePhaseCommitWithResourceEnlistedDirectly() throws Exception {
+        RecordingResource r1 = new RecordingResource();
+        RecordingResource raw = new RecordingResource();
+        Transaction tx = tm.begin();
+        tx.enlistResource(r1);
+        jtm.getTransaction().enlistResource(raw);
+        tx.commit();
+
+        // the branch enlisted through the wrapper is committed first, like a last resource
+        assertEquals(Arrays.asList("start", "end", "commit 1pc"), r1.calls);
+        assertEquals(Arrays.asList("start", "end", "prepare", "commit"), raw.calls);
+    }
+
+    @Test
+    public void testFailedPrepareAfterOnePhaseCommitIsHeuristic() throws Exception {
+        RecordingResource r1 = new RecordingResource();
+        RecordingResource raw = new RecordingResource();
+        raw.prepareFailure = new XAException(XAException.XA_RBROLLBACK);
+        Transaction tx = tm.begin();
+        tx.enlistResource(r1);
+        jtm.getTransaction().enlistResource(raw);
+        try {
+            tx.commit();
+            fail("Expected a heuristic outcome");
+        } catch (HeuristicMixedException e) {
+            // the committed branch refused to roll back
+        }
+        assertEquals(Arrays.asList("start", "end", "commit 1pc"), r1.calls);
+    }
+
+    @Test
+    public void testRollbackOnlySetOnTransactionManager() throws Exception {
+        Transaction tx = tm.begin();
+        assertTrue(tx.isActive());
+
+        jtm.getTransaction().setRollbackOnly();
+        assertFalse(tx.isActive());
+        assertEquals(Status.MARKED_ROLLBACK, tx.getStatus());
+        tx.rollback();
+        assertFalse(tx.isActive());
+    }
+
+    @Test
+    public void testTwoPhaseCommitWithTwoParticipants() throws Exception {
+        RecordingResource r1 = new RecordingResource();
+        RecordingResource r2 = new RecordingResource();
+        Transaction tx = tm.begin();
+        tx.enlistResource(r1);
+        tx.enlistResource(r2);
+        tx.commit();
+
+        assertEquals(Arrays.asList("start", "end", "prepare", "commit"), r1.calls);
+        assertEquals(Arrays.asList("start", "end", "prepare", "commit"), r2.calls);
+    }
+
+    @Test
+    public void testNoOnePhaseCommitWhenMarkedRollbackBySynchronization() throws Exception {
+        RecordingResource r1 = new RecordingResource();
+        Transaction tx = tm.begin();
+        tx.enlistResource(r1);
+        tx.synchronization(() -> jtm.getTransaction().setRollbackOnly(), null);
+        try {
+            tx.commit();
+            fail("Expected a RollbackException");
+        } catch (RollbackException e) {
+            // expected
+        }
+        assertEquals(Arrays.asList("start", "end", "rollback"), r1.calls);
+    }
+
+    @Test
+    public void testRecoveryPrefetchValidity() throws Exception {
+        tm.setRecoveryPrefetchValidity(1);
+        tm.setRecoveryThreads(1);
+        RecoveryOrchestratorTest.StubFactory expired = new RecoveryOrchestratorTest.StubFactory("res1");
+        ResourceFactory factory = tm.prefetchRecovery(expired);
+        expired.awaitScan();
+        Thread.sleep(10);
+        recover(factory);
+        assertEquals(2, expired.scans.get());
+
+        // a validity covering the recovery period keeps the prefetch for the next scan
+        tm.setRecoveryPrefetchValidity(TimeUnit.MINUTES.toMillis(2));
+        tm.setRecoveryThreads(1);
+        RecoveryOrchestratorTest.StubFactory valid = new RecoveryOrchestratorTest.StubFactory("res2");
+        factory = tm.prefetchRecovery(valid);
+        valid.awaitScan();
+        Thread.sleep(10);
+        recover(factory);
+        assertEquals(1, valid.scans.get());
+    }
+
+    private static void recover(ResourceFactory factory) throws XAException {
+        NamedResource resource = factory.create();
+        try {
+            resource.recover(XAResource.TMSTARTRSCAN | XAResource.TMENDRSCAN);
+        } finally {
+            factory.release(resource);
+        }
+    }
+
+    static class RecordingResource implements NamedResource {
+
+        final List<String> calls = new ArrayList<>();
+        XAException prepareFailure;
+
+        @Override
+        public String getName() {
+            return "recording";
+        }
+
+        @Override
+        public void start(Xid xid, int flags) {
+            calls.add("start");
+        }
+
+        @Override
+        public void end(Xid xid, int flags) {
+            calls.add("end");
+        }
+
+        @Override
+        public int prepare(Xid xid) throws XAException {
+            calls.add("prepare");
+            if (prepareFailure != null) {
+                throw prepareFailure;
+            }
+            return XA_OK;
+        }
+
+        @Override
+        public void commit(Xid xid, boolean onePhase) {
+            calls.add(onePhase ? "commit 1pc" : "commit");
+        }
+
+        @Override
+        public void rollback(Xid xid) {
+            calls.add("rollback");
+        }
+
+        @Override
+        public void forget(Xid xid) {
+        }
+
+        @Override
+        public Xid[] recover(int flag) {
+            return new Xid[0];
+        }
+
+        @Override
+        public boolean isSameRM(XAResource xares) {
+            return xares == this;
+        }
+
+        @Override
+        public int getTransactionTimeout() {
+            return 0;
+        }
+
+        @Override
+        public boolean setTransactionTimeout(int seconds) {
+            return false;
+        }
+    }
+
+}
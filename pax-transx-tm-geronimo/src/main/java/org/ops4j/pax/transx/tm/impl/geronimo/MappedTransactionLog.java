@@ -0,0 +1,632 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.tm.impl.geronimo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import javax.transaction.xa.Xid;
+
+import org.apache.geronimo.transaction.manager.LogException;
+import org.apache.geronimo.transaction.manager.Recovery;
+import org.apache.geronimo.transaction.manager.TransactionBranchInfo;
+import org.apache.geronimo.transaction.manager.TransactionBranchInfoImpl;
+import org.apache.geronimo.transaction.manager.TransactionLog;
+import org.apache.geronimo.transaction.manager.XidFactory;
+
+/**
+ * Append-only transaction log written to memory-mapped segment files.
+ *
+ * Each record is made of its length, a CRC32 checksum, its type and its content. A prepare
+ * record holds the global transaction id and the branches, and is forced to disk before
+ * {@link #prepare(Xid, List)} returns: threads preparing concurrently share a single force.
+ * Commit and rollback records only hold the global transaction id and are not forced, as
+ * recovery can always complete a prepared transaction again.
+ *
+ * When a record does not fit in the current segment, a new one is started and the prepare
+ * records of the transactions which have not completed yet are copied into it, oldest first,
+ * as long as they fit. Segments are deleted, oldest first, once none of the transactions
+ * prepared in them is pending, so that a single long in-doubt transaction does not hold
+ * all the segments written after it.
+ * Recovery reads the segments in order and stops reading a segment at the first record
+ * which is incomplete or fails its checksum.
+ *
+ * When a maximum group commit delay is set, the thread about to force the log may first wait
+ * for the records of concurrent transactions, so that they share the force. The delay is
+ * derived from moving averages of the time a force takes and of the interval between
+ * prepares: no delay when less than one prepare arrives during a force, otherwise up to the
+ * duration of a force, ended as soon as the records expected during that time have been
+ * appended. The delay itself is not part of the measured force time.
+ */
+public class MappedTransactionLog implements TransactionLog, TransactionLogMXBean {
+
+    private static final Logger LOG = Logger.getLogger(MappedTransactionLog.class.getName());
+
+    private static final byte PREPARE = 1;
+    private static final byte COMMIT = 2;
+    private static final byte ROLLBACK = 3;
+
+    private static final int HEADER_SIZE = 8;
+    private static final String EXTENSION = ".log";
+
+    private static final int MAX_GROUP_SIZE = 256;
+    /**
+     * Weight of a new sample in the moving averages of the force time and prepare interval.
+     */
+    private static final double SMOOTHING = 0.125;
+
+    private final File directory;
+    private final String fileName;
+    private final int segmentSize;
+    private final long maxGroupCommitDelay;
+
+    /**
+     * Segments by sequence number, with the number of transactions prepared in them
+     * and not completed yet.
+     */
+    private final TreeMap<Long, AtomicInteger> segments = new TreeMap<>();
+    /**
+     * Prepare records of the transactions not completed yet, oldest first.
+     */
+    private final Map<XidKey, Pending> pending = new LinkedHashMap<>();
+    private final Object forceLock = new Object();
+    private final LongAdder forceCount = new LongAdder();
+    private final LongAdder forceTime = new LongAdder();
+    private final LongAdder forcedBytes = new LongAdder();
+    private final LongAdder prepareCount = new LongAdder();
+    private final LongAdder prepareWaitTime = new LongAdder();
+    private final LongAccumulator maxPrepareWaitTime = new LongAccumulator(Math::max, 0);
+
+    private Collection<Recovery.XidBranchesPair> recovered;
+    private long segment;
+    private RandomAccessFile file;
+    private MappedByteBuffer buffer;
+    /**
+     * Number of bytes written, and forced, since the log has been started.
+     */
+    private long written;
+    private long forced;
+    /**
+     * Moving averages in nanoseconds of the time a force takes, guarded by the force lock,
+     * and of the interval between prepares.
+     */
+    private double averageForceTime;
+    private double averagePrepareInterval;
+    private long lastPrepare;
+    /**
+     * Number of prepare records appended since the last force, and number of records the
+     * thread delaying the force waits for, or zero.
+     */
+    private int unforced;
+    private int groupSize;
+    private volatile long groupCommitDelay;
+
+    /**
+     * @param directory the directory holding the segment files
+     * @param fileName the prefix of the segment file names
+     * @param segmentSize the size of a segment in bytes
+     */
+    public MappedTransactionLog(File directory, String fileName, int segmentSize) {
+        this(directory, fileName, segmentSize, 0);
+    }
+
+    /**
+     * @param directory the directory holding the segment files
+     * @param fileName the prefix of the segment file names
+     * @param segmentSize the size of a segment in bytes
+     * @param maxGroupCommitDelay the longest time in milliseconds a force may be delayed for
+     *                            concurrent transactions to share it, or zero to never delay it
+     */
+    public MappedTransactionLog(File directory, String fileName, int segmentSize, int maxGroupCommitDelay) {
+        this.directory = directory;
+        this.fileName = fileName;
+        this.segmentSize = segmentSize;
+        this.maxGroupCommitDelay = TimeUnit.MILLISECONDS.toNanos(maxGroupCommitDelay);
+    }
+
+    /**
+     * Read the existing segments and open a new one.
+     *
+     * @param xidFactory the factory used to create the transaction ids read from the log
+     */
+    public synchronized void doStart(XidFactory xidFactory) throws LogException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new LogException("Unable to create transaction log directory " + directory);
+        }
+        Map<XidKey, Recovery.XidBranchesPair> prepared = new LinkedHashMap<>();
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(fileName + "-") && name.endsWith(EXTENSION));
+        if (files != null) {
+            for (File f : files) {
+                String seq = f.getName().substring(fileName.length() + 1, f.getName().length() - EXTENSION.length());
+                try {
+                    segments.put(Long.parseLong(seq), new AtomicInteger());
+                } catch (NumberFormatException e) {
+                    LOG.warning("Ignoring unexpected file " + f + " in transaction log directory");
+                }
+            }
+        }
+        for (Long seq : segments.keySet()) {
+            read(seq, xidFactory, prepared);
+        }
+        for (Pending p : pending.values()) {
+            segments.get(p.segment).incrementAndGet();
+        }
+        recovered = new ArrayList<>(prepared.values());
+        segment = segments.isEmpty() ? 0 : segments.lastKey();
+        try {
+            rotate(0);
+        } catch (IOException e) {
+            throw new LogException("Unable to open transaction log", e);
+        }
+        deleteCompletedSegments();
+    }
+
+    public synchronized void doStop() {
+        if (file != null) {
+            try {
+                buffer.force();
+                file.close();
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Error closing transaction log", e);
+            }
+            file = null;
+            buffer = null;
+            // a force waiting for concurrent records fails right away
+            notifyAll();
+        }
+    }
+
+    @Override
+    public void begin(Xid xid) throws LogException {
+    }
+
+    @Override
+    public Object prepare(Xid xid, List<? extends TransactionBranchInfo> branches) throws LogException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DataOutputStream dos = new DataOutputStream(baos)) {
+            writeXid(dos, xid);
+            dos.writeInt(branches.size());
+            for (TransactionBranchInfo branch : branches) {
+                byte[] name = branch.getResourceName().getBytes(StandardCharsets.UTF_8);
+                dos.writeInt(name.length);
+                dos.write(name);
+                writeXid(dos, branch.getBranchXid());
+            }
+        } catch (IOException e) {
+            throw new LogException("Unable to write prepare record", e);
+        }
+        byte[] data = baos.toByteArray();
+        long mark;
+        long end;
+        long start = System.nanoTime();
+        synchronized (this) {
+            end = append(PREPARE, data);
+            mark = segment;
+            pending.put(new XidKey(xid), new Pending(data, mark));
+            segments.get(mark).incrementAndGet();
+            if (lastPrepare != 0) {
+                averagePrepareInterval = average(averagePrepareInterval, start - lastPrepare);
+            }
+            lastPrepare = start;
+            if (++unforced == groupSize) {
+                notifyAll();
+            }
+        }
+        force(end);
+        long time = System.nanoTime() - start;
+        prepareCount.increment();
+        prepareWaitTime.add(time);
+        maxPrepareWaitTime.accumulate(time);
+        return mark;
+    }
+
+    @Override
+    public void commit(Xid xid, Object logMark) throws LogException {
+        done(COMMIT, xid);
+    }
+
+    @Override
+    public void rollback(Xid xid, Object logMark) throws LogException {
+        done(ROLLBACK, xid);
+    }
+
+    @Override
+    public synchronized Collection<Recovery.XidBranchesPair> recover(XidFactory xidFactory) throws LogException {
+        if (recovered == null) {
+            throw new LogException("Transaction log has not been started");
+        }
+        Collection<Recovery.XidBranchesPair> result = recovered;
+        recovered = new ArrayList<>();
+        return result;
+    }
+
+    @Override
+    public String getXMLStats() {
+        return "<Log type=\"mapped\"><Segments>" + segments.size() + "</Segments>"
+                + "<Forces>" + forceCount.sum() + "</Forces>"
+                + "<AverageForceTime>" + getAverageForceTime() + "</AverageForceTime>"
+                + "<AverageBytesPerForce>" + getAverageBytesPerForce() + "</AverageBytesPerForce></Log>";
+    }
+
+    @Override
+    public int getAverageForceTime() {
+        long count = forceCount.sum();
+        return count > 0 ? (int) (forceTime.sum() / count / 1_000_000) : 0;
+    }
+
+    @Override
+    public int getAverageBytesPerForce() {
+        long count = forceCount.sum();
+        return count > 0 ? (int) (forcedBytes.sum() / count) : 0;
+    }
+
+    @Override
+    public long getForceCount() {
+        return forceCount.sum();
+    }
+
+    @Override
+    public long getAverageForceDuration() {
+        long count = forceCount.sum();
+        return count > 0 ? TimeUnit.NANOSECONDS.toMicros(forceTime.sum() / count) : 0;
+    }
+
+    @Override
+    public long getPrepareCount() {
+        return prepareCount.sum();
+    }
+
+    @Override
+    public long getAverageForceWaitTime() {
+        long count = prepareCount.sum();
+        return count > 0 ? TimeUnit.NANOSECONDS.toMicros(prepareWaitTime.sum() / count) : 0;
+    }
+
+    @Override
+    public long getMaxForceWaitTime() {
+        return TimeUnit.NANOSECONDS.toMicros(maxPrepareWaitTime.get());
+    }
+
+    @Override
+    public synchronized double getCommitRate() {
+        return averagePrepareInterval > 0 ? 1e9 / averagePrepareInterval : 0;
+    }
+
+    @Override
+    public long getMaxGroupCommitDelay() {
+        return TimeUnit.NANOSECONDS.toMicros(maxGroupCommitDelay);
+    }
+
+    @Override
+    public long getGroupCommitDelay() {
+        return TimeUnit.NANOSECONDS.toMicros(groupCommitDelay);
+    }
+
+    @Override
+    public void reset() {
+        forceCount.reset();
+        forceTime.reset();
+        forcedBytes.reset();
+        prepareCount.reset();
+        prepareWaitTime.reset();
+        maxPrepareWaitTime.reset();
+    }
+
+    private void done(byte type, Xid xid) throws LogException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DataOutputStream dos = new DataOutputStream(baos)) {
+            writeXid(dos, xid);
+        } catch (IOException e) {
+            throw new LogException("Unable to write completion record", e);
+        }
+        synchronized (this) {
+            append(type, baos.toByteArray());
+            // the prepare record may have been copied to a later segment than the log mark
+            Pending p = pending.remove(new XidKey(xid));
+            if (p != null && segments.get(p.segment).decrementAndGet() == 0) {
+                deleteCompletedSegments();
+            }
+        }
+    }
+
+    /**
+     * Append a record, rotating the segment if needed.
+     *
+     * @return the position up to which the log must be forced for the record to be durable
+     */
+    private long append(byte type, byte[] data) throws LogException {
+        int size = HEADER_SIZE + 1 + data.length;
+        if (size > segmentSize) {
+            throw new LogException("Transaction log record of " + size + " bytes exceeds the segment size");
+        }
+        if (file == null) {
+            throw new LogException("Transaction log is closed");
+        }
+        try {
+            if (buffer.remaining() < size) {
+                rotate(size);
+            }
+        } catch (IOException e) {
+            throw new LogException("Unable to rotate transaction log", e);
+        }
+        write(type, data);
+        return written;
+    }
+
+    private void write(byte type, byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(data);
+        int start = buffer.position();
+        // the length is written last, so that a partially written record is never read
+        buffer.position(start + 4);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(type);
+        buffer.put(data);
+        buffer.putInt(start, 1 + data.length);
+        written += HEADER_SIZE + 1 + data.length;
+    }
+
+    /**
+     * Force the current segment if the given position has not been forced yet.
+     * Records appended while another thread is forcing are covered by the next force,
+     * and the records of the previous segments have been forced on rotation.
+     */
+    private void force(long position) throws LogException {
+        synchronized (forceLock) {
+            if (forced >= position) {
+                return;
+            }
+            MappedByteBuffer current;
+            long target;
+            synchronized (this) {
+                long delay = groupCommitDelay(averageForceTime, averagePrepareInterval, maxGroupCommitDelay);
+                groupCommitDelay = delay;
+                if (delay > 0) {
+                    awaitGroup(delay);
+                }
+                if (file == null) {
+                    throw new LogException("Transaction log is closed");
+                }
+                current = buffer;
+                target = written;
+                unforced = 0;
+            }
+            long start = System.nanoTime();
+            current.force();
+            long time = System.nanoTime() - start;
+            averageForceTime = average(averageForceTime, time);
+            forceTime.add(time);
+            forceCount.increment();
+            forcedBytes.add(target - forced);
+            forced = target;
+        }
+    }
+
+    /**
+     * Wait for the prepare records expected during the given delay, or for the delay to pass.
+     * The monitor of the log is released while waiting, so that records can be appended.
+     */
+    private void awaitGroup(long delay) {
+        groupSize = (int) Math.min(MAX_GROUP_SIZE, delay / averagePrepareInterval + 1);
+        long deadline = System.nanoTime() + delay;
+        try {
+            long remaining = delay;
+            while (unforced < groupSize && remaining > 0 && file != null) {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                remaining = deadline - System.nanoTime();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            groupSize = 0;
+        }
+    }
+
+    /**
+     * Compute how long a force should be delayed for concurrent transactions to share it.
+     *
+     * @param forceTime the average time in nanoseconds a force takes
+     * @param prepareInterval the average interval in nanoseconds between prepares, or zero if not known
+     * @param maxDelay the longest delay in nanoseconds
+     * @return the delay in nanoseconds
+     */
+    static long groupCommitDelay(double forceTime, double prepareInterval, long maxDelay) {
+        if (maxDelay <= 0 || prepareInterval <= 0 || forceTime < prepareInterval) {
+            // less than one transaction expected during a force
+            return 0;
+        }
+        return (long) Math.min(maxDelay, forceTime);
+    }
+
+    private static double average(double average, long sample) {
+        return average == 0 ? sample : average + SMOOTHING * (sample - average);
+    }
+
+    /**
+     * Start a new segment and copy the pending prepare records into it.
+     *
+     * @param reserve the number of bytes to keep free for the record being appended
+     */
+    private void rotate(int reserve) throws IOException {
+        if (file != null) {
+            // records of the previous segment must be durable before moving on
+            buffer.force();
+            file.close();
+        }
+        segment++;
+        file = new RandomAccessFile(segmentFile(segment), "rw");
+        file.setLength(segmentSize);
+        buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        AtomicInteger count = new AtomicInteger();
+        segments.put(segment, count);
+        boolean copied = false;
+        for (Pending p : pending.values()) {
+            if (buffer.remaining() - HEADER_SIZE - 1 - p.data.length < reserve) {
+                break;
+            }
+            write(PREPARE, p.data);
+            segments.get(p.segment).decrementAndGet();
+            p.segment = segment;
+            count.incrementAndGet();
+            copied = true;
+        }
+        if (copied) {
+            // the copies must be durable before the segments they come from are deleted
+            buffer.force();
+            deleteCompletedSegments();
+        }
+    }
+
+    private void deleteCompletedSegments() {
+        Iterator<Map.Entry<Long, AtomicInteger>> it = segments.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, AtomicInteger> e = it.next();
+            if (e.getKey() == segment || e.getValue().get() > 0) {
+                break;
+            }
+            File f = segmentFile(e.getKey());
+            if (f.exists() && !f.delete()) {
+                LOG.warning("Unable to delete transaction log segment " + f);
+                break;
+            }
+            it.remove();
+        }
+    }
+
+    private File segmentFile(long seq) {
+        return new File(directory, String.format("%s-%016d%s", fileName, seq, EXTENSION));
+    }
+
+    private void read(long seq, XidFactory xidFactory, Map<XidKey, Recovery.XidBranchesPair> prepared) throws LogException {
+        File f = segmentFile(seq);
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            ByteBuffer data = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            while (data.remaining() >= HEADER_SIZE) {
+                int length = data.getInt();
+                if (length <= 0 || length > data.remaining() - 4) {
+                    break;
+                }
+                int checksum = data.getInt();
+                byte[] record = new byte[length];
+                data.get(record);
+                CRC32 crc = new CRC32();
+                crc.update(record);
+                if ((int) crc.getValue() != checksum) {
+                    LOG.warning("Invalid checksum in transaction log segment " + f + ", ignoring the rest of the segment");
+                    break;
+                }
+                DataInputStream dis = new DataInputStream(new ByteArrayInputStream(record, 1, length - 1));
+                Xid xid = readXid(dis, xidFactory);
+                XidKey key = new XidKey(xid);
+                if (record[0] == PREPARE) {
+                    Recovery.XidBranchesPair pair = new Recovery.XidBranchesPair(xid, seq);
+                    int branches = dis.readInt();
+                    for (int i = 0; i < branches; i++) {
+                        byte[] name = new byte[dis.readInt()];
+                        dis.readFully(name);
+                        Xid branchXid = readXid(dis, xidFactory);
+                        pair.addBranch(new TransactionBranchInfoImpl(branchXid, new String(name, StandardCharsets.UTF_8)));
+                    }
+                    prepared.put(key, pair);
+                    pending.put(key, new Pending(Arrays.copyOfRange(record, 1, length), seq));
+                } else {
+                    prepared.remove(key);
+                    pending.remove(key);
+                }
+            }
+        } catch (IOException e) {
+            throw new LogException("Unable to read transaction log segment " + f, e);
+        }
+    }
+
+    private static void writeXid(DataOutputStream dos, Xid xid) throws IOException {
+        dos.writeInt(xid.getFormatId());
+        byte[] gtrid = xid.getGlobalTransactionId();
+        dos.writeInt(gtrid.length);
+        dos.write(gtrid);
+        byte[] bqual = xid.getBranchQualifier();
+        dos.writeInt(bqual.length);
+        dos.write(bqual);
+    }
+
+    private static Xid readXid(DataInputStream dis, XidFactory xidFactory) throws IOException {
+        int formatId = dis.readInt();
+        byte[] gtrid = new byte[dis.readInt()];
+        dis.readFully(gtrid);
+        byte[] bqual = new byte[dis.readInt()];
+        dis.readFully(bqual);
+        return xidFactory.recover(formatId, gtrid, bqual);
+    }
+
+    private static final class Pending {
+        private final byte[] data;
+        private long segment;
+
+        Pending(byte[] data, long segment) {
+            this.data = data;
+            this.segment = segment;
+        }
+    }
+
+    private static final class XidKey {
+        private final int formatId;
+        private final byte[] gtrid;
+
+        XidKey(Xid xid) {
+            this.formatId = xid.getFormatId();
+            this.gtrid = xid.getGlobalTransactionId();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof XidKey)) {
+                return false;
+            }
+            XidKey other = (XidKey) o;
+            return formatId == other.formatId && Arrays.equals(gtrid, other.gtrid);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * formatId + Arrays.hashCode(gtrid);
+        }
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.tm.impl.geronimo;
+
+/**
+ * Statistics of the forces of the transaction log and of the group commit delay applied to
+ * them under the observed load.
+ */
+public interface TransactionLogMXBean {
+
+    /**
+     * @return the number of forces of the log, each one possibly shared by several transactions
+     */
+    long getForceCount();
+
+    /**
+     * @return the average time in microseconds a force of the log takes
+     */
+    long getAverageForceDuration();
+
+    /**
+     * @return the number of prepare records written, each one waiting for a force of the log
+     */
+    long getPrepareCount();
+
+    /**
+     * @return the average time in microseconds a committing thread waited for its record to be
+     *         forced, including the group commit delay
+     */
+    long getAverageForceWaitTime();
+
+    /**
+     * @return the longest time in microseconds a committing thread waited for its record to be forced
+     */
+    long getMaxForceWaitTime();
+
+    /**
+     * @return the moving average of the rate of prepared transactions per second
+     */
+    double getCommitRate();
+
+    /**
+     * @return the configured longest group commit delay in microseconds, or zero if disabled
+     */
+    long getMaxGroupCommitDelay();
+
+    /**
+     * @return the group commit delay in microseconds applied to the last force
+     */
+    long getGroupCommitDelay();
+
+    /**
+     * Reset the force and prepare counts and times.
+     */
+    void reset();
+
+}
@@ -16,9 +16,11 @@
 package org.ops4j.pax.transx.tm.impl.geronimo;
 
 import java.io.File;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Dictionary;
 import java.util.List;
+import javax.management.ObjectName;
 import javax.transaction.TransactionManager;
 import javax.transaction.TransactionSynchronizationRegistry;
 import javax.transaction.UserTransaction;
@@ -31,6 +33,7 @@ import org.apache.geronimo.transaction.manager.RecoverableTransactionManager;
 import org.apache.geronimo.transaction.manager.TransactionLog;
 import org.apache.geronimo.transaction.manager.XidFactory;
 import org.apache.geronimo.transaction.manager.XidFactoryImpl;
+import org.ops4j.pax.transx.tm.impl.AbstractTransactionManagerWrapper;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.cm.ConfigurationException;
@@ -58,6 +61,14 @@ public class TransactionManagerService {
     public static final String HOWL_THREADS_WAITING_FORCE_THRESHOLD = "howl.threadsWaitingForceThreshold";
     public static final String HOWL_LOG_FILE_DIR = "howl.logFileDir";
     public static final String HOWL_FLUSH_PARTIAL_BUFFERS = "flushPartialBuffers";
+    public static final String LOG_TYPE = "logType";
+    public static final String MAPPED_LOG_FILE_DIR = "mapped.logFileDir";
+    public static final String MAPPED_LOG_FILE_NAME = "mapped.logFileName";
+    public static final String MAPPED_SEGMENT_SIZE = "mapped.segmentSize";
+    public static final String MAPPED_GROUP_COMMIT_MAX_DELAY = "mapped.groupCommitMaxDelay";
+
+    public static final String LOG_TYPE_HOWL = "howl";
+    public static final String LOG_TYPE_MAPPED = "mapped";
 
     public static final int DEFAULT_TRANSACTION_TIMEOUT = 600; // 600 seconds -> 10 minutes
     public static final boolean DEFAULT_RECOVERABLE = false;   // not recoverable by default
@@ -67,8 +78,15 @@ public class TransactionManagerService {
     private final Dictionary<String, ?> properties;
     private final BundleContext bundleContext;
     private boolean useSpring;
+    private final int commitThreads;
+    private final int recoveryThreads;
+    private final XidFactory xidFactory;
+    private TransactionManagerWrapper wrapper;
     private GeronimoTransactionManager transactionManager;
     private TransactionLog transactionLog;
+    private HOWLLog howlLog;
+    private MappedTransactionLog mappedLog;
+    private ObjectName transactionLogMBean;
     private ServiceRegistration<?> serviceRegistration;
     private ServiceRegistration<?> wrapperRegistration;
 
@@ -77,15 +95,44 @@ public class TransactionManagerService {
         this.bundleContext = bundleContext;
         // Transaction timeout
         int transactionTimeout = getInt(TRANSACTION_TIMEOUT, DEFAULT_TRANSACTION_TIMEOUT);
+        commitThreads = getInt(AbstractTransactionManagerWrapper.COMMIT_THREADS, 0);
+        recoveryThreads = getInt(AbstractTransactionManagerWrapper.RECOVERY_THREADS, 0);
         if (transactionTimeout <= 0) {
             throw new ConfigurationException(TRANSACTION_TIMEOUT, "The transaction timeout property must be greater than zero.");
         }
 
         final String tmid = getString(TMID, pid);
         // the max length of the factory should be 64
-        XidFactory xidFactory = new XidFactoryImpl(tmid.substring(0, Math.min(tmid.length(), 64)).getBytes());
+        xidFactory = new XidFactoryImpl(tmid.substring(0, Math.min(tmid.length(), 64)).getBytes());
         // Transaction log
-        if (getBool(RECOVERABLE, DEFAULT_RECOVERABLE)) {
+        String logType = getString(LOG_TYPE, LOG_TYPE_HOWL);
+        if (getBool(RECOVERABLE, DEFAULT_RECOVERABLE) && LOG_TYPE_MAPPED.equals(logType)) {
+            String logFileDir = getString(MAPPED_LOG_FILE_DIR, getString(HOWL_LOG_FILE_DIR, null));
+            if (logFileDir == null || logFileDir.length() == 0 || !new File(logFileDir).isAbsolute()) {
+                throw new ConfigurationException(MAPPED_LOG_FILE_DIR, "The log file directory must be set to an absolute directory.");
+            }
+            String logFileName = getString(MAPPED_LOG_FILE_NAME, "transaction");
+            int segmentSizeKBytes = getInt(MAPPED_SEGMENT_SIZE, 16 * 1024);
+            if (segmentSizeKBytes < 64 || segmentSizeKBytes > 1024 * 1024) {
+                throw new ConfigurationException(MAPPED_SEGMENT_SIZE, "The segment size must be between 64 KB and 1 GB.");
+            }
+            int groupCommitMaxDelay = getInt(MAPPED_GROUP_COMMIT_MAX_DELAY, 0);
+            if (groupCommitMaxDelay < 0) {
+                throw new ConfigurationException(MAPPED_GROUP_COMMIT_MAX_DELAY, "The group commit delay must not be negative.");
+            }
+            try {
+                mappedLog = new MappedTransactionLog(new File(logFileDir), logFileName, segmentSizeKBytes * 1024, groupCommitMaxDelay);
+                mappedLog.doStart(xidFactory);
+                transactionLog = mappedLog;
+                transactionLogMBean = new ObjectName("org.ops4j.pax.transx:type=TransactionLog,name=" + ObjectName.quote(tmid));
+                ManagementFactory.getPlatformMBeanServer().registerMBean(mappedLog, transactionLogMBean);
+            } catch (Exception e) {
+                throw new ConfigurationException(null, e.getMessage(), e);
+            }
+        } else if (getBool(RECOVERABLE, DEFAULT_RECOVERABLE)) {
+            if (!LOG_TYPE_HOWL.equals(logType)) {
+                throw new ConfigurationException(LOG_TYPE, "The log type must be either " + LOG_TYPE_HOWL + " or " + LOG_TYPE_MAPPED + ".");
+            }
             String bufferClassName = getString(HOWL_BUFFER_CLASS_NAME, "org.objectweb.howl.log.BlockLogBuffer");
             int bufferSizeKBytes = getInt(HOWL_BUFFER_SIZE, 4);
             if (bufferSizeKBytes < 1 || bufferSizeKBytes > 32) {
@@ -113,23 +160,24 @@ public class TransactionManagerService {
                 throw new ConfigurationException(HOWL_LOG_FILE_DIR, "The log file directory must be set to an absolute directory.");
             }
             try {
-                transactionLog = new HOWLLog(bufferClassName,
-                                             bufferSizeKBytes,
-                                             checksumEnabled,
-                                             adler32Checksum,
-                                             flushSleepTimeMilliseconds,
-                                             logFileDir,
-                                             logFileExt,
-                                             logFileName,
-                                             maxBlocksPerFile,
-                                             maxBuffers,
-                                             maxLogFiles,
-                                             minBuffers,
-                                             threadsWaitingForceThreshold,
-                                             flushPartialBuffers,
-                                             xidFactory,
-                                             null);
-                ((HOWLLog) transactionLog).doStart();
+                howlLog = new HOWLLog(bufferClassName,
+                                      bufferSizeKBytes,
+                                      checksumEnabled,
+                                      adler32Checksum,
+                                      flushSleepTimeMilliseconds,
+                                      logFileDir,
+                                      logFileExt,
+                                      logFileName,
+                                      maxBlocksPerFile,
+                                      maxBuffers,
+                                      maxLogFiles,
+                                      minBuffers,
+                                      threadsWaitingForceThreshold,
+                                      flushPartialBuffers,
+                                      xidFactory,
+                                      null);
+                howlLog.doStart();
+                transactionLog = howlLog;
             } catch (Exception e) {
                 // This should not really happen as we've checked properties earlier
                 throw new ConfigurationException(null, e.getMessage(), e);
@@ -161,8 +209,11 @@ public class TransactionManagerService {
         }
         String[] ifar = clazzes.toArray(new String[clazzes.size()]);
         serviceRegistration = bundleContext.registerService(ifar, transactionManager, null);
-        wrapperRegistration = bundleContext.registerService(org.ops4j.pax.transx.tm.TransactionManager.class,
-                new TransactionManagerWrapper(transactionManager), null);
+        wrapper = new TransactionManagerWrapper(transactionManager);
+        wrapper.setXidFactory(xidFactory);
+        wrapper.setCommitThreads(commitThreads);
+        wrapper.setRecoveryThreads(recoveryThreads);
+        wrapperRegistration = bundleContext.registerService(org.ops4j.pax.transx.tm.TransactionManager.class, wrapper, null);
     }
 
     public void destroy() throws Exception {
@@ -181,8 +232,22 @@ public class TransactionManagerService {
             }
         }
       
-        if (transactionLog instanceof HOWLLog) {
-            ((HOWLLog) transactionLog).doStop();
+        if (wrapper != null) {
+            wrapper.setCommitThreads(0);
+            wrapper.setRecoveryThreads(0);
+        }
+        if (transactionLogMBean != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(transactionLogMBean);
+            } catch (Exception e) {
+                //This can be safely ignored
+            }
+        }
+        if (howlLog != null) {
+            howlLog.doStop();
+        }
+        if (mappedLog != null) {
+            mappedLog.doStop();
         }
     }
 
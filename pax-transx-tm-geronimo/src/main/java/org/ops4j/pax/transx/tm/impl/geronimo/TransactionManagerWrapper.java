@@ -18,12 +18,17 @@ package org.ops4j.pax.transx.tm.impl.geronimo;
 import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
 import javax.transaction.SystemException;
+import javax.transaction.xa.Xid;
 
 import org.apache.geronimo.transaction.manager.GeronimoTransactionManager;
 import org.apache.geronimo.transaction.manager.NamedXAResource;
 import org.apache.geronimo.transaction.manager.NamedXAResourceFactory;
+import org.apache.geronimo.transaction.manager.TransactionImpl;
 import org.apache.geronimo.transaction.manager.WrapperNamedXAResource;
+import org.apache.geronimo.transaction.manager.XidFactory;
 import org.ops4j.pax.transx.tm.LastResource;
 import org.ops4j.pax.transx.tm.NamedResource;
 import org.ops4j.pax.transx.tm.ResourceFactory;
@@ -32,19 +37,41 @@ import org.ops4j.pax.transx.tm.impl.AbstractTransactionManagerWrapper;
 public class TransactionManagerWrapper extends AbstractTransactionManagerWrapper<GeronimoTransactionManager> {
 
     protected final Map<String, ResourceFactory> resources = new HashMap<>();
+    private final Map<String, CompletableFuture<Void>> registrations = new HashMap<>();
+    private XidFactory xidFactory;
 
     public TransactionManagerWrapper(GeronimoTransactionManager geronimoTransactionManager) {
         super(geronimoTransactionManager);
     }
 
+    /**
+     * Set the factory of the Xids created by the transaction manager, so that recovery skips
+     * the branches of other transaction managers.
+     */
+    public void setXidFactory(XidFactory xidFactory) {
+        this.xidFactory = xidFactory;
+    }
+
     @Override
     public boolean isLastResourceCommitSupported() {
         return true;
     }
 
+    @Override
+    public Predicate<Xid> getXidFilter() {
+        XidFactory factory = xidFactory;
+        if (factory == null) {
+            return null;
+        }
+        // same test as Geronimo recovery: our own transactions, or imported ones branched by us
+        return xid -> factory.matchesGlobalId(xid.getGlobalTransactionId())
+                || factory.matchesBranchId(xid.getBranchQualifier());
+    }
+
     @Override
     public synchronized void registerResource(ResourceFactory resource) {
-        tm.registerNamedXAResourceFactory(new NamedXAResourceFactory() {
+        // Geronimo recovers the resource while registering it
+        NamedXAResourceFactory factory = new NamedXAResourceFactory() {
             private final Map<NamedXAResource, NamedResource> resources = new IdentityHashMap<>();
 
             @Override
@@ -69,12 +96,17 @@ public class TransactionManagerWrapper extends AbstractTransactionManagerWrapper
                     throw new IllegalStateException("Unexpected call to returnNamedXAResource");
                 }
             }
-        });
+        };
+        registrations.put(resource.getName(), runRecovery(() -> tm.registerNamedXAResourceFactory(factory)));
         resources.put(resource.getName(), resource);
     }
 
     @Override
     public synchronized void unregisterResource(String name) {
+        CompletableFuture<Void> registration = registrations.remove(name);
+        if (registration != null) {
+            registration.exceptionally(t -> null).join();
+        }
         resources.remove(name);
         tm.unregisterNamedXAResourceFactory(name);
     }
@@ -84,6 +116,17 @@ public class TransactionManagerWrapper extends AbstractTransactionManagerWrapper
         return resources.get(name);
     }
 
+    /**
+     * Geronimo already starts a resource of the same resource manager as an enlisted one on
+     * its branch with TMJOIN.
+     */
+    @Override
+    public void setJoinSameRM(boolean joinSameRM) {
+        if (joinSameRM) {
+            throw new UnsupportedOperationException("Geronimo joins resources of the same resource manager itself");
+        }
+    }
+
     @Override
     protected TransactionWrapper doCreateTransactionWrapper(javax.transaction.Transaction tx) {
         return new GeronimoTransactionWrapper(tx);
@@ -98,6 +141,23 @@ public class TransactionManagerWrapper extends AbstractTransactionManagerWrapper
             super(transaction);
         }
 
+        /**
+         * Geronimo transactions know the time they time out at, computed from the timeout
+         * in effect on the thread when they were begun.
+         */
+        @Override
+        public long getRemainingTime() {
+            try {
+                javax.transaction.Transaction tx = getTransaction();
+                if (tx instanceof TransactionImpl) {
+                    return Math.max(0, ((TransactionImpl) tx).getTimeout() - System.currentTimeMillis());
+                }
+            } catch (SystemException e) {
+                // unknown
+            }
+            return Long.MAX_VALUE;
+        }
+
         @Override
         public void commit() throws Exception {
             if (last != null) {
@@ -122,7 +182,7 @@ public class TransactionManagerWrapper extends AbstractTransactionManagerWrapper
                 }
                 last = (LastResource) xares;
             } else {
-                NamedXAResource nxares = new WrapperNamedXAResource(xares, xares.getName());
+                NamedXAResource nxares = new WrapperNamedXAResource(participant(xares), xares.getName());
                 resources.put(xares, nxares);
                 ensureAssociated();
                 getTransaction().enlistResource(nxares);
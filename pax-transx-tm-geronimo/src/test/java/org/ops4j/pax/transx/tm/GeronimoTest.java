@@ -15,20 +15,39 @@
  */
 package org.ops4j.pax.transx.tm;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
 import javax.transaction.xa.Xid;
 
 import org.apache.geronimo.transaction.manager.GeronimoTransactionManager;
+import org.apache.geronimo.transaction.manager.NamedXAResource;
+import org.apache.geronimo.transaction.manager.XidFactory;
+import org.apache.geronimo.transaction.manager.XidFactoryImpl;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.ops4j.pax.transx.tm.impl.geronimo.TransactionManagerWrapper;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -40,6 +59,8 @@ public class GeronimoTest {
     LastResource xares1;
     @Mock
     NamedResource xares2;
+    @Mock
+    NamedResource xares3;
 
     @Test
     public void testLRC() throws Exception {
@@ -64,6 +85,191 @@ public class GeronimoTest {
         verify(xares1, never()).prepare(any(Xid.class));
     }
 
+    @Test
+    public void testOnePhaseCommit() throws Exception {
+        TransactionManager tm = createTm();
+
+        when(xares2.getName()).thenReturn("xares2");
+
+        tm.begin();
+        tm.getTransaction().enlistResource(xares2);
+        tm.getTransaction().commit();
+
+        verify(xares2).start(any(Xid.class), anyInt());
+        verify(xares2, never()).prepare(any(Xid.class));
+        verify(xares2).commit(any(Xid.class), eq(true));
+    }
+
+    @Test
+    public void testRollbackWithResourceEnlistedDirectly() throws Exception {
+        GeronimoTransactionManager gtm = new GeronimoTransactionManager();
+        TransactionManager tm = new TransactionManagerWrapper(gtm);
+
+        when(xares2.getName()).thenReturn("xares2");
+        NamedXAResource raw = mock(NamedXAResource.class);
+        lenient().when(raw.getName()).thenReturn("raw");
+        when(raw.prepare(any(Xid.class))).thenThrow(new XAException(XAException.XA_RBROLLBACK));
+
+        tm.begin();
+        tm.getTransaction().enlistResource(xares2);
+        gtm.getTransaction().enlistResource(raw);
+        try {
+            tm.getTransaction().commit();
+            fail("Expected the commit to fail");
+        } catch (Exception e) {
+            // expected: the branch of xares2 has been committed as the only participant
+            // enlisted through the wrapper, so the rollback is a heuristic outcome
+        }
+
+        verify(xares2).commit(any(Xid.class), eq(true));
+        verify(xares2, never()).prepare(any(Xid.class));
+        verify(xares2, never()).rollback(any(Xid.class));
+    }
+
+    @Test
+    public void testOnePhaseCommitMarkedRollbackBySynchronization() throws Exception {
+        TransactionManager tm = createTm();
+
+        when(xares2.getName()).thenReturn("xares2");
+
+        Transaction tx = tm.begin();
+        tx.enlistResource(xares2);
+        tx.synchronization(() -> {
+            try {
+                tx.setRollbackOnly();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }, null);
+        try {
+            tx.commit();
+            fail("Expected a RollbackException");
+        } catch (javax.transaction.RollbackException e) {
+            // expected, ignore
+        }
+
+        verify(xares2, never()).commit(any(Xid.class), anyBoolean());
+        verify(xares2).rollback(any(Xid.class));
+    }
+
+    @Test
+    public void testJoinSameRM() throws Exception {
+        // Geronimo joins the resources of the same resource manager itself
+        TransactionManagerWrapper tm = new TransactionManagerWrapper(new GeronimoTransactionManager());
+
+        when(xares2.getName()).thenReturn("xares2");
+        when(xares2.isSameRM(xares3)).thenReturn(true);
+
+        tm.begin();
+        tm.getTransaction().enlistResource(xares2);
+        tm.getTransaction().enlistResource(xares3);
+        tm.getTransaction().commit();
+
+        ArgumentCaptor<Xid> xid = ArgumentCaptor.forClass(Xid.class);
+        verify(xares2).start(xid.capture(), eq(XAResource.TMNOFLAGS));
+        verify(xares3).start(xid.getValue(), XAResource.TMJOIN);
+        verify(xares3).end(xid.getValue(), XAResource.TMSUCCESS);
+        verify(xares2, never()).prepare(any(Xid.class));
+        verify(xares2).commit(xid.getValue(), true);
+        verify(xares3, never()).commit(any(Xid.class), anyBoolean());
+    }
+
+    @Test
+    public void testParallelCommit() throws Exception {
+        TransactionManagerWrapper tm = new TransactionManagerWrapper(new GeronimoTransactionManager());
+        tm.setCommitThreads(2);
+
+        when(xares2.getName()).thenReturn("xares2");
+        when(xares3.getName()).thenReturn("xares3");
+        // each prepare only returns once both branches are being prepared
+        CountDownLatch preparing = new CountDownLatch(2);
+        doAnswer(inv -> {
+            preparing.countDown();
+            assertTrue(preparing.await(5, TimeUnit.SECONDS));
+            return XAResource.XA_OK;
+        }).when(xares2).prepare(any(Xid.class));
+        doAnswer(inv -> {
+            preparing.countDown();
+            assertTrue(preparing.await(5, TimeUnit.SECONDS));
+            return XAResource.XA_OK;
+        }).when(xares3).prepare(any(Xid.class));
+
+        tm.begin();
+        tm.getTransaction().enlistResource(xares2);
+        tm.getTransaction().enlistResource(xares3);
+        tm.getTransaction().commitAsync().get(10, TimeUnit.SECONDS);
+
+        verify(xares2).prepare(any(Xid.class));
+        verify(xares3).prepare(any(Xid.class));
+        verify(xares2).commit(any(Xid.class), eq(false));
+        verify(xares3).commit(any(Xid.class), eq(false));
+        tm.setCommitThreads(0);
+    }
+
+    @Test
+    public void testStatusTracking() throws Exception {
+        TransactionManager tm = createTm();
+
+        Transaction tx = tm.begin();
+        assertTrue(tx.isActive());
+        tx.setRollbackOnly();
+        assertFalse(tx.isActive());
+        tx.rollback();
+        assertFalse(tx.isActive());
+
+        tx = tm.begin();
+        tx.commit();
+        assertFalse(tx.isActive());
+    }
+
+    @Test
+    public void testSynchronizationOrder() throws Exception {
+        TransactionManager tm = createTm();
+        List<String> calls = new ArrayList<>();
+
+        Transaction tx = tm.begin();
+        tx.synchronization(() -> calls.add("pre1"), st -> calls.add("post1"));
+        tx.interposedSynchronization(() -> calls.add("pre2"), st -> calls.add("post2"));
+        tx.synchronization(() -> calls.add("pre3"), st -> calls.add("post3"));
+        tx.commit();
+
+        assertEquals(Arrays.asList("pre1", "pre3", "pre2", "post2", "post1", "post3"), calls);
+    }
+
+    @Test
+    public void testRemainingTime() throws Exception {
+        GeronimoTransactionManager gtm = new GeronimoTransactionManager();
+        TransactionManagerWrapper tm = new TransactionManagerWrapper(gtm);
+
+        // default timeout of 600 seconds
+        Transaction tx = tm.begin();
+        long remaining = tx.getRemainingTime();
+        assertTrue(remaining > 590000 && remaining <= 600000);
+        tx.rollback();
+
+        // timeout of the thread, longer than the default one
+        gtm.setTransactionTimeout(1200);
+        tx = tm.begin();
+        remaining = tx.getRemainingTime();
+        assertTrue(remaining > 600000 && remaining <= 1200000);
+        tx.rollback();
+    }
+
+    @Test
+    public void testXidFilter() throws Exception {
+        TransactionManagerWrapper tm = new TransactionManagerWrapper(new GeronimoTransactionManager());
+        assertNull(tm.getXidFilter());
+
+        XidFactory local = new XidFactoryImpl("node1".getBytes());
+        XidFactory remote = new XidFactoryImpl("node2".getBytes());
+        tm.setXidFactory(local);
+        Predicate<Xid> filter = tm.getXidFilter();
+        Xid xid = local.createXid();
+        assertTrue(filter.test(local.createBranch(xid, 1)));
+        assertFalse(filter.test(remote.createBranch(remote.createXid(), 1)));
+        assertTrue(filter.test(local.createBranch(remote.createXid(), 1)));
+    }
+
     private TransactionManager createTm() throws XAException {
         return new TransactionManagerWrapper(new GeronimoTransactionManager());
     }
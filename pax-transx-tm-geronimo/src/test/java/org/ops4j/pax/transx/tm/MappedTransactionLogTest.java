@@ -0,0 +1,255 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.tm;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import javax.transaction.xa.Xid;
+
+import org.apache.geronimo.transaction.manager.Recovery;
+import org.apache.geronimo.transaction.manager.TransactionBranchInfo;
+import org.apache.geronimo.transaction.manager.TransactionBranchInfoImpl;
+import org.apache.geronimo.transaction.manager.XidFactory;
+import org.apache.geronimo.transaction.manager.XidFactoryImpl;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.ops4j.pax.transx.tm.impl.geronimo.MappedTransactionLog;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MappedTransactionLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final XidFactory xidFactory = new XidFactoryImpl("test".getBytes());
+
+    @Test
+    public void testRecover() throws Exception {
+        File dir = folder.newFolder();
+        MappedTransactionLog log = new MappedTransactionLog(dir, "transaction", 64 * 1024);
+        log.doStart(xidFactory);
+
+        Xid committed = xidFactory.createXid();
+        Object mark = log.prepare(committed, branches(committed, "res1", "res2"));
+        log.commit(committed, mark);
+        Xid inDoubt = xidFactory.createXid();
+        log.prepare(inDoubt, branches(inDoubt, "res1", "res2"));
+        log.doStop();
+
+        log = new MappedTransactionLog(dir, "transaction", 64 * 1024);
+        log.doStart(xidFactory);
+        Collection<Recovery.XidBranchesPair> recovered = log.recover(xidFactory);
+        assertEquals(1, recovered.size());
+        Recovery.XidBranchesPair pair = recovered.iterator().next();
+        assertArrayEquals(inDoubt.getGlobalTransactionId(), pair.getXid().getGlobalTransactionId());
+        assertEquals(2, pair.getBranches().size());
+
+        log.rollback(pair.getXid(), pair.getMark());
+        log.doStop();
+        log = new MappedTransactionLog(dir, "transaction", 64 * 1024);
+        log.doStart(xidFactory);
+        assertTrue(log.recover(xidFactory).isEmpty());
+        log.doStop();
+    }
+
+    @Test
+    public void testSegmentRotation() throws Exception {
+        File dir = folder.newFolder();
+        MappedTransactionLog log = new MappedTransactionLog(dir, "transaction", 1024);
+        log.doStart(xidFactory);
+        for (int i = 0; i < 100; i++) {
+            Xid xid = xidFactory.createXid();
+            log.commit(xid, log.prepare(xid, branches(xid, "res1")));
+        }
+        Xid inDoubt = xidFactory.createXid();
+        log.prepare(inDoubt, branches(inDoubt, "res1"));
+        log.doStop();
+
+        File[] segments = dir.listFiles();
+        assertTrue(segments != null && segments.length < 5);
+        log = new MappedTransactionLog(dir, "transaction", 1024);
+        log.doStart(xidFactory);
+        assertEquals(1, log.recover(xidFactory).size());
+        log.doStop();
+    }
+
+    @Test
+    public void testInDoubtTransactionDoesNotHoldSegments() throws Exception {
+        File dir = folder.newFolder();
+        MappedTransactionLog log = new MappedTransactionLog(dir, "transaction", 1024);
+        log.doStart(xidFactory);
+        Xid inDoubt = xidFactory.createXid();
+        log.prepare(inDoubt, branches(inDoubt, "res1"));
+        for (int i = 0; i < 100; i++) {
+            Xid xid = xidFactory.createXid();
+            log.commit(xid, log.prepare(xid, branches(xid, "res1")));
+            File[] segments = dir.listFiles();
+            assertTrue(segments != null && segments.length <= 2);
+        }
+        log.doStop();
+
+        log = new MappedTransactionLog(dir, "transaction", 1024);
+        log.doStart(xidFactory);
+        Collection<Recovery.XidBranchesPair> recovered = log.recover(xidFactory);
+        assertEquals(1, recovered.size());
+        assertArrayEquals(inDoubt.getGlobalTransactionId(), recovered.iterator().next().getXid().getGlobalTransactionId());
+        log.doStop();
+    }
+
+    @Test
+    public void testRecoverAfterCrashWithUnforcedCompletion() throws Exception {
+        File dir = folder.newFolder();
+        MappedTransactionLog log = new MappedTransactionLog(dir, "transaction", 64 * 1024);
+        log.doStart(xidFactory);
+        Xid committed = xidFactory.createXid();
+        Object mark1 = log.prepare(committed, branches(committed, "res1"));
+        Xid rolledBack = xidFactory.createXid();
+        Object mark2 = log.prepare(rolledBack, branches(rolledBack, "res1"));
+        // the prepare records are forced, this is what is on disk if the process crashes now
+        File segment = dir.listFiles()[0];
+        byte[] forced = Files.readAllBytes(segment.toPath());
+        log.commit(committed, mark1);
+        log.rollback(rolledBack, mark2);
+        log.doStop();
+        // the completion records were not forced and are lost
+        Files.write(segment.toPath(), forced);
+
+        log = new MappedTransactionLog(dir, "transaction", 64 * 1024);
+        log.doStart(xidFactory);
+        Collection<Recovery.XidBranchesPair> recovered = log.recover(xidFactory);
+        assertEquals(2, recovered.size());
+        for (Recovery.XidBranchesPair pair : recovered) {
+            log.commit(pair.getXid(), pair.getMark());
+        }
+        log.doStop();
+
+        log = new MappedTransactionLog(dir, "transaction", 64 * 1024);
+        log.doStart(xidFactory);
+        assertTrue(log.recover(xidFactory).isEmpty());
+        log.doStop();
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        File dir = folder.newFolder();
+        MappedTransactionLog log = new MappedTransactionLog(dir, "transaction", 1024 * 1024, 5);
+        log.doStart(xidFactory);
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 50; i++) {
+                        Xid xid = xidFactory.createXid();
+                        log.commit(xid, log.prepare(xid, branches(xid, "res1")));
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        Xid inDoubt = xidFactory.createXid();
+        log.prepare(inDoubt, branches(inDoubt, "res1"));
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(failures.isEmpty());
+        assertEquals(401, log.getPrepareCount());
+        assertTrue(log.getForceCount() >= 1 && log.getForceCount() <= 401);
+        assertTrue(log.getCommitRate() > 0);
+        assertTrue(log.getGroupCommitDelay() <= log.getMaxGroupCommitDelay());
+        log.doStop();
+
+        assertRecovered(dir, inDoubt);
+    }
+
+    @Test
+    public void testCorruptedTrailingRecord() throws Exception {
+        File dir = folder.newFolder();
+        Xid valid = prepareTwo(dir);
+        try (RandomAccessFile raf = new RandomAccessFile(dir.listFiles()[0], "rw")) {
+            long second = secondRecord(raf);
+            long pos = second + 8 + 10;
+            raf.seek(pos);
+            int b = raf.read();
+            raf.seek(pos);
+            raf.write(b ^ 0xff);
+        }
+        assertRecovered(dir, valid);
+        // the valid record has been copied to a new segment and survives another restart
+        assertRecovered(dir, valid);
+    }
+
+    @Test
+    public void testTornTrailingRecord() throws Exception {
+        File dir = folder.newFolder();
+        Xid valid = prepareTwo(dir);
+        try (RandomAccessFile raf = new RandomAccessFile(dir.listFiles()[0], "rw")) {
+            long second = secondRecord(raf);
+            raf.seek(second);
+            int length = raf.readInt();
+            // only the beginning of the record reached the disk
+            raf.seek(second + 8 + length / 2);
+            raf.write(new byte[length - length / 2]);
+        }
+        assertRecovered(dir, valid);
+    }
+
+    private Xid prepareTwo(File dir) throws Exception {
+        MappedTransactionLog log = new MappedTransactionLog(dir, "transaction", 64 * 1024);
+        log.doStart(xidFactory);
+        Xid first = xidFactory.createXid();
+        log.prepare(first, branches(first, "res1"));
+        Xid second = xidFactory.createXid();
+        log.prepare(second, branches(second, "res1", "res2"));
+        log.doStop();
+        return first;
+    }
+
+    private long secondRecord(RandomAccessFile raf) throws Exception {
+        raf.seek(0);
+        return 8 + raf.readInt();
+    }
+
+    private void assertRecovered(File dir, Xid xid) throws Exception {
+        MappedTransactionLog log = new MappedTransactionLog(dir, "transaction", 64 * 1024);
+        log.doStart(xidFactory);
+        Collection<Recovery.XidBranchesPair> recovered = log.recover(xidFactory);
+        assertEquals(1, recovered.size());
+        assertArrayEquals(xid.getGlobalTransactionId(), recovered.iterator().next().getXid().getGlobalTransactionId());
+        log.doStop();
+    }
+
+    private List<TransactionBranchInfo> branches(Xid xid, String... names) {
+        List<TransactionBranchInfo> branches = new ArrayList<>();
+        for (int i = 0; i < names.length; i++) {
+            branches.add(new TransactionBranchInfoImpl(xidFactory.createBranch(xid, i + 1), names[i]));
+        }
+        return Collections.unmodifiableList(branches);
+    }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.tm.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import javax.transaction.xa.Xid;
+
+import org.apache.geronimo.transaction.log.HOWLLog;
+import org.apache.geronimo.transaction.manager.Recovery;
+import org.apache.geronimo.transaction.manager.TransactionBranchInfo;
+import org.apache.geronimo.transaction.manager.TransactionBranchInfoImpl;
+import org.apache.geronimo.transaction.manager.TransactionLog;
+import org.apache.geronimo.transaction.manager.XidFactory;
+import org.apache.geronimo.transaction.manager.XidFactoryImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ops4j.pax.transx.tm.impl.geronimo.MappedTransactionLog;
+
+/**
+ * Compares the memory-mapped transaction log with HOWL, on the prepare and commit of two
+ * branch transactions by concurrent threads, and on the recovery of in-doubt transactions.
+ */
+@Warmup(iterations = 3)
+@Measurement(iterations = 8)
+public class TransactionLogBench {
+
+    static final XidFactory XID_FACTORY = new XidFactoryImpl("bench".getBytes());
+
+    @State(Scope.Benchmark)
+    public static class Log {
+
+        @Param({ "mapped", "howl" })
+        String logType;
+
+        Path dir;
+        TransactionLog log;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            dir = Files.createTempDirectory("txlog");
+            log = start(logType, dir);
+        }
+
+        @TearDown(Level.Trial)
+        public void teardown() throws Exception {
+            stop(log);
+            delete(dir);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class InDoubt {
+
+        @Param({ "mapped", "howl" })
+        String logType;
+
+        @Param({ "1000" })
+        int transactions;
+
+        Path template;
+        Path dir;
+        TransactionLog log;
+
+        /**
+         * Write a log holding in-doubt transactions, copied before each recovery.
+         */
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            template = Files.createTempDirectory("txlog");
+            TransactionLog writer = start(logType, template);
+            for (int i = 0; i < transactions; i++) {
+                Xid xid = XID_FACTORY.createXid();
+                writer.prepare(xid, branches(xid));
+            }
+            stop(writer);
+        }
+
+        @Setup(Level.Invocation)
+        public void copy() throws Exception {
+            dir = Files.createTempDirectory("txlog");
+            try (Stream<Path> files = Files.list(template)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.copy(file, dir.resolve(file.getFileName()));
+                }
+            }
+        }
+
+        @TearDown(Level.Invocation)
+        public void clean() throws Exception {
+            stop(log);
+            log = null;
+            delete(dir);
+        }
+
+        @TearDown(Level.Trial)
+        public void teardown() throws Exception {
+            delete(template);
+        }
+    }
+
+    @Benchmark
+    @Threads(8)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void prepareCommit(Log state) throws Exception {
+        Xid xid = XID_FACTORY.createXid();
+        Object mark = state.log.prepare(xid, branches(xid));
+        state.log.commit(xid, mark);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Collection<Recovery.XidBranchesPair> recover(InDoubt state) throws Exception {
+        state.log = start(state.logType, state.dir);
+        return state.log.recover(XID_FACTORY);
+    }
+
+    static TransactionLog start(String logType, Path dir) throws Exception {
+        if ("mapped".equals(logType)) {
+            MappedTransactionLog log = new MappedTransactionLog(dir.toFile(), "transaction", 16 * 1024 * 1024);
+            log.doStart(XID_FACTORY);
+            return log;
+        }
+        // the defaults of TransactionManagerService
+        HOWLLog log = new HOWLLog("org.objectweb.howl.log.BlockLogBuffer", 4, true, true, 50,
+                dir.toAbsolutePath().toString(), "log", "transaction", -1, 0, 2, 4, -1, true, XID_FACTORY, null);
+        log.doStart();
+        return log;
+    }
+
+    static void stop(TransactionLog log) throws Exception {
+        if (log instanceof MappedTransactionLog) {
+            ((MappedTransactionLog) log).doStop();
+        } else if (log instanceof HOWLLog) {
+            ((HOWLLog) log).doStop();
+        }
+    }
+
+    static List<TransactionBranchInfo> branches(Xid xid) {
+        return Arrays.asList(
+                new TransactionBranchInfoImpl(XID_FACTORY.createBranch(xid, 1), "res1"),
+                new TransactionBranchInfoImpl(XID_FACTORY.createBranch(xid, 2), "res2"));
+    }
+
+    static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+}
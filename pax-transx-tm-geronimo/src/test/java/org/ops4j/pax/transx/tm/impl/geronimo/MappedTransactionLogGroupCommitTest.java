@@ -0,0 +1,58 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.tm.impl.geronimo;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class MappedTransactionLogGroupCommitTest {
+
+    private static final long MILLISECOND = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long MAX_DELAY = 10 * MILLISECOND;
+
+    @Test
+    public void testDisabled() {
+        // 10 transactions arrive during a force
+        assertEquals(0, MappedTransactionLog.groupCommitDelay(5 * MILLISECOND, 0.5 * MILLISECOND, 0));
+    }
+
+    @Test
+    public void testUnknownLoad() {
+        assertEquals(0, MappedTransactionLog.groupCommitDelay(0, 0, MAX_DELAY));
+        assertEquals(0, MappedTransactionLog.groupCommitDelay(5 * MILLISECOND, 0, MAX_DELAY));
+    }
+
+    @Test
+    public void testLightLoad() {
+        // a transaction every 100 ms, 1 ms per force: no transaction to share a force with
+        assertEquals(0, MappedTransactionLog.groupCommitDelay(MILLISECOND, 100 * MILLISECOND, MAX_DELAY));
+    }
+
+    @Test
+    public void testHeavyLoad() {
+        // 2000 transactions per second, 5 ms per force: wait up to one force
+        assertEquals(5 * MILLISECOND, MappedTransactionLog.groupCommitDelay(5 * MILLISECOND, 0.5 * MILLISECOND, MAX_DELAY));
+    }
+
+    @Test
+    public void testBound() {
+        assertEquals(MAX_DELAY, MappedTransactionLog.groupCommitDelay(100 * MILLISECOND, 0.01 * MILLISECOND, MAX_DELAY));
+    }
+
+}
@@ -36,6 +36,7 @@ import com.arjuna.ats.jta.common.jtaPropertyManager;
 import com.arjuna.common.util.propertyservice.PropertiesFactory;
 import org.jboss.narayana.osgi.jta.ObjStoreBrowserService;
 import org.jboss.tm.XAResourceRecovery;
+import org.ops4j.pax.transx.tm.impl.AbstractTransactionManagerWrapper;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
@@ -50,6 +51,7 @@ public class OsgiServer implements ServiceTrackerCustomizer<XAResourceRecovery,
     TransactionManagerService transactionManagerService;
     RecoveryManagerService recoveryManagerService;
     ObjStoreBrowserService objStoreBrowserService;
+    TransactionManagerWrapper transactionManagerWrapper;
 
     private final BundleContext bundleContext;
     private final Dictionary<String, ?> configuration;
@@ -110,8 +112,14 @@ public class OsgiServer implements ServiceTrackerCustomizer<XAResourceRecovery,
         register(UserTransaction.class, transactionManagerService.getUserTransaction());
         register(ObjStoreBrowserService.class, objStoreBrowserService);
 
-        // Only modification to this class to register the transx TM
-        register(org.ops4j.pax.transx.tm.TransactionManager.class, new TransactionManagerWrapper(transactionManagerService.getTransactionManager()));
+        // register the transx TM, configured from the same properties
+        TransactionManagerWrapper wrapper = new TransactionManagerWrapper(transactionManagerService.getTransactionManager());
+        wrapper.setCommitThreads(Integer.parseInt(properties.getProperty(AbstractTransactionManagerWrapper.COMMIT_THREADS, "0")));
+        wrapper.setRecoveryPrefetchValidity(Long.parseLong(properties.getProperty(AbstractTransactionManagerWrapper.RECOVERY_PREFETCH_VALIDITY,
+                Long.toString(wrapper.getRecoveryPrefetchValidity()))));
+        wrapper.setRecoveryThreads(Integer.parseInt(properties.getProperty(AbstractTransactionManagerWrapper.RECOVERY_THREADS, "0")));
+        register(org.ops4j.pax.transx.tm.TransactionManager.class, wrapper);
+        transactionManagerWrapper = wrapper;
 
         try {
             registrations.add(PlatformTransactionManagerImple.register(
@@ -143,6 +151,11 @@ public class OsgiServer implements ServiceTrackerCustomizer<XAResourceRecovery,
             }
             registrations = null;
         }
+        if (transactionManagerWrapper != null) {
+            transactionManagerWrapper.setCommitThreads(0);
+            transactionManagerWrapper.setRecoveryThreads(0);
+            transactionManagerWrapper = null;
+        }
         if (transactionManagerService != null) {
             try {
                 try {
@@ -18,11 +18,17 @@ package org.jboss.narayana.osgi.jta.internal;
 import java.lang.reflect.Proxy;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.transaction.Status;
+import javax.transaction.SystemException;
 import javax.transaction.TransactionManager;
 import javax.transaction.xa.XAException;
 import javax.transaction.xa.XAResource;
 import javax.transaction.xa.Xid;
 
+import com.arjuna.ats.arjuna.common.RecoveryEnvironmentBean;
+import com.arjuna.ats.arjuna.common.recoveryPropertyManager;
+import com.arjuna.ats.internal.jta.transaction.arjunacore.TransactionImple;
 import com.arjuna.ats.jbossatx.jta.RecoveryManagerService;
 import org.jboss.tm.XAResourceRecovery;
 import org.ops4j.pax.transx.tm.LastResource;
@@ -38,6 +44,10 @@ public class TransactionManagerWrapper extends AbstractTransactionManagerWrapper
 
     public TransactionManagerWrapper(TransactionManager narayanaTransactionManager) {
         super(narayanaTransactionManager);
+        // registered resources are first scanned by the next periodic recovery pass
+        RecoveryEnvironmentBean recoveryEnvironment = recoveryPropertyManager.getRecoveryEnvironmentBean();
+        setRecoveryPrefetchValidity(TimeUnit.SECONDS.toMillis(
+                recoveryEnvironment.getPeriodicRecoveryPeriod() + recoveryEnvironment.getRecoveryBackoffPeriod()));
         recoveryManagerService = new RecoveryManagerService();
         recoveryManagerService.create();
         recoveryManagerService.start();
@@ -50,9 +60,10 @@ public class TransactionManagerWrapper extends AbstractTransactionManagerWrapper
 
     @Override
     public synchronized void registerResource(ResourceFactory resource) {
+        ResourceFactory factory = prefetchRecovery(resource);
         XAResourceRecovery rr = () -> new XAResource[] {
                 new XAResource() {
-                    NamedResource xares = resource.create();
+                    NamedResource xares = factory.create();
                     @Override
                     public void commit(Xid xid, boolean b) throws XAException {
                         xares.commit(xid, b);
@@ -61,7 +72,7 @@ public class TransactionManagerWrapper extends AbstractTransactionManagerWrapper
                     public void end(Xid xid, int i) throws XAException {
                         xares.end(xid, i);
                         if ((i & XAResource.TMENDRSCAN) != 0) {
-                            resource.release(xares);
+                            factory.release(xares);
                         }
                     }
                     @Override
@@ -119,6 +130,17 @@ public class TransactionManagerWrapper extends AbstractTransactionManagerWrapper
         return resources.get(name);
     }
 
+    /**
+     * Narayana already starts a resource of the same resource manager as an enlisted one on
+     * its branch with TMJOIN.
+     */
+    @Override
+    public void setJoinSameRM(boolean joinSameRM) {
+        if (joinSameRM) {
+            throw new UnsupportedOperationException("Narayana joins resources of the same resource manager itself");
+        }
+    }
+
     @Override
     protected TransactionWrapper doCreateTransactionWrapper(javax.transaction.Transaction tx) {
         return new NarayanaTransactionWrapper(tx);
@@ -133,6 +155,30 @@ public class TransactionManagerWrapper extends AbstractTransactionManagerWrapper
             super(transaction);
         }
 
+        /**
+         * Narayana reports the time left from its transaction reaper, which may be negative once
+         * the timeout passed, and zero when the reaper does not know the transaction: either it
+         * has no timeout, or it was already reaped and is no longer active.
+         */
+        @Override
+        public long getRemainingTime() {
+            try {
+                javax.transaction.Transaction tx = getTransaction();
+                if (tx instanceof TransactionImple) {
+                    long remaining = ((TransactionImple) tx).getRemainingTimeoutMills();
+                    if (remaining > 0) {
+                        return remaining;
+                    }
+                    if (remaining < 0 || tx.getStatus() != Status.STATUS_ACTIVE) {
+                        return 0;
+                    }
+                }
+            } catch (SystemException e) {
+                // unknown
+            }
+            return Long.MAX_VALUE;
+        }
+
         @Override
         public void enlistResource(NamedResource xares) throws Exception {
             if (xares instanceof LastResource) {
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2021 OPS4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.transx.tm.impl.narayana;
+
+import org.jboss.narayana.osgi.jta.internal.TransactionManagerWrapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.pax.transx.tm.Transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RemainingTimeTest {
+
+    javax.transaction.TransactionManager jtm;
+    TransactionManagerWrapper tm;
+
+    @Before
+    public void setUp() throws Exception {
+        jtm = com.arjuna.ats.jta.TransactionManager.transactionManager();
+        tm = new TransactionManagerWrapper(jtm);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        jtm.setTransactionTimeout(0);
+        // the reaper rolls back expired transactions but leaves them associated with the thread
+        jtm.suspend();
+    }
+
+    @Test
+    public void testRemainingTime() throws Exception {
+        jtm.setTransactionTimeout(60);
+        Transaction tx = tm.begin();
+
+        long remaining = tx.getRemainingTime();
+        assertTrue(remaining > 0 && remaining <= 60000);
+        tx.rollback();
+    }
+
+    @Test
+    public void testExpiredTransaction() throws Exception {
+        jtm.setTransactionTimeout(1);
+        Transaction tx = tm.begin();
+
+        Thread.sleep(2000);
+        assertEquals(0, tx.getRemainingTime());
+    }
+
+}